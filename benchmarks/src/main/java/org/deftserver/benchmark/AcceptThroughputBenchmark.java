@@ -0,0 +1,78 @@
+package org.deftserver.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.deftserver.util.ReusePortUtil;
+import org.deftserver.web.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the accept throughput (new connections per second, one "Connection: close" GET per connection) of a 
+ * shared listener (dedicated acceptor, {@link HttpServer#start(int)}) with SO_REUSEPORT listener sharding 
+ * ({@link HttpServer#listenReusePort(int, int)}). If SO_REUSEPORT is not supported both use a shared listener.
+ * <p>
+ * Every benchmark thread is a client, the server runs one io loop per processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")	// the io loop threads are not daemons
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+public class AcceptThroughputBenchmark {
+
+	private final static Logger logger = LoggerFactory.getLogger(AcceptThroughputBenchmark.class);
+
+	private static final int PORT = 9080;
+	
+	private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes();
+
+	@Param({ "shared", "reuseport" })
+	public String listener;
+	
+	private HttpServer server;
+	
+	@Setup
+	public void setUp() throws InterruptedException {
+		if ("reuseport".equals(listener) && !ReusePortUtil.isSupported()) {
+			logger.warn("SO_REUSEPORT is not supported by this JVM/OS, using a shared listener");
+		}
+		int ioLoops = Runtime.getRuntime().availableProcessors();
+		server = new HttpServer(BenchmarkClient.newApplication(Collections.singletonMap("/", "ok")));
+		if ("shared".equals(listener)) {
+			server.bind(PORT);
+			server.start(ioLoops);
+		} else {
+			server.listenReusePort(PORT, ioLoops);
+		}
+		Thread.sleep(500);	// let the io loops start
+	}
+	
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+	
+	@Benchmark
+	public void connection() throws IOException {
+		BenchmarkClient.requestAndClose(PORT, REQUEST);
+	}
+
+}
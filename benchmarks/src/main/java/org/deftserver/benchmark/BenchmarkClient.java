@@ -0,0 +1,88 @@
+package org.deftserver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Map;
+
+import org.deftserver.web.Application;
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.http.HttpRequest;
+import org.deftserver.web.http.HttpResponse;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The (blocking) HTTP client and the application of the benchmarks that run against a {@code HttpServer}.
+ */
+class BenchmarkClient {
+
+	private BenchmarkClient() {}
+
+	/**
+	 * @return an application that serves the given body for every path
+	 */
+	static Application newApplication(Map<String, String> bodies) {
+		Map<String, RequestHandler> handlers = Maps.newHashMap();
+		for (Map.Entry<String, String> entry : bodies.entrySet()) {
+			final String body = entry.getValue();
+			handlers.put(entry.getKey(), new RequestHandler() {
+				@Override public void get(HttpRequest request, HttpResponse response) { response.write(body); }
+			});
+		}
+		return new Application(handlers);
+	}
+
+	/**
+	 * Sends the request on a new connection and reads until the server closes the connection.
+	 */
+	static void requestAndClose(int port, byte[] request) throws IOException {
+		Socket socket = new Socket("localhost", port);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write(request);
+			os.flush();
+			InputStream is = socket.getInputStream();
+			byte[] buffer = new byte[512];
+			while (is.read(buffer) != -1) { /* read until the server closes the connection */ }
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Reads one response (headers and a body delimited by "Content-Length").
+	 * @return the length of the body
+	 */
+	static int readResponse(InputStream is) throws IOException {
+		int contentLength = 0;
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			int b = is.read();
+			if (b == -1) {
+				throw new IOException("connection closed by server");
+			} else if (b == '\n') {
+				if (line.length() == 0) {
+					break;	// end of headers
+				}
+				String header = line.toString();
+				if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+					contentLength = Integer.parseInt(header.substring(15).trim());
+				}
+				line.setLength(0);
+			} else if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		for (long remaining = contentLength; remaining > 0; ) {
+			long skipped = is.skip(remaining);
+			if (skipped <= 0) {
+				throw new IOException("connection closed by server");
+			}
+			remaining -= skipped;
+		}
+		return contentLength;
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.deftserver.benchmark;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Compares how the io loop and {@code HttpProtocol} find the state of a connection while serving one keep-alive
+ * request: by looking up the channel in maps (the handler, the unfinished request, the keep-alive timeout, the
+ * streaming response and the pipelined requests were kept in maps keyed by channel, 8 lookups per request) and by
+ * following the {@code Connection} attached to the {@code SelectionKey} (no lookups).
+ * <p>
+ * The maps hold the state of {@code connections} open connections and the requests are spread over them (i.e. the
+ * lookups miss the CPU caches the way they do in a busy server). Only the state accesses are measured, not the I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConnectionStateBenchmark {
+
+	@Param("10000")
+	public int connections;
+	
+	private ConnectionState[] states;
+	private SelectableChannel[] channels;
+	private final MapState maps = new MapState();
+	private int next = 0;
+	
+	@Setup
+	public void setUp() throws IOException {
+		states = new ConnectionState[connections];
+		channels = new SelectableChannel[connections];
+		for (int i = 0; i < connections; i++) {
+			channels[i] = SocketChannel.open();	// never connected, identity hash code and equals like a real one
+			states[i] = new ConnectionState();
+			maps.register(channels[i], states[i]);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		for (SelectableChannel channel : channels) {
+			channel.close();
+		}
+	}
+	
+	/* mimics IOLoop and HttpProtocol before the Connection */
+	@Benchmark
+	public int maps() {
+		next = (next + 7919) % connections;	// a prime stride, not the order of registration
+		return maps.serve(channels[next]);
+	}
+	
+	/* mimics IOLoop and HttpProtocol with the Connection attached to the key */
+	@Benchmark
+	public int attached() {
+		next = (next + 7919) % connections;
+		ConnectionState state = states[next];
+		int found = 0;
+		found += state.handler != null ? 1 : 0;
+		found += state.partial != null ? 1 : 0;
+		found += state.keepAliveTimeout != null ? 1 : 0;
+		found += state.keepAliveTimeout != null ? 1 : 0;
+		found += state.keepAliveTimeout != null ? 1 : 0;
+		state.streamingResponse = null;
+		state.pipelined = null;
+		found += state.keepAliveTimeout != null ? 1 : 0;
+		return found;
+	}
+
+	/* the state of a connection */
+	private static class ConnectionState {
+
+		Object handler = new Object();
+		Object partial;
+		Object keepAliveTimeout = this;
+		Object streamingResponse;
+		Object pipelined;
+
+	}
+
+	private static class MapState {
+
+		private final Map<SelectableChannel, Object> handlers = Maps.newHashMap();
+		private final Map<SelectableChannel, Object> partials = Maps.newHashMap();
+		private final Map<SelectableChannel, Object> keepAliveTimeouts = Maps.newHashMap();
+		private final Map<SelectableChannel, Object> streamingResponses = Maps.newHashMap();
+		private final Map<SelectableChannel, Object> pipelined = Maps.newHashMap();
+
+		void register(SelectableChannel channel, ConnectionState state) {
+			handlers.put(channel, state.handler);
+			keepAliveTimeouts.put(channel, state);
+		}
+
+		int serve(SelectableChannel channel) {
+			int found = 0;
+			found += handlers.get(channel) != null ? 1 : 0;				// IOLoop, the handler of the selected key
+			found += partials.get(channel) != null ? 1 : 0;				// unfinished request
+			found += keepAliveTimeouts.get(channel) != null ? 1 : 0;	// keep-alive timeout of the request
+			found += keepAliveTimeouts.containsKey(channel) ? 1 : 0;	// HttpResponse.flush
+			found += keepAliveTimeouts.get(channel) != null ? 1 : 0;	// and prolonged
+			found += streamingResponses.remove(channel) != null ? 1 : 0;	// closeOrRegisterForRead
+			found += pipelined.remove(channel) != null ? 1 : 0;
+			found += keepAliveTimeouts.containsKey(channel) ? 1 : 0;
+			return found;
+		}
+
+	}
+
+}
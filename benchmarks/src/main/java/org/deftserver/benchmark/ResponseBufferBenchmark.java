@@ -0,0 +1,95 @@
+package org.deftserver.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.deftserver.io.buffer.ByteBufferPool;
+import org.deftserver.io.buffer.CompositeByteBuffer;
+import org.deftserver.io.buffer.DynamicByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares how a response is buffered and written by {@link DynamicByteBuffer} (body copied on every reallocation, 
+ * copied again by prepend and a third time by the JDK into a temporary direct buffer) and by 
+ * {@link CompositeByteBuffer} (pooled direct segments, headers prepended as a segment of their own and one gathering 
+ * write).
+ * <p>
+ * The body is written in 1 kB chunks (like a request handler invoking {@code HttpResponse.write} repeatedly) and the 
+ * response is written to /dev/null (i.e. the cost of the actual send is excluded).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseBufferBenchmark {
+
+	private static final byte[] HEADERS = ("HTTP/1.1 200 OK\r\nServer: Deft/0.4.0-SNAPSHOT\r\n" +
+			"Date: Thu, 01 Jan 1970 00:00:00 GMT\r\nContent-Length: 0\r\nConnection: Keep-Alive\r\n\r\n")
+			.getBytes(Charsets.US_ASCII);
+	
+	private static final byte[] CHUNK = new byte[1024];
+	
+	@Param({ "1024", "16384", "262144" })
+	public int bodySize;
+	
+	private FileChannel sink;
+	private ByteBufferPool pool;
+	
+	@Setup
+	public void setUp() throws IOException {
+		sink = new FileOutputStream("/dev/null").getChannel();
+		pool = new ByteBufferPool();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		sink.close();
+	}
+	
+	/* mimics HttpResponse before the composite buffer */
+	@Benchmark
+	public void dynamicByteBuffer() throws IOException {
+		DynamicByteBuffer dbb = DynamicByteBuffer.allocate(1024);
+		for (int written = 0; written < bodySize; written += CHUNK.length) {
+			dbb.put(CHUNK);
+		}
+		dbb.prepend(new String(HEADERS, Charsets.US_ASCII));
+		dbb.flip();
+		ByteBuffer toSend = dbb.getByteBuffer();
+		while (toSend.hasRemaining()) {
+			sink.write(toSend);
+		}
+	}
+	
+	@Benchmark
+	public void compositeByteBuffer() throws IOException {
+		CompositeByteBuffer cbb = new CompositeByteBuffer(pool, 4 * 1024);
+		for (int written = 0; written < bodySize; written += CHUNK.length) {
+			cbb.put(CHUNK);
+		}
+		cbb.prepend(ByteBuffer.wrap(new String(HEADERS, Charsets.US_ASCII).getBytes(Charsets.UTF_8)));
+		while (cbb.hasRemaining()) {
+			cbb.writeTo(sink);
+		}
+		cbb.release();
+	}
+	
+}
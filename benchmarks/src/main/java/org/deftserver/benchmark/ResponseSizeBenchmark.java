@@ -0,0 +1,108 @@
+package org.deftserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.deftserver.web.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput (requests per second) of keep-alive GETs against a single io loop for different response
+ * body sizes. The handler writes a prebuilt (JSON like) body, i.e. the benchmark is dominated by the response 
+ * buffering and writing (header block, Etag, Content-Length and the write to the socket).
+ * <p>
+ * Every benchmark thread is a client with its own keep-alive connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")	// the io loop threads are not daemons
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+public class ResponseSizeBenchmark {
+
+	private static final int PORT = 9082;
+
+	@Param({ "1", "16", "64", "256", "1024" })
+	public int sizeKb;
+	
+	private HttpServer server;
+
+	@Setup
+	public void setUp() throws InterruptedException {
+		server = new HttpServer(BenchmarkClient.newApplication(Collections.singletonMap("/", createBody(sizeKb * 1024))));
+		server.bind(PORT);
+		server.start(1);
+		Thread.sleep(500);	// let the io loop start
+	}
+	
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	private static String createBody(int size) {
+		StringBuilder sb = new StringBuilder(size);
+		sb.append('[');
+		for (int i = 0; sb.length() < size - 32; i++) {
+			sb.append("{\"id\":").append(i).append(",\"ok\":true},");
+		}
+		char[] padding = new char[size - sb.length() - 1];
+		Arrays.fill(padding, ' ');
+		return sb.append(padding).append(']').toString();
+	}
+	
+	@Benchmark
+	public int request(Client client) throws IOException {
+		client.os.write(Client.REQUEST);
+		client.os.flush();
+		return BenchmarkClient.readResponse(client.is);
+	}
+	
+	/**
+	 * A keep-alive connection per benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		
+		static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes();
+		
+		Socket socket;
+		OutputStream os;
+		InputStream is;
+		
+		@Setup
+		public void connect(ResponseSizeBenchmark server) throws IOException {	// after the server is started
+			socket = new Socket("localhost", PORT);
+			socket.setTcpNoDelay(true);
+			os = socket.getOutputStream();
+			is = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+		}
+		
+		@TearDown
+		public void close() throws IOException {
+			socket.close();
+		}
+		
+	}
+
+}
@@ -170,14 +170,19 @@ public class AsynchronousSocket implements IOHandler {
 	@Override
 	public void handleRead(SelectionKey key) throws IOException {
 		logger.debug("handle read...");
-		ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BYTEBUFFER_SIZE);
-		int read = ((SocketChannel) key.channel()).read(buffer);
-		if (read == -1) {	// EOF
-			reachedEOF = true;
-			ioLoop.updateHandler(channel, interestOps &= ~SelectionKey.OP_READ);
-			return;
+		ByteBuffer buffer = ioLoop.getByteBufferPool().acquire(DEFAULT_BYTEBUFFER_SIZE);
+		try {
+			int read = ((SocketChannel) key.channel()).read(buffer);
+			if (read == -1) {	// EOF
+				reachedEOF = true;
+				ioLoop.updateHandler(channel, interestOps &= ~SelectionKey.OP_READ);
+				return;
+			}
+			buffer.flip();
+			readBuffer.append(Charsets.ISO_8859_1.decode(buffer));
+		} finally {
+			ioLoop.getByteBufferPool().release(buffer);
 		}
-		readBuffer.append(new String(buffer.array(), 0, buffer.position(), Charsets.ISO_8859_1));
 		logger.debug("readBuffer size: {}", readBuffer.length());
 		checkReadState();
 	}
@@ -292,14 +297,20 @@ public class AsynchronousSocket implements IOHandler {
 	 */
 	private void doWrite() {
 		int written = 0;
+		ByteBuffer buffer = null;
 		try {
 			if (((SocketChannel)channel).isConnected()) {
-				written = ((SocketChannel) channel).write(ByteBuffer.wrap(writeBuffer.toString().getBytes()));
+				byte[] data = writeBuffer.toString().getBytes();
+				buffer = ioLoop.getByteBufferPool().acquire(data.length);
+				buffer.put(data).flip();
+				written = ((SocketChannel) channel).write(buffer);
 			}
 		} catch (IOException e) {
 			logger.error("IOException during write: {}", e.getMessage());
 			invokeCloseCallback();
 			Closeables.closeQuietly(ioLoop, channel);
+		} finally {
+			ioLoop.getByteBufferPool().release(buffer);
 		}
 		writeBuffer.delete(0, written);
 		logger.debug("wrote: {} bytes", written);
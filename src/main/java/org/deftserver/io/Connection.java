@@ -0,0 +1,74 @@
+package org.deftserver.io;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * The state of a registered channel, attached to its {@code SelectionKey} (see
+ * {@link IOLoop#addHandler(Connection, int)}). The io loop finds the {@code IOHandler} of a selected key and the
+ * keep-alive timeout of a channel through this object, i.e. without looking up the channel in a map. Protocols keep
+ * their per connection state (buffers, parser state, pending response) in subclasses.
+ */
+public class Connection {
+
+	private final SelectableChannel channel;
+	private final IOHandler handler;
+	private SelectionKey key;
+
+	/* the keep-alive timeout (an entry of the io loop's TimeoutManager), null if none */
+	private Object keepAliveTimeout;
+
+	public Connection(SelectableChannel channel, IOHandler handler) {
+		this.channel = channel;
+		this.handler = handler;
+	}
+
+	public SelectableChannel getChannel() {
+		return channel;
+	}
+
+	public IOHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * @return the key of the channel's registration, null until registered
+	 */
+	public SelectionKey getKey() {
+		return key;
+	}
+
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Sets the interest set of the channel's registration (nop if the channel is closed).
+	 */
+	public void setInterestOps(int interestOps) {
+		if (key != null && key.isValid()) {
+			key.interestOps(interestOps);
+		}
+	}
+
+	/**
+	 * Reserved for the {@link org.deftserver.io.timeout.TimeoutManager}.
+	 */
+	public Object getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+
+	/**
+	 * Reserved for the {@link org.deftserver.io.timeout.TimeoutManager}.
+	 */
+	public void setKeepAliveTimeout(Object keepAliveTimeout) {
+		this.keepAliveTimeout = keepAliveTimeout;
+	}
+
+	/**
+	 * Invoked by the io loop when the channel is unregistered (closed). Subclasses release their buffers.
+	 */
+	protected void release() {
+	}
+
+}
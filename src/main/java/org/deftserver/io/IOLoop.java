@@ -2,109 +2,195 @@ package org.deftserver.io;
 
 import static com.google.common.collect.Collections2.transform;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.deftserver.io.buffer.ByteBufferPool;
+import org.deftserver.io.buffer.CompositeByteBuffer;
 import org.deftserver.io.callback.CallbackManager;
 import org.deftserver.io.callback.JMXDebuggableCallbackManager;
 import org.deftserver.io.timeout.JMXDebuggableTimeoutManager;
 import org.deftserver.io.timeout.Timeout;
 import org.deftserver.io.timeout.TimeoutManager;
+import org.deftserver.io.transport.Transport;
+import org.deftserver.io.transport.TransportProvider;
 import org.deftserver.util.MXBeanUtil;
 import org.deftserver.web.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.io.Closeables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class IOLoop implements IOLoopMXBean {
 	
+	/* numbers the io loops (initialized before INSTANCE) */
+	private static final AtomicInteger sequence = new AtomicInteger();
+	
 	/* IOLoop singleton to use for convenience (otherwise you would have to pass around the 
 	 * IOLoop instance explicitly, now you can simply use IOLoop.INSTANCE) */
 	public static final IOLoop INSTANCE = new IOLoop();
 	
 	private boolean running = false;
 	
+	/* the thread that invoked start() */
+	private volatile Thread loopThread;
+	
+	/* true if transport.wakeup() has been invoked since the io loop last checked for pending callbacks */
+	private final AtomicBoolean wakenUp = new AtomicBoolean();
+	
 	private final Logger logger = LoggerFactory.getLogger(IOLoop.class);
 
-	private Selector selector;
+	/* the selector (null if it could not be opened) */
+	private final Transport transport;
 	
+	/* dispatches the selected keys to their handlers */
+	private final Transport.SelectedKeyHandler dispatcher = new Transport.SelectedKeyHandler() {
+		@Override public void handle(SelectionKey key) throws IOException { dispatch(key); }
+	};
+	
+	/* the handlers registered without a Connection (a Connection is attached to its key, it is only counted) */
 	private final Map<SelectableChannel, IOHandler> handlers = Maps.newHashMap();
+	private int numberOfConnections = 0;
+	
+	/* handlers.size() + numberOfConnections, published for other threads (e.g. JMX and acceptor threads) */
+	private volatile int numberOfHandlers = 0;
 	
 	private final TimeoutManager tm = new JMXDebuggableTimeoutManager();
 	private final CallbackManager cm = new JMXDebuggableCallbackManager();
+	private final ByteBufferPool bufferPool = new ByteBufferPool();
 	
-	private static final AtomicInteger sequence = new AtomicInteger();
+	/* the name of the io loop thread, also part of the ObjectNames of this io loop's MXBeans */
+	private final String name = "I/O-LOOP" + sequence.incrementAndGet();
+	
+	/** Default percentage of an iteration spent on I/O (the rest is spent on callbacks and timeouts) */
+	public static final int DEFAULT_IO_RATIO = 50;
 	
+	/** The default of {@link #getStarvationThreshold()} (ms) */
+	public static final int DEFAULT_STARVATION_THRESHOLD = 10;
+	
+	/* the budgets of an iteration, may be changed from other threads (JMX) */
+	private volatile int ioRatio = DEFAULT_IO_RATIO;
+	private volatile int starvationThreshold = DEFAULT_STARVATION_THRESHOLD;
+	private volatile int maxCallbacksPerIteration = JMXDebuggableCallbackManager.DEFAULT_MAX_CALLBACKS_PER_ITERATION;
+	private volatile int maxTimeoutsPerIteration = JMXDebuggableTimeoutManager.DEFAULT_MAX_TIMEOUTS_PER_ITERATION;
+	
+	/* only written by the io loop thread, read over JMX */
+	private volatile long ioStarvations = 0;
+	private volatile long taskStarvations = 0;
+	private volatile long writeBudgetExhaustions = 0;
+	
+	/**
+	 * Creates an io loop with the transport of {@link TransportProvider#provider()}, i.e. selected by the system 
+	 * property {@value org.deftserver.io.transport.TransportProvider#PROPERTY} ("nio", the default, or "optimized-nio").
+	 */
 	public IOLoop() {
+		this(TransportProvider.provider());
+	}
+	
+	/**
+	 * Creates an io loop with a transport of the given provider (NIO if the transport can not be opened).
+	 */
+	public IOLoop(TransportProvider provider) {
+		transport = openTransport(provider);
+		MXBeanUtil.registerMXBean(this, "IOLoop", name);
+		MXBeanUtil.registerMXBean(tm, "TimeoutManager", name);
+		MXBeanUtil.registerMXBean(cm, "CallbackManager", name);
+		MXBeanUtil.registerMXBean(bufferPool, "ByteBufferPool", name);
+	}
+	
+	private Transport openTransport(TransportProvider provider) {
 		try {
-			selector = Selector.open();
+			return provider.openTransport();
 		} catch (IOException e) {
-			logger.error("Could not open selector: {}", e.getMessage());
+			if (provider == TransportProvider.NIO) {
+				logger.error("Could not open selector: {}", e.getMessage());
+				return null;
+			}
+			logger.warn("Could not open {} transport, using nio: {}", provider, e.getMessage());
+			return openTransport(TransportProvider.NIO);
 		}
-		MXBeanUtil.registerMXBean(this, "IOLoop");
 	}
+	
 	/**
 	 * Start the io loop. The thread that invokes this method will be blocked (until {@link IOLoop#stop} is invoked) 
 	 * and will be the io loop thread.
+	 * <p>
+	 * Every iteration handles the selected keys and then executes the expired timeouts and the queued callbacks. The 
+	 * timeouts and callbacks get {@code (100 - ioRatio) / ioRatio} of the time spent on I/O (no limit if no key was 
+	 * selected) and at most {@link #getMaxTimeoutsPerIteration()} timeouts and {@link #getMaxCallbacksPerIteration()}
+	 * callbacks are executed, the rest are executed during the next iteration (which does not block in select).
 	 */
 	public void start() {
-		Thread.currentThread().setName("I/O-LOOP" + sequence.incrementAndGet());
+		Thread.currentThread().setName(name);
+		loopThread = Thread.currentThread();
 		running = true;
 		
 		long selectorTimeout = 250; // 250 ms
 		while (running) {
 			try {
-				if (selector.select(selectorTimeout) == 0) {
-					long ms = tm.execute();
-					selectorTimeout = Math.min(ms, /*selectorTimeout*/ 250);
-					if (cm.execute()) {
-						selectorTimeout = 1;
-					}
-					continue;
+				// selectorTimeout is 0 if there are pending callbacks
+				int selected = transport.select(selectorTimeout);
+				long ioStart = System.nanoTime();
+				if (selected > 0) {
+					transport.processSelectedKeys(dispatcher);
 				}
-
-				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-				while (keys.hasNext()) {
-					SelectionKey key = keys.next();
-					IOHandler handler = handlers.get(key.channel());
-					if (key.isAcceptable()) {
-						handler.handleAccept(key);
-					}
-					if (key.isConnectable()) {
-						handler.handleConnect(key);
-					}
-					if (key.isValid() && key.isReadable()) {
-						handler.handleRead(key);
-					}
-					if (key.isValid() && key.isWritable()) {
-						handler.handleWrite(key);
-					}
-					keys.remove();
+				long taskStart = System.nanoTime();
+				int ratio = ioRatio;
+				long deadline = selected == 0 || ratio == 100 ? 
+						CallbackManager.NO_DEADLINE : taskStart + (taskStart - ioStart) * (100 - ratio) / ratio;
+				long ms = tm.execute(maxTimeoutsPerIteration, deadline);
+				// must be reset before the callbacks are executed, otherwise a callback added (from another thread) 
+				// after cm.execute() but before the reset would not wake up the next select 
+				wakenUp.set(false);
+				boolean pending = cm.execute(maxCallbacksPerIteration, deadline);
+				selectorTimeout = pending ? 0 : Math.min(ms, /*selectorTimeout*/ 250);
+				bufferPool.releaseDeferred();
+				
+				long taskEnd = System.nanoTime();
+				if (taskEnd - taskStart > TimeUnit.MILLISECONDS.toNanos(starvationThreshold)) {
+					ioStarvations++;
 				}
-				long ms = tm.execute();
-				selectorTimeout = Math.min(ms, /*selectorTimeout*/ 250);
-				if (cm.execute()) { 
-					selectorTimeout = 1; 
+				if (selectorTimeout == 0 && deadline != CallbackManager.NO_DEADLINE && taskEnd - deadline >= 0) {
+					taskStarvations++;	// (probably) deferred because of the time spent on I/O
 				}
-
 			} catch (IOException e) {
 				logger.error("Exception received in IOLoop: {}", e);			
 			}
 		}
 	}
 	
+	private void dispatch(SelectionKey key) throws IOException {
+		Object attachment = key.attachment();
+		IOHandler handler = attachment instanceof Connection ? 
+				((Connection) attachment).getHandler() : handlers.get(key.channel());
+		if (key.isAcceptable()) {
+			handler.handleAccept(key);
+		}
+		if (key.isConnectable()) {
+			handler.handleConnect(key);
+		}
+		if (key.isValid() && key.isReadable()) {
+			handler.handleRead(key);
+		}
+		if (key.isValid() && key.isWritable()) {
+			handler.handleWrite(key);
+		}
+	}
+	
 	/**
 	 * Stop the io loop and release the thread (io loop thread) that invoked the {@link IOLoop#start} method.
 	 */
@@ -125,27 +211,69 @@ public class IOLoop implements IOLoopMXBean {
 	 */
 	public SelectionKey addHandler(SelectableChannel channel, IOHandler handler, int interestOps, Object attachment) {
 		handlers.put(channel, handler);
+		numberOfHandlers = handlers.size() + numberOfConnections;
 		return registerChannel(channel, interestOps, attachment);		
 	}
 	
+	/**
+	 * Registers the channel of the given {@code Connection}, the connection is the attachment of the channel's 
+	 * {@code SelectionKey}. The interest set is updated through the connection ({@link Connection#setInterestOps}).
+	 * 
+	 * @param interestOps See {@link SelectionKey} for valid values. (Xor for multiple interests).
+	 */
+	public SelectionKey addHandler(Connection connection, int interestOps) {
+		SelectionKey key = registerChannel(connection.getChannel(), interestOps, connection);
+		if (key == null) {
+			connection.release();	// the channel is closed
+			return null;
+		}
+		numberOfConnections++;
+		numberOfHandlers = handlers.size() + numberOfConnections;
+		connection.setKey(key);
+		return key;
+	}
+	
 	/**
 	 * Unregisters the previously registered {@code IOHandler}.
+	 * If the attachment of the channel's {@code SelectionKey} is a buffer that is leased from this {@code IOLoop}'s
+	 * {@link ByteBufferPool} it is released (at the end of the current iteration). A {@code Closeable} attachment is
+	 * closed and a {@link Connection} is released.
 
 	 * @param channel The {@code SelectableChannel} that was registered with a user defined {@code IOHandler}
 	 */
 	public void removeHandler(SelectableChannel channel) {
-		handlers.remove(channel);
+		SelectionKey key = transport.keyFor(channel);
+		Object attachment = key == null ? null : key.attachment();
+		if (attachment instanceof Connection) {
+			numberOfConnections--;
+		} else {
+			handlers.remove(channel);
+		}
+		numberOfHandlers = handlers.size() + numberOfConnections;
+		if (key != null) {
+			if (attachment instanceof Connection) {
+				((Connection) attachment).release();
+			} else if (attachment instanceof CompositeByteBuffer) {
+				((CompositeByteBuffer) attachment).release();
+			} else if (attachment instanceof ByteBuffer) {
+				bufferPool.releaseLater((ByteBuffer) attachment);
+			} else if (attachment instanceof Closeable) {
+				Closeables.closeQuietly((Closeable) attachment);	// e.g. a pending file transfer
+			}
+			key.attach(null);
+		}
 	}
 	
 	/**
-	 * Update an earlier registered {@code SelectableChannel}
+	 * Update an earlier registered {@code SelectableChannel} (use {@link Connection#setInterestOps} for the channel of
+	 * a {@code Connection}).
 	 * 
 	 * @param channel The {@code SelectableChannel}
 	 * @param newInterestOps The complete new set of interest operations.
 	 */
 	public void updateHandler(SelectableChannel channel, int newInterestOps) {
 		if (handlers.containsKey(channel)) {
-			channel.keyFor(selector).interestOps(newInterestOps);
+			transport.keyFor(channel).interestOps(newInterestOps);
 		} else {
 			logger.warn("Tried to update interestOps for an unknown SelectableChannel.");
 		}
@@ -160,7 +288,7 @@ public class IOLoop implements IOLoopMXBean {
 	 */
 	private SelectionKey registerChannel(SelectableChannel channel, int interestOps, Object attachment) {
 		try {
-			return channel.register(selector, interestOps, attachment);
+			return transport.register(channel, interestOps, attachment);
 		} catch (ClosedChannelException e) {
 			removeHandler(channel);
 			logger.error("Could not register channel: {}", e.getMessage());		
@@ -176,32 +304,191 @@ public class IOLoop implements IOLoopMXBean {
 		return tm.hasKeepAliveTimeout(channel);
 	}
 	
+	public void addKeepAliveTimeout(Connection connection, Timeout keepAliveTimeout) {
+		tm.addKeepAliveTimeout(connection, keepAliveTimeout);
+	}
+	
+	public boolean hasKeepAliveTimeout(Connection connection) {
+		return tm.hasKeepAliveTimeout(connection);
+	}
+	
 	public void addTimeout(Timeout timeout) {
 		tm.addTimeout(timeout);
 	}
 
 	/**
-	 * The callback will be invoked in the next iteration in the io loop. This is the only thread safe method that is
-	 * exposed by Deft. 
+	 * @return the pool of direct buffers owned by this {@code IOLoop}. The pool is not thread safe and should only be 
+	 * used from the io loop thread.
+	 */
+	public ByteBufferPool getByteBufferPool() {
+		return bufferPool;
+	}
+	
+	/**
+	 * Wakes up the io loop if it is blocked waiting for io events. This method is thread safe.
+	 * Wakeups are coalesced, i.e. only the first invocation since the io loop last checked for pending callbacks 
+	 * results in a {@code Selector.wakeup()} (syscall).
+	 */
+	public void wakeup() {
+		if (wakenUp.compareAndSet(false, true)) {
+			transport.wakeup();
+		}
+	}
+	
+	/**
+	 * @return true if the current thread is the io loop thread (i.e. the thread that invoked {@link #start()}).
+	 */
+	public boolean isIOLoopThread() {
+		return Thread.currentThread() == loopThread;
+	}
+
+	/**
+	 * The callback will be invoked in the next iteration in the io loop. This method is thread safe.
 	 * This is a convenient way to return control to the io loop.
+	 * If invoked from another thread than the io loop thread the io loop is woken up (if blocked in select).
 	 */
 	public void addCallback(AsyncCallback callback) {
 		cm.addCallback(callback);
+		if (!isIOLoopThread()) {
+			wakeup();
+		}
+	}
+	
+	/**
+	 * Executes the given task on the io loop thread during the next iteration. This method is thread safe and 
+	 * intended to be used to hand results from other (e.g. worker) threads back to the io loop. 
+	 */
+	public void execute(final Runnable task) {
+		addCallback(new AsyncCallback() { @Override public void onCallback() { task.run(); } });
+	}
+	
+	/**
+	 * Executes the given task on the io loop thread after the given delay. This method is thread safe.
+	 * 
+	 * @return The {@code Timeout} that can be used to cancel the task ({@link Timeout#cancel()}).
+	 */
+	public Timeout schedule(final Runnable task, long delay, TimeUnit unit) {
+		final Timeout timeout = new Timeout(
+				System.currentTimeMillis() + unit.toMillis(delay), 
+				new AsyncCallback() { @Override public void onCallback() { task.run(); } }
+		);
+		if (isIOLoopThread()) {
+			tm.addTimeout(timeout);
+		} else {
+			// the timeout manager is not thread safe
+			addCallback(new AsyncCallback() { @Override public void onCallback() { tm.addTimeout(timeout); } });
+		}
+		return timeout;
+	}
+	
+	/**
+	 * Invoked by an {@code IOHandler} that stopped writing to a writable channel because it wrote its max number of 
+	 * bytes per event (the rest is written during the next iteration), see {@link #getWriteBudgetExhaustions()}.
+	 */
+	public void recordWriteBudgetExhaustion() {
+		writeBudgetExhaustions++;
 	}
 	
 // implements IOLoopMXBean
+	@Override
+	public int getIORatio() {
+		return ioRatio;
+	}
+
+	/**
+	 * Sets the percentage (1-100) of an iteration spent on I/O, the rest is spent on timeouts and callbacks. 100 means
+	 * that the timeouts and callbacks are not limited in time (only in number). This method is thread safe.
+	 */
+	@Override
+	public void setIORatio(int ioRatio) {
+		if (ioRatio <= 0 || ioRatio > 100) {
+			throw new IllegalArgumentException("ioRatio: " + ioRatio + " (expected: 0 < ioRatio <= 100)");
+		}
+		this.ioRatio = ioRatio;
+	}
+
+	@Override
+	public int getMaxCallbacksPerIteration() {
+		return maxCallbacksPerIteration;
+	}
+
+	@Override
+	public void setMaxCallbacksPerIteration(int maxCallbacksPerIteration) {
+		if (maxCallbacksPerIteration <= 0) {
+			throw new IllegalArgumentException("maxCallbacksPerIteration must be positive");
+		}
+		this.maxCallbacksPerIteration = maxCallbacksPerIteration;
+	}
+
+	@Override
+	public int getMaxTimeoutsPerIteration() {
+		return maxTimeoutsPerIteration;
+	}
+
+	@Override
+	public void setMaxTimeoutsPerIteration(int maxTimeoutsPerIteration) {
+		if (maxTimeoutsPerIteration <= 0) {
+			throw new IllegalArgumentException("maxTimeoutsPerIteration must be positive");
+		}
+		this.maxTimeoutsPerIteration = maxTimeoutsPerIteration;
+	}
+
+	@Override
+	public int getStarvationThreshold() {
+		return starvationThreshold;
+	}
+
+	/**
+	 * Sets the time (ms) that the timeouts and callbacks of an iteration may run before the iteration is counted as 
+	 * I/O starvation (the selected keys of the next iteration wait for them), see {@link #getIOStarvations()}. This 
+	 * method is thread safe.
+	 */
+	@Override
+	public void setStarvationThreshold(int starvationThreshold) {
+		if (starvationThreshold <= 0) {
+			throw new IllegalArgumentException("starvationThreshold must be positive");
+		}
+		this.starvationThreshold = starvationThreshold;
+	}
+
+	@Override
+	public long getIOStarvations() {
+		return ioStarvations;
+	}
+
+	@Override
+	public long getTaskStarvations() {
+		return taskStarvations;
+	}
+
+	@Override
+	public long getWriteBudgetExhaustions() {
+		return writeBudgetExhaustions;
+	}
+
+	@Override
+	public String getTransport() {
+		return transport == null ? null : transport.getName();
+	}
+
 	@Override
 	public int getNumberOfRegisteredIOHandlers() {
-		return handlers.size();
+		return numberOfHandlers;
 	}
 
+	/**
+	 * @return the handlers that are registered without a {@code Connection}, followed by the number of connections
+	 * (the connections are not listed one by one).
+	 */
 	@Override
 	public List<String> getRegisteredIOHandlers() {
 		Map<SelectableChannel, IOHandler> defensive = new HashMap<SelectableChannel, IOHandler>(handlers);
 		Collection<String> readables = transform(defensive.values(), new Function<IOHandler, String>() {
 			@Override public String apply(IOHandler handler) { return handler.toString(); }
 		});
-		return Lists.newLinkedList(readables);
+		List<String> registered = Lists.newLinkedList(readables);
+		registered.add("connections: " + (numberOfHandlers - defensive.size()));
+		return registered;
 	}
 
 }
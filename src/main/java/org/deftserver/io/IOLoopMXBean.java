@@ -10,4 +10,43 @@ public interface IOLoopMXBean {
 	
 	List<String> getRegisteredIOHandlers();
 	
+	/**
+	 * @return the name of the transport (selector) of the io loop, "nio" or "optimized-nio"
+	 */
+	String getTransport();
+	
+	int getIORatio();
+	
+	void setIORatio(int ioRatio);
+	
+	int getMaxCallbacksPerIteration();
+	
+	void setMaxCallbacksPerIteration(int maxCallbacksPerIteration);
+	
+	int getMaxTimeoutsPerIteration();
+	
+	void setMaxTimeoutsPerIteration(int maxTimeoutsPerIteration);
+	
+	int getStarvationThreshold();
+	
+	void setStarvationThreshold(int starvationThreshold);
+	
+	/**
+	 * @return the number of iterations whose timeouts and callbacks ran longer than {@link #getStarvationThreshold()}
+	 * ms, i.e. kept the io loop from handling I/O.
+	 */
+	long getIOStarvations();
+	
+	/**
+	 * @return the number of iterations that left due timeouts or callbacks for the next one because the time budget 
+	 * (see {@link #getIORatio()}) was spent.
+	 */
+	long getTaskStarvations();
+	
+	/**
+	 * @return the number of writes that stopped at the max number of bytes per event although the channel was 
+	 * writable.
+	 */
+	long getWriteBudgetExhaustions();
+	
 }
@@ -0,0 +1,281 @@
+package org.deftserver.io.buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A pool of direct {@code ByteBuffer}s. Direct buffers avoid the copy (into a temporary direct buffer) that the JDK 
+ * does for every {@code SocketChannel.read/write} of a heap buffer, but they are expensive to allocate, hence the pool.
+ * <p>
+ * Buffers are pooled in a few size classes (1, 4, 16 and 64 kB). A request for a larger buffer is served by a new, 
+ * unpooled, direct buffer. 
+ * <p>
+ * Leak detection is optional (see {@link #LEAK_DETECTION_PROPERTY}), by default buffers are not tracked and
+ * {@link #acquire(int)} and {@link #release(ByteBuffer)} only poll from and add to the free list of the size class.
+ * Otherwise every n:th leased buffer is tracked by a weak reference, a tracked buffer that is garbage collected
+ * without being released is reported as a leak (log and {@link #getLeaks()}).
+ * <p>
+ * Releasing a read only or heap buffer is a nop. Other buffers that are not leased from this pool must not be
+ * released, and a buffer must not be released twice, unless every buffer is tracked (interval 1), then such releases
+ * are detected and ignored.
+ * <p>
+ * This class is not thread safe, every {@code IOLoop} has its own pool (see {@code IOLoop#getByteBufferPool()}), which
+ * is registered as an MXBean by the io loop.
+ */
+public class ByteBufferPool implements ByteBufferPoolMXBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(ByteBufferPool.class);
+	
+	/** Max number of bytes kept (not leased) per size class */
+	public static int MAX_POOLED_BYTES_PER_SIZE_CLASS = 1024 * 1024;	// 1 MB
+	
+	/** 
+	 * The system property that enables leak detection, the interval between tracked buffers: 0 (the default)
+	 * disables leak detection, 1 tracks every buffer and n tracks every n:th buffer.
+	 */
+	public static final String LEAK_DETECTION_PROPERTY = "org.deftserver.io.buffer.leakDetection";
+	
+	private static final int[] SIZE_CLASSES = { 1024, 4 * 1024, 16 * 1024, 64 * 1024 };
+
+	private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES.length];
+	
+	/* every n:th leased buffer is tracked, 0 if none */
+	private final int leakDetectionInterval;
+	private int untilTracked;
+	
+	/* tracked buffers by identity hash code (collisions are chained through Lease.next) */
+	private final Map<Integer, Lease> leases = Maps.newHashMap();
+	private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+	private int leased = 0;
+	
+	/* buffers to be released at the end of the current io loop iteration */
+	private final List<ByteBuffer> deferred = Lists.newArrayList();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long leaks = 0;
+	
+	public ByteBufferPool() {
+		this(Integer.getInteger(LEAK_DETECTION_PROPERTY, 0));
+	}
+	
+	/**
+	 * @param leakDetectionInterval track every n:th leased buffer, 0 disables leak detection
+	 */
+	public ByteBufferPool(int leakDetectionInterval) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			sizeClasses[i] = new SizeClass(SIZE_CLASSES[i]);
+		}
+		this.leakDetectionInterval = Math.max(0, leakDetectionInterval);
+		this.untilTracked = this.leakDetectionInterval;
+	}
+	
+	/**
+	 * @return a cleared (position=0, limit=capacity) direct {@code ByteBuffer} with a capacity of at least 
+	 * {@code minCapacity} bytes. The buffer should be given back to the pool using {@link #release(ByteBuffer)}.
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		SizeClass sizeClass = sizeClassFor(minCapacity);
+		ByteBuffer buffer = sizeClass == null ? null : sizeClass.free.pollLast();
+		if (buffer != null) {
+			hits++;
+			buffer.clear();
+		} else {
+			misses++;
+			buffer = ByteBuffer.allocateDirect(sizeClass == null ? minCapacity : sizeClass.size);
+		}
+		leased++;
+		if (leakDetectionInterval > 0 && --untilTracked == 0) {
+			untilTracked = leakDetectionInterval;
+			expungeLeaks();
+			track(buffer);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * @return the capacity of a buffer acquired with the given {@code minCapacity} (the size of its size class)
+	 */
+	public int capacityFor(int minCapacity) {
+		SizeClass sizeClass = sizeClassFor(minCapacity);
+		return sizeClass == null ? minCapacity : sizeClass.size;
+	}
+
+	/**
+	 * Gives back a buffer leased by {@link #acquire(int)}. The caller must not use the buffer after this method returns.
+	 * @return false if the buffer is a read only or heap buffer (or, if every buffer is tracked, not leased from this
+	 * pool).
+	 */
+	public boolean release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isReadOnly() || !buffer.isDirect()) {
+			return false;
+		}
+		boolean tracked = !leases.isEmpty() && untrack(buffer);
+		if (!tracked && leakDetectionInterval == 1) {
+			return false;	// every leased buffer is tracked
+		}
+		leased--;
+		SizeClass sizeClass = sizeClassFor(buffer.capacity());
+		if (sizeClass != null && sizeClass.size == buffer.capacity() && sizeClass.free.size() < sizeClass.maxPooled) {
+			sizeClass.free.addLast(buffer);
+		}
+		return true;
+	}
+	
+	/**
+	 * Releases the buffer at the end of the current io loop iteration (see {@link #releaseDeferred()}). Useful when the 
+	 * buffer might still be read by code further up the call stack (e.g. a request handler).
+	 */
+	public void releaseLater(ByteBuffer buffer) {
+		deferred.add(buffer);
+	}
+	
+	/**
+	 * Releases the buffers given to {@link #releaseLater(ByteBuffer)}. Invoked by the io loop once per iteration. 
+	 */
+	public void releaseDeferred() {
+		if (!deferred.isEmpty()) {
+			for (int i = 0; i < deferred.size(); i++) {
+				release(deferred.get(i));
+			}
+			deferred.clear();
+		}
+	}
+	
+	private SizeClass sizeClassFor(int capacity) {
+		for (SizeClass sizeClass : sizeClasses) {
+			if (capacity <= sizeClass.size) {
+				return sizeClass;
+			}
+		}
+		return null;
+	}
+	
+	private void track(ByteBuffer buffer) {
+		Integer hash = System.identityHashCode(buffer);
+		Lease lease = new Lease(buffer, collected, hash);
+		lease.next = leases.put(hash, lease);
+	}
+
+	/**
+	 * @return true if the buffer is tracked.
+	 */
+	private boolean untrack(ByteBuffer buffer) {
+		Integer hash = System.identityHashCode(buffer);
+		Lease previous = null;
+		for (Lease lease = leases.get(hash); lease != null; previous = lease, lease = lease.next) {
+			if (lease.get() == buffer) {
+				unlink(previous, lease);
+				lease.clear();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void unlink(Lease previous, Lease lease) {
+		if (previous != null) {
+			previous.next = lease.next;
+		} else if (lease.next != null) {
+			leases.put(lease.hash, lease.next);
+		} else {
+			leases.remove(lease.hash);
+		}
+	}
+	
+	/**
+	 * Removes the leases of buffers that have been garbage collected without being released.
+	 */
+	private void expungeLeaks() {
+		Lease leak;
+		while ((leak = (Lease) collected.poll()) != null) {
+			Lease previous = null;
+			for (Lease lease = leases.get(leak.hash); lease != null; previous = lease, lease = lease.next) {
+				if (lease == leak) {
+					unlink(previous, lease);
+					leased--;
+					leaks++;
+					logger.warn("ByteBuffer (capacity: {}) was garbage collected without being released", leak.capacity);
+					break;
+				}
+			}
+		}
+	}
+
+	// implements ByteBufferPoolMXBean
+	@Override
+	public long getHits() {
+		return hits;
+	}
+
+	@Override
+	public long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public int getNumberOfPooledBuffers() {
+		int pooled = 0;
+		for (SizeClass sizeClass : sizeClasses) {
+			pooled += sizeClass.free.size();
+		}
+		return pooled;
+	}
+
+	@Override
+	public long getPooledBytes() {
+		long bytes = 0;
+		for (SizeClass sizeClass : sizeClasses) {
+			bytes += (long) sizeClass.free.size() * sizeClass.size;
+		}
+		return bytes;
+	}
+
+	@Override
+	public int getNumberOfLeasedBuffers() {
+		return leased;
+	}
+
+	@Override
+	public long getLeaks() {
+		return leaks;
+	}
+	
+	private static class SizeClass {
+		
+		public final int size;
+		public final int maxPooled;
+		public final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+		
+		public SizeClass(int size) {
+			this.size = size;
+			this.maxPooled = Math.max(1, MAX_POOLED_BYTES_PER_SIZE_CLASS / size);
+		}
+		
+	}
+	
+	private static class Lease extends WeakReference<ByteBuffer> {
+		
+		public final Integer hash;
+		public final int capacity;
+		public Lease next;
+		
+		public Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue, Integer hash) {
+			super(buffer, queue);
+			this.hash = hash;
+			this.capacity = buffer.capacity();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,17 @@
+package org.deftserver.io.buffer;
+
+public interface ByteBufferPoolMXBean {
+
+	long getHits();
+	
+	long getMisses();
+	
+	int getNumberOfPooledBuffers();
+	
+	long getPooledBytes();
+	
+	int getNumberOfLeasedBuffers();
+	
+	long getLeaks();
+	
+}
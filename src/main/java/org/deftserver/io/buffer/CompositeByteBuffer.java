@@ -0,0 +1,288 @@
+package org.deftserver.io.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A growable byte buffer that is a list of fixed size segments (pooled direct {@code ByteBuffer}s).
+ * <p>
+ * Appending data never reallocates or copies what is already written, a new segment is simply added when the last one
+ * is full. Prepending (e.g. the initial line and headers of a HTTP response) inserts the given buffer as a segment of
+ * its own. All segments are written to the channel with a single gathering write
+ * ({@link GatheringByteChannel#write(ByteBuffer[], int, int)}) and segments that are completely written are given back
+ * to the pool.
+ * <p>
+ * All segments except the last one are kept in "read mode" (position = first unwritten byte, limit = end of data).
+ * The last segment is kept in "write mode" (position = end of data, limit = capacity).
+ */
+public class CompositeByteBuffer {
+
+	private final int segmentSize;
+
+	/* null if segments are heap buffers */
+	private ByteBufferPool pool;
+
+	/* segments in read mode (not including tail) */
+	private final List<ByteBuffer> sealed = Lists.newArrayList();
+
+	/* last segment (write mode), or null */
+	private ByteBuffer tail;
+	private int tailReadIndex = 0;
+
+	private int remaining = 0;
+
+	private ByteBuffer[] gather = new ByteBuffer[8];
+
+	/**
+	 * @param pool The pool that segments are acquired from (null for heap segments).
+	 * @param segmentSize The (minimum) size of each segment.
+	 */
+	public CompositeByteBuffer(ByteBufferPool pool, int segmentSize) {
+		this.pool = pool;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Appends the data.
+	 */
+	public CompositeByteBuffer put(byte[] src) {
+		return put(src, 0, src.length);
+	}
+
+	/**
+	 * Appends {@code length} bytes from {@code src} (starting at {@code offset}).
+	 */
+	public CompositeByteBuffer put(byte[] src, int offset, int length) {
+		remaining += length;
+		while (length > 0) {
+			ensureWritableTail();
+			int n = Math.min(length, tail.remaining());
+			tail.put(src, offset, n);
+			offset += n;
+			length -= n;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer (the buffer's position will equal its limit afterwards).
+	 */
+	public CompositeByteBuffer put(ByteBuffer src) {
+		remaining += src.remaining();
+		while (src.hasRemaining()) {
+			ensureWritableTail();
+			if (src.remaining() <= tail.remaining()) {
+				tail.put(src);
+			} else {
+				int limit = src.limit();
+				src.limit(src.position() + tail.remaining());
+				tail.put(src);
+				src.limit(limit);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Inserts the remaining bytes of the given buffer before all other data. The buffer is not copied (and must not be
+	 * modified until it is written). A buffer leased from the pool is given back to it when it is written.
+	 */
+	public CompositeByteBuffer prepend(ByteBuffer src) {
+		remaining += src.remaining();
+		sealed.add(0, src);
+		return this;
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer as a segment of its own, i.e. the buffer is not copied (and must 
+	 * not be modified until it is written). Intended for large and/or shared (e.g. cached, read only) buffers. The 
+	 * segment is a read only view of the buffer, i.e. it is not given to the pool when it is written.
+	 */
+	public CompositeByteBuffer append(ByteBuffer src) {
+		sealTail();
+		remaining += src.remaining();
+		sealed.add(src.isReadOnly() ? src : src.asReadOnlyBuffer());
+		return this;
+	}
+
+	/**
+	 * Moves all data of the given {@code CompositeByteBuffer} to the end of this one, the segments are not copied. The
+	 * given buffer is empty afterwards (and should be leased from the same pool as this one).
+	 */
+	public CompositeByteBuffer append(CompositeByteBuffer src) {
+		src.sealTail();
+		sealTail();
+		sealed.addAll(src.sealed);
+		remaining += src.remaining;
+		src.sealed.clear();
+		src.remaining = 0;
+		return this;
+	}
+
+	private void ensureWritableTail() {
+		if (tail != null && tail.hasRemaining()) {
+			return;
+		}
+		sealTail();
+		tail = pool == null ? ByteBuffer.allocate(segmentSize) : pool.acquire(segmentSize);
+		tailReadIndex = 0;
+	}
+
+	/* seals (switches to read mode) the tail, a new tail is created by the next put */
+	private void sealTail() {
+		if (tail == null) {
+			return;
+		}
+		if (tail.position() > tailReadIndex) {
+			tail.limit(tail.position());
+			tail.position(tailReadIndex);
+			sealed.add(tail);
+		} else {
+			release(tail);	// empty
+		}
+		tail = null;
+	}
+
+	/**
+	 * Writes as much as possible of the data to the channel (a single gathering write). Written segments are released.
+	 * @return the number of bytes written
+	 */
+	public long writeTo(GatheringByteChannel channel) throws IOException {
+		return writeTo(channel, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Writes as much as possible, but at most {@code maxBytes}, of the data to the channel (a single gathering write).
+	 * Written segments are released.
+	 * @return the number of bytes written
+	 */
+	public long writeTo(GatheringByteChannel channel, long maxBytes) throws IOException {
+		int n = sealed.size();
+		if (gather.length < n + 1) {
+			gather = new ByteBuffer[Math.max(gather.length * 2, n + 1)];
+		}
+		for (int i = 0; i < n; i++) {
+			gather[i] = sealed.get(i);
+		}
+		int tailEnd = 0;
+		if (tail != null) {
+			tailEnd = tail.position();
+			tail.limit(tailEnd);
+			tail.position(tailReadIndex);
+			gather[n++] = tail;
+		}
+		// the segment that is cut by maxBytes (if any) is limited during the write
+		ByteBuffer cut = null;
+		int cutLimit = 0;
+		int count = n;
+		long total = 0;
+		for (int i = 0; i < n; i++) {
+			if (total + gather[i].remaining() > maxBytes) {
+				cut = gather[i];
+				cutLimit = cut.limit();
+				cut.limit(cut.position() + (int) (maxBytes - total));
+				count = i + 1;
+				break;
+			}
+			total += gather[i].remaining();
+		}
+		long written = 0;
+		try {
+			written = count == 0 ? 0 : channel.write(gather, 0, count);
+		} finally {
+			if (cut != null) {
+				cut.limit(cutLimit);
+			}
+			for (int i = 0; i < n; i++) {
+				gather[i] = null;
+			}
+			if (tail != null) {
+				tailReadIndex = tail.position();
+				tail.limit(tail.capacity());
+				tail.position(tailEnd);
+			}
+			remaining -= written;
+			releaseWrittenSegments();
+		}
+		return written;
+	}
+
+	private void releaseWrittenSegments() {
+		int written = 0;
+		while (written < sealed.size() && !sealed.get(written).hasRemaining()) {
+			release(sealed.get(written++));
+		}
+		if (written > 0) {
+			sealed.subList(0, written).clear();
+		}
+		if (tail != null && tailReadIndex == tail.position()) {
+			tail.clear();	// everything is written, reuse the segment from the start
+			tailReadIndex = 0;
+		}
+	}
+
+	private void release(ByteBuffer segment) {
+		if (pool != null) {
+			pool.release(segment);	// nop for the (read only) appended buffers
+		}
+	}
+
+	/**
+	 * @return duplicates (read mode) of all segments that contain unwritten data. The state of this
+	 * {@code CompositeByteBuffer} is not modified.
+	 */
+	public ByteBuffer[] nioBuffers() {
+		boolean hasTail = tail != null && tail.position() > tailReadIndex;
+		ByteBuffer[] buffers = new ByteBuffer[sealed.size() + (hasTail ? 1 : 0)];
+		for (int i = 0; i < sealed.size(); i++) {
+			buffers[i] = sealed.get(i).duplicate();
+		}
+		if (hasTail) {
+			ByteBuffer duplicate = tail.duplicate();
+			duplicate.limit(tail.position());
+			duplicate.position(tailReadIndex);
+			buffers[buffers.length - 1] = duplicate;
+		}
+		return buffers;
+	}
+
+	/**
+	 * @return the number of bytes that are not yet written
+	 */
+	public int remaining() {
+		return remaining;
+	}
+
+	public boolean hasRemaining() {
+		return remaining > 0;
+	}
+
+	/**
+	 * Discards all data (that is not yet written) and gives back all segments to the pool.
+	 */
+	public void clear() {
+		for (ByteBuffer segment : sealed) {
+			release(segment);
+		}
+		sealed.clear();
+		if (tail != null) {
+			release(tail);
+			tail = null;
+		}
+		remaining = 0;
+	}
+
+	/**
+	 * Gives back all segments to the pool. If this {@code CompositeByteBuffer} is used after it is released it will
+	 * be using heap segments.
+	 */
+	public void release() {
+		clear();
+		pool = null;
+	}
+
+}
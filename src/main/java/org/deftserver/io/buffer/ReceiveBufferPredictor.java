@@ -0,0 +1,96 @@
+package org.deftserver.io.buffer;
+
+/**
+ * Predicts the size of the next receive (read) buffer of a connection from the number of bytes its recent reads
+ * returned, like Netty's {@code AdaptiveRecvByteBufAllocator}. The prediction grows quickly (4 steps of the size
+ * table) when a read fills the buffer, and shrinks slowly (1 step) after two consecutive reads that would have fit
+ * into a buffer one step smaller.
+ * <p>
+ * The size table has 16 byte steps up to 512 bytes and doubles thereafter.
+ * <p>
+ * This class is not thread safe, every connection has its own predictor.
+ */
+public class ReceiveBufferPredictor {
+
+	private static final int INDEX_INCREMENT = 4;
+	private static final int INDEX_DECREMENT = 1;
+
+	private static final int[] SIZE_TABLE;
+
+	static {
+		int length = 512 / 16 - 1 + 30 - 9 + 1;	// 16..496, 512..2^30
+		SIZE_TABLE = new int[length];
+		int i = 0;
+		for (int size = 16; size < 512; size += 16) {
+			SIZE_TABLE[i++] = size;
+		}
+		for (int size = 512; size > 0; size <<= 1) {
+			SIZE_TABLE[i++] = size;
+		}
+	}
+
+	private final int minIndex;
+	private final int maxIndex;
+	private int index;
+	private int nextSize;
+	private boolean decreaseNow = false;
+
+	/**
+	 * @param minimum the smallest predicted size
+	 * @param initial the size predicted until the first read is recorded
+	 * @param maximum the largest predicted size
+	 */
+	public ReceiveBufferPredictor(int minimum, int initial, int maximum) {
+		if (minimum <= 0 || initial < minimum || maximum < initial) {
+			throw new IllegalArgumentException("minimum: " + minimum + ", initial: " + initial + ", maximum: " + maximum);
+		}
+		minIndex = indexOf(minimum);
+		maxIndex = SIZE_TABLE[indexOf(maximum)] > maximum ? indexOf(maximum) - 1 : indexOf(maximum);
+		index = indexOf(initial);
+		nextSize = SIZE_TABLE[index];
+	}
+
+	/**
+	 * @return the index of the smallest size in the table that is at least the given size
+	 */
+	private static int indexOf(int size) {
+		int low = 0;
+		int high = SIZE_TABLE.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (SIZE_TABLE[mid] < size) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the predicted number of bytes of the next read
+	 */
+	public int nextSize() {
+		return nextSize;
+	}
+
+	/**
+	 * Records the number of bytes of a read (or of all reads of a read event).
+	 */
+	public void record(int bytesRead) {
+		if (bytesRead <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT)]) {
+			if (decreaseNow) {
+				index = Math.max(index - INDEX_DECREMENT, minIndex);
+				nextSize = SIZE_TABLE[index];
+				decreaseNow = false;
+			} else {
+				decreaseNow = true;
+			}
+		} else if (bytesRead >= nextSize) {
+			index = Math.min(index + INDEX_INCREMENT, maxIndex);
+			nextSize = SIZE_TABLE[index];
+			decreaseNow = false;
+		}
+	}
+
+}
@@ -4,6 +4,9 @@ import org.deftserver.web.AsyncCallback;
 
 public interface CallbackManager {
 
+	/** A deadline that never passes */
+	long NO_DEADLINE = Long.MAX_VALUE;
+
 	void addCallback(AsyncCallback callback);
 	
 	/**
@@ -12,4 +15,13 @@ public interface CallbackManager {
 	 */
 	boolean execute();
 	
+	/**
+	 * Like {@link #execute()}, but executes at most {@code maxCallbacks} callbacks and stops when 
+	 * {@code System.nanoTime()} passes the given deadline. The rest are executed during the next iteration.
+	 * 
+	 * @param deadline a {@code System.nanoTime()} value, {@link #NO_DEADLINE} if the execution is not limited in time
+	 * @return true if there are callbacks scheduled to be executed during the next IO loop iteration.
+	 */
+	boolean execute(int maxCallbacks, long deadline);
+	
 }
@@ -4,4 +4,10 @@ public interface CallbackManagerMXBean {
 
 	int getNumberOfCallbacks();
 	
+	/**
+	 * @return the number of iterations that left callbacks (queued before the iteration) for the next one, because
+	 * of the max number of callbacks per iteration or the time budget.
+	 */
+	long getBudgetExhaustions();
+	
 }
@@ -1,24 +1,35 @@
 package org.deftserver.io.callback;
 
-import java.util.AbstractCollection;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import org.deftserver.util.MXBeanUtil;
 import org.deftserver.web.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Lists;
-
 public class JMXDebuggableCallbackManager implements CallbackManager, CallbackManagerMXBean {
 
 	private final Logger logger = LoggerFactory.getLogger(JMXDebuggableCallbackManager.class);
 	
-	private final AbstractCollection<AsyncCallback> callbacks = new ConcurrentLinkedQueue<AsyncCallback>();
+	/** Default max number of callbacks to execute per io loop iteration */
+	public static final int DEFAULT_MAX_CALLBACKS_PER_ITERATION = 1024;
+	
+	private final MpscLinkedQueue<AsyncCallback> callbacks = new MpscLinkedQueue<AsyncCallback>();
+	
+	private final int maxCallbacksPerIteration;
 	
-	{ 	// instance initialization block
-		MXBeanUtil.registerMXBean(this, "CallbackManager"); 
+	private long budgetExhaustions = 0;
+	
+	public JMXDebuggableCallbackManager() {
+		this(DEFAULT_MAX_CALLBACKS_PER_ITERATION);
+	}
+	
+	/**
+	 * @param maxCallbacksPerIteration Max number of callbacks that are executed per invocation of {@link #execute()}
+	 * (the rest are executed during the following iterations). Prevents IO starvation.
+	 */
+	public JMXDebuggableCallbackManager(int maxCallbacksPerIteration) {
+		if (maxCallbacksPerIteration <= 0) {
+			throw new IllegalArgumentException("maxCallbacksPerIteration must be positive");
+		}
+		this.maxCallbacksPerIteration = maxCallbacksPerIteration;
 	}
 	
 	@Override
@@ -26,23 +37,46 @@ public class JMXDebuggableCallbackManager implements CallbackManager, CallbackMa
 		return callbacks.size();
 	}
 
+	@Override
+	public long getBudgetExhaustions() {
+		return budgetExhaustions;
+	}
+
 	@Override
 	public void addCallback(AsyncCallback callback) {
-		callbacks.add(callback);
+		callbacks.offer(callback);
 		logger.debug("Callback added");
 	}
 
 	@Override
 	public boolean execute() {
-		// makes a defensive copy to avoid (1) CME (new callbacks are added this iteration) and (2) IO starvation.
-		List<AsyncCallback> defensive = Lists.newLinkedList(callbacks);
-		callbacks.clear();
-		for (AsyncCallback callback : defensive) {
+		return execute(maxCallbacksPerIteration, NO_DEADLINE);
+	}
+	
+	@Override
+	public boolean execute(int maxCallbacks, long deadline) {
+		// only the callbacks that are queued when this method is entered are executed (callbacks that are added by the
+		// executed callbacks are scheduled for the next iteration).
+		int queued = callbacks.size();
+		int n = Math.min(queued, maxCallbacks);
+		boolean exhausted = n < queued;
+		for (int i = 1; i <= n; i++) {
+			AsyncCallback callback = callbacks.poll();
+			if (callback == null) {
+				break;	// a producer has not yet completed its offer
+			}
 			callback.onCallback();
 			logger.debug("Callback executed");
+			// System.nanoTime() is not free, the deadline is checked every 64 callbacks
+			if ((i & 63) == 0 && i < n && deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+				exhausted = true;
+				break;
+			}
+		}
+		if (exhausted) {
+			budgetExhaustions++;
 		}
 		return !callbacks.isEmpty();
 	}
 	
-
 }
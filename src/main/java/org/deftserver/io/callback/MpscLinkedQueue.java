@@ -0,0 +1,74 @@
+package org.deftserver.io.callback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free, multiple producers single consumer FIFO queue (the non-intrusive MPSC node based queue by
+ * D. Vyukov).
+ * <p>
+ * {@link #offer(Object)} is thread safe and wait-free (one atomic swap of the tail). {@link #poll()} must only be 
+ * invoked by one thread at a time (the io loop thread). {@link #size()} is O(1).
+ * <p>
+ * Note that an element whose {@code offer} is in progress is counted by {@code size()} but might not yet be visible
+ * to {@code poll()} (which returns null in that case).
+ */
+class MpscLinkedQueue<E> {
+
+	private final AtomicReference<Node<E>> tail;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/* only accessed by the consumer. head.next is the first element of the queue */
+	private Node<E> head;
+
+	MpscLinkedQueue() {
+		Node<E> stub = new Node<E>(null);
+		head = stub;
+		tail = new AtomicReference<Node<E>>(stub);
+	}
+
+	void offer(E element) {
+		if (element == null) {
+			throw new NullPointerException();
+		}
+		Node<E> node = new Node<E>(element);
+		size.incrementAndGet();
+		Node<E> previous = tail.getAndSet(node);
+		previous.next = node;	// publish
+	}
+
+	/**
+	 * @return the head of this queue, or null if the queue is empty.
+	 */
+	E poll() {
+		Node<E> next = head.next;
+		if (next == null) {
+			return null;
+		}
+		E element = next.element;
+		next.element = null;	// next is the new stub
+		head = next;
+		size.decrementAndGet();
+		return element;
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	private static final class Node<E> {
+
+		E element;
+		volatile Node<E> next;
+
+		Node(E element) {
+			this.element = element;
+		}
+
+	}
+
+}
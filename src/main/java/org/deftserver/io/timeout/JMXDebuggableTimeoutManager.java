@@ -1,44 +1,118 @@
 package org.deftserver.io.timeout;
 
 import java.nio.channels.SelectableChannel;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import org.deftserver.util.MXBeanUtil;
+import org.deftserver.io.Connection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.TreeMultiset;
-
 
+/**
+ * A {@code TimeoutManager} backed by a hashed timing wheel.
+ * <p>
+ * The wheel has {@link #WHEEL_SIZE} buckets where each bucket covers {@link #TICK} ms (one revolution is ~33 s, which
+ * is more than the default keep-alive timeout). A timeout is put in the bucket of its deadline, timeouts that are
+ * further away than one revolution share bucket with nearer ones and are simply left in place when their bucket is
+ * visited before they are due. Adding, rescheduling (keep-alive timeouts) and removing a timeout are O(1).
+ * Cancelled timeouts ({@link Timeout#cancel()}) are removed lazily, when their bucket is visited.
+ * <p>
+ * {@link #execute()} only visits the buckets of the ticks that passed since the last invocation and a bitmap of
+ * non-empty buckets is used to find the next deadline. At most {@code maxTimeoutsPerIteration} expired timeouts are 
+ * executed per invocation (and none after the deadline of {@link #execute(int, long)}), the rest are executed first
+ * during the next invocation.
+ * <p>
+ * The keep-alive timeout of a {@link Connection} is kept by the connection itself (one entry per connection that is 
+ * relinked when the timeout is prolonged), keep-alive timeouts of plain channels are looked up in a map.
+ */
 public class JMXDebuggableTimeoutManager implements TimeoutManager, TimeoutManagerMXBean {
 
 	private final Logger logger = LoggerFactory.getLogger(JMXDebuggableTimeoutManager.class);
 
-	private final TreeMultiset<DecoratedTimeout> timeouts = TreeMultiset.create();
-	private final Map<SelectableChannel, DecoratedTimeout> index = Maps.newHashMap();
+	/** Resolution of the wheel in ms */
+	static final int TICK = 8;
+
+	/** Number of buckets (power of two) */
+	static final int WHEEL_SIZE = 4096;
+
+	private static final int MASK = WHEEL_SIZE - 1;
+
+	/** Default max number of timeouts to execute per io loop iteration */
+	public static final int DEFAULT_MAX_TIMEOUTS_PER_ITERATION = 1024;
+
+	/* bucket index of entries that are expired and are about to be executed */
+	private static final int EXPIRED = -1;
+	
+	/* bucket index of entries that are not linked (not yet linked, or executed) */
+	private static final int DETACHED = -2;
+
+	private final Entry[] wheel = new Entry[WHEEL_SIZE];	// heads of doubly linked lists
+	private final long[] occupied = new long[WHEEL_SIZE / 64];	// bitmap of non-empty buckets
+	private final Map<SelectableChannel, Entry> index = Maps.newHashMap();
+	private final List<Entry> expired = Lists.newArrayList();
+	private int nextExpired = 0;	// the first entry of expired that is not yet executed
+	private int size = 0;
+	private int connectionKeepAliveTimeouts = 0;
+
+	/* the first tick that is not yet completely processed */
+	private long currentTick = System.currentTimeMillis() / TICK;
 
-	{ 	// instance initialization block
-		MXBeanUtil.registerMXBean(this, "TimeoutManager"); 
+	private final int maxTimeoutsPerIteration;
+	private long budgetExhaustions = 0;
+
+	public JMXDebuggableTimeoutManager() {
+		this(DEFAULT_MAX_TIMEOUTS_PER_ITERATION);
+	}
+
+	/**
+	 * @param maxTimeoutsPerIteration Max number of expired timeouts that are executed per invocation of 
+	 * {@link #execute()} (the rest are executed during the following iterations). Prevents IO starvation.
+	 */
+	public JMXDebuggableTimeoutManager(int maxTimeoutsPerIteration) {
+		if (maxTimeoutsPerIteration <= 0) {
+			throw new IllegalArgumentException("maxTimeoutsPerIteration must be positive");
+		}
+		this.maxTimeoutsPerIteration = maxTimeoutsPerIteration;
 	}
 
 	@Override
 	public void addKeepAliveTimeout(SelectableChannel channel, Timeout timeout) {
 		logger.debug("added keep-alive timeout: {}", timeout);
-		DecoratedTimeout oldTimeout = index.get(channel);
-		if (oldTimeout != null) {
-			timeouts.remove(oldTimeout);
+		Entry entry = index.get(channel);
+		if (entry == null) {
+			entry = new Entry(channel, timeout);
+			index.put(channel, entry);
+			size++;
+		} else {
+			unlink(entry);
+			entry.timeout = timeout;
+		}
+		link(entry);
+	}
+
+	@Override
+	public void addKeepAliveTimeout(Connection connection, Timeout timeout) {
+		Entry entry = (Entry) connection.getKeepAliveTimeout();
+		if (entry == null) {
+			entry = new Entry(connection, timeout);
+			connection.setKeepAliveTimeout(entry);
+			connectionKeepAliveTimeouts++;
+			size++;
+		} else {
+			unlink(entry);
+			entry.timeout = timeout;
 		}
-		DecoratedTimeout decorated = new DecoratedTimeout(channel, timeout);
-		timeouts.add(decorated);
-		index.put(channel, decorated);
+		link(entry);
 	}
 
 	@Override
 	public void addTimeout(Timeout timeout) {
 		logger.debug("added generic timeout: {}", timeout);
-		timeouts.add(new DecoratedTimeout(timeout));		
+		link(new Entry((SelectableChannel) null, timeout));
+		size++;
 	}
 
 	@Override
@@ -46,68 +120,179 @@ public class JMXDebuggableTimeoutManager implements TimeoutManager, TimeoutManag
 		return index.containsKey(channel);
 	}
 
+	@Override
+	public boolean hasKeepAliveTimeout(Connection connection) {
+		return connection.getKeepAliveTimeout() != null;
+	}
+
 	@Override
 	public long execute() {
-		// makes a defensive copy to avoid (1) CME (new timeouts are added this iteration) and (2) IO starvation.
-		TreeMultiset<DecoratedTimeout> defensive = TreeMultiset.create(timeouts);
-		Iterator<DecoratedTimeout> iter = defensive.iterator();
+		return execute(maxTimeoutsPerIteration, NO_DEADLINE);
+	}
+
+	@Override
+	public long execute(int maxTimeouts, long deadline) {
 		final long now = System.currentTimeMillis();
-		while (iter.hasNext()) {
-			DecoratedTimeout candidate = iter.next();
-			if (candidate.timeout.getTimeout() > now) { break; }
-			candidate.timeout.getCallback().onCallback();
-			index.remove(candidate.channel);
-			iter.remove();
-			timeouts.remove(candidate);
-			logger.debug("Timeout triggered: {}", candidate.timeout);
+		final long tick = now / TICK;
+		// no need to visit a bucket more than once
+		for (long t = Math.max(currentTick, tick - WHEEL_SIZE + 1); t <= tick; t++) {
+			collectExpired((int) (t & MASK), now);
+		}
+		currentTick = tick;
+
+		// expired timeouts are executed after all buckets are visited, this avoids (1) that timeouts added by the
+		// callbacks are executed during this iteration and (2) IO starvation. Timeouts that are left by the previous 
+		// iteration (budget exhausted) are executed first.
+		int executed = 0;
+		while (nextExpired < expired.size()) {
+			if (executed >= maxTimeouts || 
+					(executed > 0 && deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0)) {
+				budgetExhaustions++;
+				return 0;
+			}
+			Entry entry = expired.get(nextExpired++);
+			if (entry.bucket != EXPIRED) {
+				continue;	// keep-alive timeout was prolonged by a previous callback
+			}
+			executed++;
+			entry.bucket = DETACHED;
+			size--;
+			if (entry.connection != null) {
+				entry.connection.setKeepAliveTimeout(null);
+				connectionKeepAliveTimeouts--;
+			} else if (entry.channel != null && index.get(entry.channel) == entry) {
+				index.remove(entry.channel);
+			}
+			entry.timeout.getCallback().onCallback();
+			logger.debug("Timeout triggered: {}", entry.timeout);
+		}
+		expired.clear();
+		nextExpired = 0;
+		return size == 0 ? Long.MAX_VALUE : Math.max(1, nextDeadline(now) - now);
+	}
+
+	/**
+	 * Moves all expired (and cancelled) entries from the given bucket to {@code expired}.
+	 */
+	private void collectExpired(int bucket, long now) {
+		Entry entry = wheel[bucket];
+		while (entry != null) {
+			Entry next = entry.next;
+			if (entry.timeout.getTimeout() <= now || entry.timeout.isCancelled()) {
+				unlink(entry);
+				entry.bucket = EXPIRED;
+				expired.add(entry);
+			}
+			entry = next;
+		}
+	}
+
+	/**
+	 * @return a lower bound of the next deadline. The exact deadline is returned for entries in the current bucket,
+	 * otherwise the start of the next non-empty bucket.
+	 */
+	private long nextDeadline(long now) {
+		int current = (int) (currentTick & MASK);
+		long endOfTick = (currentTick + 1) * TICK;
+		long next = Long.MAX_VALUE;
+		for (Entry entry = wheel[current]; entry != null; entry = entry.next) {
+			if (entry.timeout.getTimeout() < endOfTick) {
+				next = Math.min(next, entry.timeout.getTimeout());
+			}
+		}
+		int distance = distanceToNextOccupied((current + 1) & MASK) + 1;
+		return Math.min(next, (currentTick + distance) * TICK);
+	}
+
+	/**
+	 * @return the number of buckets from {@code from} to the first non-empty bucket (cyclic), or -1 if all buckets
+	 * are empty.
+	 */
+	private int distanceToNextOccupied(int from) {
+		int distance = 0;
+		while (distance < WHEEL_SIZE) {
+			int i = (from + distance) & MASK;
+			long word = occupied[i >>> 6] >>> (i & 63);
+			if (word != 0) {
+				return distance + Long.numberOfTrailingZeros(word);
+			}
+			distance += 64 - (i & 63);
+		}
+		return -1;
+	}
+
+	private void link(Entry entry) {
+		// overdue timeouts are put in the current bucket (and executed during the next invocation of execute)
+		long tick = Math.max(entry.timeout.getTimeout() / TICK, currentTick);
+		int bucket = (int) (tick & MASK);
+		Entry head = wheel[bucket];
+		entry.bucket = bucket;
+		entry.prev = null;
+		entry.next = head;
+		if (head != null) {
+			head.prev = entry;
+		} else {
+			occupied[bucket >>> 6] |= 1L << (bucket & 63);
 		}
-		return timeouts.isEmpty() ? Long.MAX_VALUE : Math.max(1, timeouts.iterator().next().timeout.getTimeout() - now);
+		wheel[bucket] = entry;
+	}
+
+	private void unlink(Entry entry) {
+		if (entry.bucket == EXPIRED || entry.bucket == DETACHED) {
+			return;	// not linked
+		}
+		if (entry.prev != null) {
+			entry.prev.next = entry.next;
+		} else {
+			wheel[entry.bucket] = entry.next;
+			if (entry.next == null) {
+				occupied[entry.bucket >>> 6] &= ~(1L << (entry.bucket & 63));
+			}
+		}
+		if (entry.next != null) {
+			entry.next.prev = entry.prev;
+		}
+		entry.prev = entry.next = null;
 	}
 
 	// implements TimoutMXBean
 	@Override
 	public int getNumberOfKeepAliveTimeouts() {
-		return index.size();
+		return index.size() + connectionKeepAliveTimeouts;
 	}
 
 	@Override
 	public int getNumberOfTimeouts() {
-		return timeouts.size();
+		return size;
+	}
+
+	@Override
+	public long getBudgetExhaustions() {
+		return budgetExhaustions;
 	}
 
-	private class DecoratedTimeout implements Comparable<DecoratedTimeout> {
+	private static class Entry {
 
 		public final SelectableChannel channel;
-		public final Timeout timeout;
+		public final Connection connection;
+		public Timeout timeout;
 
-		public DecoratedTimeout(SelectableChannel channel, Timeout timeout) {
+		public int bucket = DETACHED;
+		public Entry prev;
+		public Entry next;
+
+		public Entry(SelectableChannel channel, Timeout timeout) {
 			this.channel = channel;
+			this.connection = null;
 			this.timeout = timeout;
 		}
 
-		public DecoratedTimeout(Timeout timeout) {
-			this(null, timeout);
+		public Entry(Connection connection, Timeout timeout) {
+			this.channel = connection.getChannel();
+			this.connection = connection;
+			this.timeout = timeout;
 		}
 
-		@Override
-		public int compareTo(DecoratedTimeout that) {
-			long diff = timeout.getTimeout() - that.timeout.getTimeout();
-			if (diff < 0) {
-				return -1;
-			} else if (diff > 0) {
-				return 1; 
-			} 
-			if (channel != null && that.channel != null) {
-				return channel.hashCode() - that.channel.hashCode(); 
-			} else if (channel == null && that.channel != null){
-				return -1;
-			} else if (channel != null && that.channel == null){
-				return -1;
-			} else {
-				return 0;
-			}
-		}
-		
 	}
 
 }
@@ -11,7 +11,7 @@ public class Timeout {
 
 	private final long timeout;
 	private final AsyncCallback cb;
-	private boolean cancelled = false;
+	private volatile boolean cancelled = false;	// may be cancelled from another thread
 	
 	public Timeout(long timeout, AsyncCallback cb) {
 		this.timeout = timeout;
@@ -2,19 +2,42 @@ package org.deftserver.io.timeout;
 
 import java.nio.channels.SelectableChannel;
 
+import org.deftserver.io.Connection;
+
 
 public interface TimeoutManager {
 
+	/** A deadline that never passes */
+	long NO_DEADLINE = Long.MAX_VALUE;
+
 	void addTimeout(Timeout timeout);
 	
 	void addKeepAliveTimeout(SelectableChannel channel, Timeout timeout);
 	
 	boolean hasKeepAliveTimeout(SelectableChannel channel);
 	
+	/**
+	 * Adds (or replaces) the keep-alive timeout of the given connection. The timeout is kept by the connection (no 
+	 * lookup by channel).
+	 */
+	void addKeepAliveTimeout(Connection connection, Timeout timeout);
+	
+	boolean hasKeepAliveTimeout(Connection connection);
+	
 	/**
 	 * 
 	 * @return the positive number (>0) in milliseconds until the deadline for the next scheduled timeout.
 	 */
 	long execute();
 	
+	/**
+	 * Like {@link #execute()}, but executes at most {@code maxTimeouts} expired timeouts and stops when 
+	 * {@code System.nanoTime()} passes the given deadline. The rest are executed (first) during the next iteration.
+	 * 
+	 * @param deadline a {@code System.nanoTime()} value, {@link #NO_DEADLINE} if the execution is not limited in time
+	 * @return the number of milliseconds until the deadline for the next scheduled timeout, 0 if expired timeouts are
+	 * left for the next iteration.
+	 */
+	long execute(int maxTimeouts, long deadline);
+	
 }
@@ -6,4 +6,10 @@ public interface TimeoutManagerMXBean {
 	
 	int getNumberOfKeepAliveTimeouts();
 	
+	/**
+	 * @return the number of iterations that left expired timeouts for the next one, because of the max number of 
+	 * timeouts per iteration or the time budget.
+	 */
+	long getBudgetExhaustions();
+	
 }
@@ -0,0 +1,67 @@
+package org.deftserver.io.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ * A {@link Transport} backed by the default {@code Selector} of the platform. The selected keys are visited through
+ * the selector's selected-key set (a {@code HashSet} and an {@code Iterator} per visit).
+ */
+class NioTransport implements Transport {
+
+	protected final Selector selector;
+
+	NioTransport() throws IOException {
+		this(Selector.open());
+	}
+
+	NioTransport(Selector selector) {
+		this.selector = selector;
+	}
+
+	@Override
+	public String getName() {
+		return "nio";
+	}
+
+	@Override
+	public SelectionKey register(SelectableChannel channel, int interestOps, Object attachment)
+	throws ClosedChannelException {
+		return channel.register(selector, interestOps, attachment);
+	}
+
+	@Override
+	public SelectionKey keyFor(SelectableChannel channel) {
+		return channel.keyFor(selector);
+	}
+
+	@Override
+	public int select(long timeout) throws IOException {
+		return timeout == 0 ? selector.selectNow() : selector.select(timeout);
+	}
+
+	@Override
+	public void processSelectedKeys(SelectedKeyHandler handler) throws IOException {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			handler.handle(key);
+			keys.remove();
+		}
+	}
+
+	@Override
+	public void wakeup() {
+		selector.wakeup();
+	}
+
+	@Override
+	public void close() throws IOException {
+		selector.close();
+	}
+
+}
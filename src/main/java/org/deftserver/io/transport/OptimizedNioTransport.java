@@ -0,0 +1,72 @@
+package org.deftserver.io.transport;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * A {@link Transport} backed by the default {@code Selector} of the platform (as {@link NioTransport}), whose 
+ * selected-key set is replaced by a {@link SelectedKeySet} (the {@code selectedKeys} and {@code publicSelectedKeys} 
+ * fields of {@code sun.nio.ch.SelectorImpl}). The selected keys are visited by index, no {@code HashSet} nodes and 
+ * no {@code Iterator}s are allocated per select. The readiness notification itself is the selector's.
+ * <p>
+ * {@link #open()} fails if the selector is not a {@code sun.nio.ch.SelectorImpl} or the JDK does not allow the 
+ * selected-key set to be replaced, see {@link TransportProvider#OPTIMIZED_NIO}. On Java 9+ the JVM must be started 
+ * with {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}. Only used if selected explicitly, the default 
+ * transport is {@link NioTransport}.
+ */
+class OptimizedNioTransport extends NioTransport {
+
+	private static final String SELECTOR = "sun.nio.ch.SelectorImpl";
+
+	private final SelectedKeySet selectedKeys;
+
+	private OptimizedNioTransport(Selector selector, SelectedKeySet selectedKeys) {
+		super(selector);
+		this.selectedKeys = selectedKeys;
+	}
+
+	static OptimizedNioTransport open() throws IOException {
+		Selector selector = Selector.open();
+		SelectedKeySet selectedKeys = new SelectedKeySet();
+		try {
+			Class<?> impl = Class.forName(SELECTOR, false, selector.getClass().getClassLoader());
+			if (!impl.isInstance(selector)) {
+				throw new IllegalStateException(selector.getClass() + " is not a " + SELECTOR);
+			}
+			replace(impl, selector, "selectedKeys", selectedKeys);
+			replace(impl, selector, "publicSelectedKeys", selectedKeys);
+		} catch (Exception e) {	// e.g. the module system does not open sun.nio.ch (Java 9+)
+			selector.close();
+			throw new IOException("Could not replace the selected-key set: " + e, e);
+		}
+		return new OptimizedNioTransport(selector, selectedKeys);
+	}
+
+	private static void replace(Class<?> impl, Selector selector, String name, Object value) throws Exception {
+		Field field = impl.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(selector, value);
+	}
+
+	@Override
+	public String getName() {
+		return "optimized-nio";
+	}
+
+	@Override
+	public void processSelectedKeys(SelectedKeyHandler handler) throws IOException {
+		SelectionKey[] keys = selectedKeys.keys;
+		int size = selectedKeys.size;
+		try {
+			for (int i = 0; i < size; i++) {
+				handler.handle(keys[i]);
+			}
+		} finally {
+			// keys that are not visited (exception) are still ready and selected again
+			selectedKeys.reset();
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.deftserver.io.transport;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array backed replacement of the selected-key set ({@code HashSet}) of a JDK {@code Selector}, see 
+ * {@link OptimizedNioTransport}. The selector adds a key at most once per select, {@link OptimizedNioTransport} 
+ * visits the keys by index and resets the set after every select, i.e. no hash set nodes and no iterators are 
+ * allocated.
+ * <p>
+ * A {@code Set} of identities (a {@code SelectionKey} does not override {@code equals}). {@link #contains(Object)} and
+ * {@link #remove(Object)} are linear searches, the selector (Java 11+) checks every ready key before it is added, 
+ * i.e. a select of n keys costs O(n^2) reference comparisons.
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+
+	SelectionKey[] keys = new SelectionKey[1024];
+	int size = 0;
+
+	@Override
+	public boolean add(SelectionKey key) {
+		if (key == null || contains(key)) {
+			return false;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size << 1);
+		}
+		keys[size++] = key;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if (index < 0) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		reset();
+	}
+
+	@Override
+	public Iterator<SelectionKey> iterator() {
+		return new Iterator<SelectionKey>() {
+			private int index = 0;
+			private int last = -1;
+			private int expectedSize = size;
+
+			@Override public boolean hasNext() { return index < size; }
+
+			@Override public SelectionKey next() {
+				if (size != expectedSize) {
+					throw new ConcurrentModificationException();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				last = index;
+				return keys[index++];
+			}
+
+			@Override public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				removeAt(last);
+				index = last;
+				last = -1;
+				expectedSize = size;
+			}
+		};
+	}
+
+	/**
+	 * Removes all keys (the references are cleared, closed channels are not retained).
+	 */
+	void reset() {
+		Arrays.fill(keys, 0, size, null);
+		size = 0;
+	}
+
+	/* searches from the end, the most recently added keys are the most likely to be looked up */
+	private int indexOf(Object o) {
+		for (int i = size - 1; i >= 0; i--) {
+			if (keys[i] == o) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeAt(int index) {
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		keys[--size] = null;
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.deftserver.io.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * The readiness notification mechanism (the selector) of an {@code IOLoop}. Opened by a {@link TransportProvider}.
+ * <p>
+ * Channels are registered as with a {@code Selector} and the io loop is notified of the ready channels through their
+ * {@code SelectionKey}s, i.e. {@code IOHandler}s are not aware of the transport. The transports differ in how the
+ * ready keys are collected and visited.
+ * <p>
+ * Implementations are not thread safe (except {@link #wakeup()}), a transport is used by its io loop thread only.
+ */
+public interface Transport extends Closeable {
+
+	/**
+	 * Visits the keys selected by {@link Transport#select(long)}.
+	 */
+	interface SelectedKeyHandler {
+
+		void handle(SelectionKey key) throws IOException;
+
+	}
+
+	/**
+	 * @return the name of this transport, e.g. "nio"
+	 */
+	String getName();
+
+	/**
+	 * Registers the channel, see {@link SelectableChannel#register(java.nio.channels.Selector, int, Object)}.
+	 */
+	SelectionKey register(SelectableChannel channel, int interestOps, Object attachment) throws ClosedChannelException;
+
+	/**
+	 * @return the key of the channel's registration with this transport, null if the channel is not registered
+	 */
+	SelectionKey keyFor(SelectableChannel channel);
+
+	/**
+	 * Waits (at most {@code timeout} ms) until at least one registered channel is ready, or until {@link #wakeup()}
+	 * is invoked. Returns immediately if {@code timeout} is 0.
+	 *
+	 * @return the number of selected keys
+	 */
+	int select(long timeout) throws IOException;
+
+	/**
+	 * Invokes the handler for every key selected by the last {@link #select(long)}, the selected keys are cleared.
+	 */
+	void processSelectedKeys(SelectedKeyHandler handler) throws IOException;
+
+	/**
+	 * Wakes up the thread that is blocked in {@link #select(long)}. This method is thread safe.
+	 */
+	void wakeup();
+
+}
@@ -0,0 +1,107 @@
+package org.deftserver.io.transport;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens the {@link Transport}s of the io loops. The provider is picked when an {@code IOLoop} is created, see
+ * {@link #provider()}:
+ * <ul>
+ * <li>{@link #NIO} - the default {@code Selector} of the platform, always available. The default.</li>
+ * <li>{@link #OPTIMIZED_NIO} - the same selector with an array backed selected-key set that is swapped in by 
+ * reflection (no allocations per select). Opt-in only (on Java 9+ the JVM must be started with
+ * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}).</li>
+ * </ul>
+ */
+public abstract class TransportProvider {
+
+	private final static Logger logger = LoggerFactory.getLogger(TransportProvider.class);
+
+	/** The system property that selects the transport ("nio" or "optimized-nio"), default: "nio" */
+	public static final String PROPERTY = "org.deftserver.io.transport";
+
+	public static final TransportProvider NIO = new TransportProvider() {
+		@Override public String getName() { return "nio"; }
+		@Override public boolean isAvailable() { return true; }
+		@Override public Transport openTransport() throws IOException { return new NioTransport(); }
+	};
+
+	public static final TransportProvider OPTIMIZED_NIO = new TransportProvider() {
+		private volatile Boolean available;
+
+		@Override public String getName() { return "optimized-nio"; }
+
+		@Override public boolean isAvailable() {
+			if (available == null) {
+				available = probe();
+			}
+			return available;
+		}
+
+		/* opens (and closes) a transport, logs why the transport is not available */
+		private boolean probe() {
+			try {
+				OptimizedNioTransport.open().close();
+				return true;
+			} catch (IOException e) {
+				logger.debug("optimized-nio transport is not available (on Java 9+ start the JVM with --add-opens " +
+						"java.base/sun.nio.ch=ALL-UNNAMED): {}", e.getMessage());
+				return false;
+			}
+		}
+
+		@Override public Transport openTransport() throws IOException { return OptimizedNioTransport.open(); }
+	};
+
+	/**
+	 * @return the name of the transport, e.g. "nio"
+	 */
+	public abstract String getName();
+
+	/**
+	 * @return true if the transport can be opened on this platform
+	 */
+	public abstract boolean isAvailable();
+
+	public abstract Transport openTransport() throws IOException;
+
+	/**
+	 * @return the provider selected by the system property {@link #PROPERTY}, or {@link #NIO} if it is not set. An
+	 * unknown or unavailable transport falls back to NIO.
+	 */
+	public static TransportProvider provider() {
+		String name = System.getProperty(PROPERTY);
+		if (name == null) {
+			return NIO;
+		}
+		TransportProvider provider = forName(name);
+		if (provider == null) {
+			logger.warn("Unknown transport: {}, using nio", name);
+			return NIO;
+		} else if (!provider.isAvailable()) {
+			logger.debug("Transport {} is not available, using nio", name);
+			return NIO;
+		}
+		return provider;
+	}
+
+	/**
+	 * @return the provider of the given name, null if unknown
+	 */
+	public static TransportProvider forName(String name) {
+		if (NIO.getName().equalsIgnoreCase(name)) {
+			return NIO;
+		} else if (OPTIMIZED_NIO.getName().equalsIgnoreCase(name)) {
+			return OPTIMIZED_NIO;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+}
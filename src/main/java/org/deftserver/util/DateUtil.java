@@ -1,26 +1,104 @@
 package org.deftserver.util;
 
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 
+import com.google.common.base.Charsets;
+
+/**
+ * The current date (RFC 1123, as used in the "Date" response header) is formatted once per second by a daemon thread
+ * (the "date clock") and published through a volatile field, i.e. {@link #getCurrentAsString()} and
+ * {@link #getCurrentAsBytes()} are (thread safe) field reads.
+ */
 public class DateUtil {
 
 	private final static Locale LOCALE = Locale.US;
 	private final static TimeZone GMT_ZONE;
 	private final static String RFC_1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	/* only used by the date clock thread (and the class initialization), SimpleDateFormat is not thread safe */
 	private final static DateFormat RFC_1123_FORMAT;
+
+	private static volatile CurrentDate current;
 	
+	/* used to format and parse arbitrary dates */
+	private final static ThreadLocal<DateFormat> formats = new ThreadLocal<DateFormat>() {
+		@Override protected DateFormat initialValue() {
+			DateFormat format = new SimpleDateFormat(RFC_1123_PATTERN, LOCALE);
+			format.setTimeZone(GMT_ZONE);
+			return format;
+		}
+	};
+
 	static {
 		RFC_1123_FORMAT = new SimpleDateFormat(RFC_1123_PATTERN, LOCALE);
 		GMT_ZONE = TimeZone.getTimeZone("GMT");
 		RFC_1123_FORMAT.setTimeZone(GMT_ZONE);
+		current = new CurrentDate(RFC_1123_FORMAT.format(new Date()));
+
+		Thread clock = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(1000 - System.currentTimeMillis() % 1000);	// until the start of next second
+					} catch (InterruptedException ignore) { /* update and continue */ }
+					current = new CurrentDate(RFC_1123_FORMAT.format(new Date()));
+				}
+			}
+		}, "Deft-Date-Clock");
+		clock.setDaemon(true);
+		clock.start();
 	}
-		
+
+	/**
+	 * @return the current date, e.g. "Sun, 06 Nov 1994 08:49:37 GMT" (the resolution is one second)
+	 */
 	public static String getCurrentAsString() {
-		return RFC_1123_FORMAT.format(new Date());
+		return current.string;
+	}
+
+	/**
+	 * @return the US-ASCII encoding of {@link #getCurrentAsString()}. The returned array is shared and must not be
+	 * modified.
+	 */
+	public static byte[] getCurrentAsBytes() {
+		return current.bytes;
+	}
+
+	/**
+	 * @return the given time (ms since epoch) as a RFC 1123 date, e.g. "Sun, 06 Nov 1994 08:49:37 GMT"
+	 */
+	public static String format(long time) {
+		return formats.get().format(new Date(time));
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * @return the time (ms since epoch) of the given RFC 1123 date, or -1 if the date could not be parsed
+	 */
+	public static long parse(String date) {
+		try {
+			return formats.get().parse(date).getTime();
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+
+	private static class CurrentDate {
+
+		public final String string;
+		public final byte[] bytes;
+
+		public CurrentDate(String string) {
+			this.string = string;
+			this.bytes = string.getBytes(Charsets.US_ASCII);
+		}
+
+	}
+
+}
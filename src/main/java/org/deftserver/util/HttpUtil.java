@@ -58,7 +58,22 @@ public class HttpUtil {
 
 	// e.g. HTTP/1.0 200 OK or HTTP/1.0 404 Not Found (HTTP version + response status code + reason phrase)
 	public static String createInitialLine(int statusCode) {
-
+		String initialLine = initialLine(statusCode);
+		if (initialLine == null) {
+			logger.error("Uknonwn Http status code: " + statusCode);
+			throw new IllegalArgumentException("Unknow Http status code: " + statusCode);
+		}
+		return initialLine;
+	}
+	
+	/**
+	 * @return true if {@link #createInitialLine(int)} knows the given status code
+	 */
+	public static boolean isKnownStatusCode(int statusCode) {
+		return initialLine(statusCode) != null;
+	}
+	
+	private static String initialLine(int statusCode) {
 		switch (statusCode) {
 		case 200:
 			return _200_OK;
@@ -135,8 +150,7 @@ public class HttpUtil {
 		case 505:
 			return _505_VERSION_NOT_SUPPORTED;
 		default:
-			logger.error("Uknonwn Http status code: " + statusCode);
-			throw new IllegalArgumentException("Unknow Http status code: " + statusCode);
+			return null;
 		}
 	}
 
@@ -152,7 +166,88 @@ public class HttpUtil {
 	}
 
 
+	/**
+	 * Weak comparison (RFC 2616, 13.3.3) of the given Etag and the value of a "If-None-Match" header (a comma 
+	 * separated list of Etags, or "*").
+	 * 
+	 * @return true if any of the Etags in {@code ifNoneMatch} matches {@code etag}
+	 */
+	public static boolean matchesEtag(String ifNoneMatch, String etag) {
+		String opaque = stripWeakIndicator(etag.trim());
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || stripWeakIndicator(candidate).equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String stripWeakIndicator(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	/**
+	 * Evaluates a "If-Range" header (RFC 2616, 14.27), an Etag (strong comparison) or a date (the Last-Modified date
+	 * must be equal).
+	 *
+	 * @param ifRange the value of a "If-Range" header (may be null)
+	 * @param lastModified ms since epoch
+	 * @return true if the "Range" header of the request should be applied (the representation is unchanged)
+	 */
+	public static boolean matchesIfRange(String ifRange, String etag, long lastModified) {
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return !ifRange.startsWith("W/") && !etag.startsWith("W/") && ifRange.equals(etag);
+		}
+		long since = DateUtil.parse(ifRange);
+		return since != -1 && since / 1000 == lastModified / 1000;	// the resolution of HTTP dates is one second
+	}
+
+	/**
+	 * @param acceptEncoding the value of a "Accept-Encoding" header (may be null)
+	 * @return true if the given content coding (e.g. "gzip") is acceptable (listed, or "*", with a non zero q-value)
+	 */
+	public static boolean acceptsEncoding(String acceptEncoding, String coding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Boolean wildcard = null;
+		for (String element : acceptEncoding.split(",")) {
+			String[] parameters = element.split(";");
+			String name = parameters[0].trim();
+			if (name.equalsIgnoreCase(coding)) {
+				return isAcceptable(parameters);
+			} else if (name.equals("*")) {
+				wildcard = isAcceptable(parameters);	// unless the coding is listed explicitly
+			}
+		}
+		return wildcard != null && wildcard;
+	}
+	
+	/* false if the element has a q-value of 0 (or an invalid q-value) */
+	private static boolean isAcceptable(String[] parameters) {
+		for (int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].trim();
+			if (parameter.startsWith("q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2)) > 0;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	public static String getEtag(byte[] bytes) {
+		return toEtag(getMessageDigest().digest(bytes));
+	}
+	
+	private static MessageDigest getMessageDigest() {
 		if (md.get() == null) {
 			try {
 				md.set(MessageDigest.getInstance("MD5"));
@@ -160,7 +255,10 @@ public class HttpUtil {
 				throw new RuntimeException("MD5 cryptographic algorithm is not available.", e);
 			}
 		}
-		byte[] digest = md.get().digest(bytes);
+		return md.get();
+	}
+	
+	private static String toEtag(byte[] digest) {
 		BigInteger number = new BigInteger(1, digest);
 		return '0' + number.toString(16);	// prepend a '0' to get a proper MD5 hash 
 	}
@@ -15,9 +15,21 @@ public class MXBeanUtil {
 	private MXBeanUtil() {}
 
 	public static void registerMXBean(Object self, String type) {
+		register(self, "org.deftserver:type=" + type + ",name=" + self.getClass().getSimpleName());
+	}
+	
+	/**
+	 * Registers an MXBean that is owned by an {@code IOLoop}, every io loop has its own set of MXBeans (the name of 
+	 * the io loop is part of the {@code ObjectName}).
+	 */
+	public static void registerMXBean(Object self, String type, String ioLoop) {
+		register(self, "org.deftserver:type=" + type + ",name=" + self.getClass().getSimpleName() + 
+				",ioloop=" + ioLoop);
+	}
+	
+	private static void register(Object self, String mbeanName) {
 		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
 		try {
-			String mbeanName = "org.deftserver:type=" + type + ",name=" + self.getClass().getSimpleName();
 			mbs.registerMBean(self, new ObjectName(mbeanName));
 		}
 		catch (Exception e) {
@@ -0,0 +1,72 @@
+package org.deftserver.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SO_REUSEPORT lets several sockets bind to the same address and port, the kernel (e.g. Linux 3.9+) then distributes
+ * incoming connections among them.
+ * <p>
+ * The option ({@code java.net.StandardSocketOptions.SO_REUSEPORT}) is only available on Java 9+, so it is looked up
+ * by reflection.
+ */
+public class ReusePortUtil {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReusePortUtil.class);
+
+	private static final Object SO_REUSEPORT;
+	private static final Method SET_OPTION;
+
+	static {
+		Object option = null;
+		Method setOption = null;
+		ServerSocketChannel probe = null;
+		try {
+			option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+			setOption = ServerSocketChannel.class.getMethod("setOption",
+					Class.forName("java.net.SocketOption"), Object.class);
+			probe = ServerSocketChannel.open();
+			Set<?> supported = (Set<?>) ServerSocketChannel.class.getMethod("supportedOptions").invoke(probe);
+			if (!supported.contains(option)) {
+				option = null;
+			}
+		} catch (Exception e) {
+			logger.debug("SO_REUSEPORT is not available: {}", e.toString());
+			option = null;
+		} finally {
+			com.google.common.io.Closeables.closeQuietly(probe);
+		}
+		SO_REUSEPORT = option;
+		SET_OPTION = setOption;
+	}
+
+	private ReusePortUtil() {}
+
+	/**
+	 * @return true if both the JVM and the OS supports SO_REUSEPORT on server sockets.
+	 */
+	public static boolean isSupported() {
+		return SO_REUSEPORT != null;
+	}
+
+	/**
+	 * Enables SO_REUSEPORT on the given (unbound) channel.
+	 * @throws IOException if the option could not be set (e.g. {@link #isSupported()} returns false)
+	 */
+	public static void enable(ServerSocketChannel channel) throws IOException {
+		if (!isSupported()) {
+			throw new IOException("SO_REUSEPORT is not supported");
+		}
+		try {
+			SET_OPTION.invoke(channel, SO_REUSEPORT, Boolean.TRUE);
+		} catch (Exception e) {
+			throw new IOException("Could not enable SO_REUSEPORT: " + e);
+		}
+	}
+
+}
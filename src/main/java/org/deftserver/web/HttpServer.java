@@ -5,14 +5,20 @@ import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.util.List;
+import java.util.Map;
 
+import org.deftserver.io.IOHandler;
 import org.deftserver.io.IOLoop;
 import org.deftserver.util.Closeables;
+import org.deftserver.util.ReusePortUtil;
+import org.deftserver.web.http.HttpAcceptor;
+import org.deftserver.web.http.HttpAcceptor.Balancing;
 import org.deftserver.web.http.HttpProtocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 public class HttpServer {
 	
@@ -22,6 +28,7 @@ public class HttpServer {
 	private static final int MAX_PORT_NUMBER = 65535;
 	
 	private ServerSocketChannel serverChannel;
+	private final Map<IOLoop, ServerSocketChannel> reusePortChannels = Maps.newHashMap();
 	private final List<IOLoop> ioLoops = Lists.newLinkedList();
 	
 	private final Application application;
@@ -44,39 +51,106 @@ public class HttpServer {
 	}
 	
 	public void bind(int port) {
+		checkPort(port);
+		serverChannel = openServerChannel(port, false);
+	}
+	
+	/**
+	 * Starts {@code numThreads} {@code IOLoop}s (threads) that each opens and binds its own 
+	 * {@code ServerSocketChannel} (with SO_REUSEPORT) to the given port. The kernel will then distribute new 
+	 * connections among the {@code IOLoop}s, so there is no shared listener at all.
+	 * <p>
+	 * If SO_REUSEPORT is not supported (Java 9+ and e.g. Linux 3.9+ is required) this falls back to 
+	 * {@link #bind(int)} followed by {@link #start(int)}.
+	 */
+	public void listenReusePort(int port, int numThreads) {
+		checkPort(port);
+		if (!ReusePortUtil.isSupported()) {
+			logger.warn("SO_REUSEPORT is not supported, falling back to a shared listener (and a dedicated acceptor)");
+			bind(port);
+			start(numThreads);
+			return;
+		}
+		for (int i = 0; i < numThreads; i++) {
+			final IOLoop ioLoop = new IOLoop();
+			final ServerSocketChannel channel = openServerChannel(port, true);
+			final HttpProtocol protocol = new HttpProtocol(ioLoop, application);
+			ioLoops.add(ioLoop);
+			reusePortChannels.put(ioLoop, channel);
+			new Thread(new Runnable() {
+				
+				@Override public void run() {
+					ioLoop.addHandler(channel, protocol, SelectionKey.OP_ACCEPT, null /*attachment*/);
+					ioLoop.start();
+				}
+			}).start();
+		}
+	}
+	
+	private void checkPort(int port) {
 		if (port <= MIN_PORT_NUMBER || port > MAX_PORT_NUMBER) {
 			throw new IllegalArgumentException("Invalid port number. Valid range: [" + 
 					MIN_PORT_NUMBER + ", " + MAX_PORT_NUMBER + ")");
 		}
-		
+	}
+	
+	private ServerSocketChannel openServerChannel(int port, boolean reusePort) {
+		ServerSocketChannel channel = null;
 		try {
-			serverChannel = ServerSocketChannel.open();
-			serverChannel.configureBlocking(false);
+			channel = ServerSocketChannel.open();
+			channel.configureBlocking(false);
+			if (reusePort) {
+				ReusePortUtil.enable(channel);
+			}
 		} catch (IOException e) {
 			logger.error("Error creating ServerSocketChannel: {}", e);
 		}
 		
 		InetSocketAddress endpoint = new InetSocketAddress(port);	// use "any" address
 		try {
-			serverChannel.socket().bind(endpoint);
+			channel.socket().bind(endpoint);
 		} catch (IOException e) {
 			logger.error("Could not bind socket: {}", e);
-		}	
+		}
+		return channel;
 	}
 	
+	/**
+	 * Starts {@code numThreads} worker {@code IOLoop}s (threads) and one dedicated acceptor {@code IOLoop}. The 
+	 * acceptor accepts all new connections and hands them over (round-robin) to the workers.
+	 */
 	public void start(int numThreads) {
+		start(numThreads, Balancing.ROUND_ROBIN);
+	}
+	
+	/**
+	 * See {@link #start(int)}.
+	 * @param balancing How the acceptor selects the worker that will serve a new connection.
+	 */
+	public void start(int numThreads, Balancing balancing) {
+		List<HttpProtocol> workers = Lists.newArrayList();
 		for (int i = 0; i < numThreads; i++) {
 			final IOLoop ioLoop = new IOLoop();
 			ioLoops.add(ioLoop);
-			final HttpProtocol protocol = new HttpProtocol(ioLoop, application);
+			workers.add(new HttpProtocol(ioLoop, application));
 			new Thread(new Runnable() {
 				
 				@Override public void run() {
-					registerHandler(ioLoop, protocol);
 					ioLoop.start();
 				}
 			}).start();
 		}
+		
+		final IOLoop acceptorLoop = new IOLoop();
+		ioLoops.add(acceptorLoop);
+		final HttpAcceptor acceptor = new HttpAcceptor(workers, balancing);
+		new Thread(new Runnable() {
+			
+			@Override public void run() {
+				registerHandler(acceptorLoop, acceptor);
+				acceptorLoop.start();
+			}
+		}).start();
 	}
 	
 	/**
@@ -84,17 +158,24 @@ public class HttpServer {
 	 */
 	public void stop() {
 		logger.debug("Stopping HTTP server");
-		for (IOLoop ioLoop : ioLoops) {
-			// TODO RS 110527 Should probably do this in each IOLoop through an AsyncCallback 
-			// (hint: ioloop.addCallback(..))
-			Closeables.closeQuietly(ioLoop, serverChannel);
+		if (!reusePortChannels.isEmpty()) {	// every io loop has its own listener
+			for (Map.Entry<IOLoop, ServerSocketChannel> entry : reusePortChannels.entrySet()) {
+				Closeables.closeQuietly(entry.getKey(), entry.getValue());
+			}
+			reusePortChannels.clear();
+		} else {
+			for (IOLoop ioLoop : ioLoops) {
+				// TODO RS 110527 Should probably do this in each IOLoop through an AsyncCallback 
+				// (hint: ioloop.addCallback(..))
+				Closeables.closeQuietly(ioLoop, serverChannel);
+			}
 		}
 	}
 	
-	private void registerHandler(IOLoop ioLoop, HttpProtocol protocol) {
+	private void registerHandler(IOLoop ioLoop, IOHandler handler) {
 		ioLoop.addHandler(
 				serverChannel,
-				protocol, 
+				handler, 
 				SelectionKey.OP_ACCEPT,
 				null /*attachment*/
 		);
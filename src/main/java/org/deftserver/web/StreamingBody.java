@@ -0,0 +1,25 @@
+package org.deftserver.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.http.BodyListener;
+import org.deftserver.web.http.HttpRequest;
+
+/**
+ * Annotation used by implementation of {@link RequestHandler} to denote a method (typically post or put) that 
+ * receives the request body as a stream. The method is invoked as soon as the headers are received and should 
+ * register a {@link BodyListener} ({@link HttpRequest#setBodyListener}), the body is delivered to the listener as 
+ * it arrives (and is not buffered). A body that is received together with the headers is delivered right after the
+ * method returns. 
+ * The method is asynchronous (see {@link Asynchronous}), the response is typically finished when the body is 
+ * complete.
+ *
+ */
+
+@Retention(RetentionPolicy.RUNTIME)	
+@Target(ElementType.METHOD)
+public @interface StreamingBody {}
@@ -6,6 +6,7 @@ import java.util.Map;
 import org.deftserver.web.Asynchronous;
 import org.deftserver.web.Authenticated;
 import org.deftserver.web.HttpVerb;
+import org.deftserver.web.StreamingBody;
 import org.deftserver.web.http.HttpRequest;
 import org.deftserver.web.http.HttpResponse;
 
@@ -16,16 +17,21 @@ public abstract class RequestHandler {
 
 	private final ImmutableMap<HttpVerb, Boolean> asynchVerbs;
 	private final ImmutableMap<HttpVerb, Boolean> authVerbs;
+	private final ImmutableMap<HttpVerb, Boolean> streamingVerbs;
 
 	public RequestHandler() {
 		Map<HttpVerb, Boolean> asyncV = Maps.newHashMap();
 		Map<HttpVerb, Boolean> authV = Maps.newHashMap();
+		Map<HttpVerb, Boolean> streamingV = Maps.newHashMap();
 		for (HttpVerb verb : HttpVerb.values()) {
+			boolean streaming = isMethodAnnotated(verb, StreamingBody.class);
 			authV.put(verb, isMethodAnnotated(verb, Authenticated.class));
-			asyncV.put(verb, isMethodAnnotated(verb, Asynchronous.class));
+			asyncV.put(verb, streaming || isMethodAnnotated(verb, Asynchronous.class));	// streaming implies async
+			streamingV.put(verb, streaming);
 		}
 		asynchVerbs = ImmutableMap.copyOf(asyncV);
 		authVerbs = ImmutableMap.copyOf(authV);
+		streamingVerbs = ImmutableMap.copyOf(streamingV);
 	}
 
 	private boolean isMethodAnnotated(HttpVerb verb, Class<? extends Annotation> annotation) {
@@ -44,6 +50,10 @@ public abstract class RequestHandler {
 	public boolean isMethodAuthenticated(HttpVerb verb) {
 		return authVerbs.get(verb);
 	}
+	
+	public boolean isMethodStreaming(HttpVerb verb) {
+		return streamingVerbs.get(verb);
+	}
 
 	//Default implementation of HttpMethods return a 501 page
 	public void get(HttpRequest request, HttpResponse response) {
@@ -1,10 +1,12 @@
 package org.deftserver.web.handler;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
 
-import javax.activation.FileTypeMap;
-import javax.activation.MimetypesFileTypeMap;
-
+import org.deftserver.util.HttpUtil;
+import org.deftserver.util.MXBeanUtil;
+import org.deftserver.web.http.ByteRange;
 import org.deftserver.web.http.HttpException;
 import org.deftserver.web.http.HttpRequest;
 import org.deftserver.web.http.HttpResponse;
@@ -14,6 +16,11 @@ import org.slf4j.LoggerFactory;
 /**
  *	A RequestHandler that serves static content (files) from a predefined directory. 
  *
+ *	Files (and their headers) are cached by a {@link StaticFileCache}. Conditional requests (If-None-Match, 
+ *	If-Modified-Since) are answered with "304 Not Modified". Compressible files are sent gzip encoded to clients that
+ *	accept it. Range requests (and If-Range) are answered with "206 Partial Content", a single range or 
+ *	multipart/byteranges.
+ *
  *	"Cache-Control: public" indicates that the response MAY be cached by any cache, even if it would normally be 
  *  non-cacheable or cacheable only within a non- shared cache.
  *
@@ -24,7 +31,11 @@ public class StaticContentHandler extends RequestHandler {
 
 	private final static StaticContentHandler instance = new StaticContentHandler();
 
-	private final FileTypeMap mimeTypeMap =  MimetypesFileTypeMap.getDefaultFileTypeMap();
+	private final StaticFileCache cache = new StaticFileCache();
+
+	static {	// only the shared cache is registered, other instances (e.g. in tests) are not
+		MXBeanUtil.registerMXBean(instance.cache, "StaticFileCache");
+	}
 
 	public static StaticContentHandler getInstance() {
 		return instance;
@@ -51,32 +62,62 @@ public class StaticContentHandler extends RequestHandler {
 		
 		final String path = request.getRequestedPath();
 		final File file = new File(path.substring(1));	// remove the leading '/'
-		if (!file.exists()) {
-			throw new HttpException(404);
-		} else if (!file.isFile()) {
+		StaticFileCache.Entry entry = cache.get(file);
+		if (entry == null) {
+			if (!file.exists()) {
+				throw new HttpException(404);
+			}
 			throw new HttpException(403, path + "is not a file");
 		}
 
-		final long lastModified = file.lastModified();
-		response.setHeader("Last-Modified", String.valueOf(lastModified));
 		response.setHeader("Cache-Control", "public");
-		String mimeType = mimeTypeMap.getContentType(file);
-		if ("text/plain".equals(mimeType)) {
-			mimeType += "; charset=utf-8";
-		}
-		response.setHeader("Content-Type", mimeType);
-		final String ifModifiedSince = request.getHeader("If-Modified-Since");
-		if (ifModifiedSince != null) {
-			long ims = Long.parseLong(ifModifiedSince);
-			if (lastModified <= ims) {
-				response.setStatusCode(304);	//Not Modified
-				logger.debug("not modified");
-				return;
+		response.setHeader("Content-Type", entry.contentType);
+		response.setHeader("Accept-Ranges", "bytes");
+		ByteBuffer gzipped = null;
+		File gzipFile = null;
+		if (entry.compressible) {
+			response.setHeader("Vary", "Accept-Encoding");
+			if (HttpUtil.acceptsEncoding(request.getHeader("Accept-Encoding"), "gzip")) {
+				gzipped = cache.getGzippedContent(entry);
+				gzipFile = gzipped == null ? entry.gzipFile : null;
 			}
 		}
+		boolean compressed = gzipped != null || gzipFile != null;
+		if (compressed) {
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		String etag = compressed ? entry.gzipEtag : entry.etag;
+		boolean notModified = response.setEtag(etag);
+		notModified |= response.setLastModified(entry.lastModified);
+		if (notModified) {
+			logger.debug("not modified");
+			return;	// 304 Not Modified
+		}
 		
-		if(hasBody) {
-			response.write(file);
+		if (hasBody) {
+			ByteBuffer content = compressed ? gzipped : entry.getContent();
+			long length = content != null ? content.remaining() : (compressed ? gzipFile.length() : entry.length);
+			List<ByteRange> ranges = null;
+			if (HttpUtil.matchesIfRange(request.getHeader("If-Range"), etag, entry.lastModified)) {
+				ranges = ByteRange.parse(request.getHeader("Range"), length);
+			}
+			if (ranges != null && ranges.isEmpty()) {
+				response.setStatusCode(416);
+				response.setHeader("Content-Range", "bytes */" + length);
+			} else if (content != null) {
+				if (ranges != null) {
+					response.write(content, ranges);
+				} else {
+					response.write(content);
+				}
+			} else {
+				File representation = compressed ? gzipFile : file;
+				if (ranges != null) {
+					response.write(representation, ranges);
+				} else {
+					response.write(representation);
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,314 @@
+package org.deftserver.web.handler;
+
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_CACHED_FILE_SIZE;
+import static org.deftserver.web.http.HttpServerDescriptor.STATIC_FILE_CACHE_SIZE;
+import static org.deftserver.web.http.HttpServerDescriptor.STATIC_FILE_CHECK_INTERVAL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.activation.MimetypesFileTypeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A cache of static files, shared by all io loops (thread safe).
+ * <p>
+ * Every file that is served gets an entry with the values of its headers (Content-Type, Etag, Last-Modified), i.e. 
+ * the file system and the MIME type map are not consulted for every request. Small files (at most 
+ * {@link org.deftserver.web.http.HttpServerDescriptor#MAX_CACHED_FILE_SIZE} bytes) are also kept in memory as 
+ * (read only) direct buffers. The content of all entries is limited to 
+ * {@link org.deftserver.web.http.HttpServerDescriptor#STATIC_FILE_CACHE_SIZE} bytes, the least recently used entries 
+ * are evicted.
+ * <p>
+ * An entry is validated (last modified time and length) at most once per 
+ * {@link org.deftserver.web.http.HttpServerDescriptor#STATIC_FILE_CHECK_INTERVAL} ms, i.e. a modified file might be 
+ * served stale during that interval.
+ * <p>
+ * gzip: a pre-compressed sibling ({@code <file>.gz}, at least as new as the file) is used if present. Otherwise the 
+ * content of cached files of a compressible type (text, javascript, json, xml, svg) is compressed once, when first
+ * requested, and kept in the entry.
+ */
+public class StaticFileCache implements StaticFileCacheMXBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(StaticFileCache.class);
+	
+	/* max number of entries (including entries without content) */
+	private static final int MAX_ENTRIES = 4096;
+
+	private final MimetypesFileTypeMap mimeTypeMap = new MimetypesFileTypeMap();
+	
+	{	// instance initialization block, types that are missing in the default map
+		mimeTypeMap.addMimeTypes("text/css css");
+		mimeTypeMap.addMimeTypes("application/javascript js");
+		mimeTypeMap.addMimeTypes("application/json json");
+		mimeTypeMap.addMimeTypes("image/svg+xml svg");
+		mimeTypeMap.addMimeTypes("image/png png");
+	}
+	
+	/* path -> entry, in access order. Guarded by this */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long cachedBytes = 0;	// guarded by this
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * @return the entry of the given file, or null if the file is not a (readable) regular file.
+	 */
+	public Entry get(File file) {
+		String path = file.getPath();
+		long now = System.currentTimeMillis();
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+		}
+		if (entry != null) {
+			if (now - entry.lastValidated < STATIC_FILE_CHECK_INTERVAL) {
+				hits.incrementAndGet();
+				return entry;
+			}
+			if (file.lastModified() == entry.lastModified && file.length() == entry.length) {
+				entry.lastValidated = now;
+				hits.incrementAndGet();
+				return entry;
+			}
+			logger.debug("{} is modified (or removed)", path);
+			remove(path, entry);
+		}
+		misses.incrementAndGet();
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			entry = load(file, now);
+		} catch (IOException e) {
+			logger.error("Could not read static file {}: {}", path, e.getMessage());
+			return null;
+		}
+		put(path, entry);
+		return entry;
+	}
+	
+	private Entry load(File file, long now) throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		String contentType = mimeTypeMap.getContentType(file);
+		if ("text/plain".equals(contentType)) {
+			contentType += "; charset=utf-8";
+		}
+		ByteBuffer content = null;
+		if (length <= MAX_CACHED_FILE_SIZE) {
+			content = read(file, (int) length);
+			if (content.remaining() != length) {
+				content = null;	// modified while read, sent from disk until the entry is validated again
+			}
+		}
+		File gzipFile = new File(file.getPath() + ".gz");
+		ByteBuffer gzipped = null;
+		if (gzipFile.isFile() && gzipFile.lastModified() >= lastModified) {
+			long gzipLength = gzipFile.length();
+			if (gzipLength <= MAX_CACHED_FILE_SIZE) {
+				gzipped = read(gzipFile, (int) gzipLength);
+			}
+		} else {
+			gzipFile = null;
+		}
+		boolean compressible = gzipFile != null || (content != null && isCompressible(contentType));
+		return new Entry(file.getPath(), lastModified, length, contentType, content, compressible, gzipFile, gzipped, 
+				now);
+	}
+	
+	private static boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/") || contentType.startsWith("application/javascript") 
+			|| contentType.startsWith("application/json") || contentType.startsWith("application/xml") 
+			|| contentType.startsWith("image/svg+xml");
+	}
+	
+	/**
+	 * @return a (new) view of the gzip encoded content of the entry, or null if not available in memory (see
+	 * {@link Entry#gzipFile}). The content is compressed on the first invocation (if the entry has no pre-compressed 
+	 * sibling).
+	 */
+	public ByteBuffer getGzippedContent(Entry entry) {
+		if (!entry.compressible) {
+			return null;
+		}
+		ByteBuffer gzipped = entry.gzipped;
+		if (gzipped == null && entry.gzipFile == null) {
+			synchronized (entry) {
+				if (entry.gzipped == null) {
+					try {
+						gzipped = compress(entry.content.duplicate());
+					} catch (IOException e) {
+						logger.error("Could not compress {}: {}", entry.path, e.getMessage());
+						return null;
+					}
+					synchronized (this) {
+						entry.gzipped = gzipped;
+						if (entries.get(entry.path) == entry) {
+							cachedBytes += gzipped.capacity();
+							evictLeastRecentlyUsed(entry);
+						}
+					}
+				}
+				gzipped = entry.gzipped;
+			}
+		}
+		return gzipped == null ? null : gzipped.duplicate();
+	}
+	
+	private static ByteBuffer compress(ByteBuffer content) throws IOException {
+		byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 32);
+		GZIPOutputStream os = new GZIPOutputStream(compressed);
+		os.write(bytes);
+		os.close();
+		byte[] result = compressed.toByteArray();
+		ByteBuffer gzipped = ByteBuffer.allocateDirect(result.length);
+		gzipped.put(result).flip();
+		return gzipped.asReadOnlyBuffer();
+	}
+	
+	private static ByteBuffer read(File file, int length) throws IOException {
+		ByteBuffer content = ByteBuffer.allocateDirect(length);
+		FileInputStream is = new FileInputStream(file);
+		try {
+			FileChannel channel = is.getChannel();
+			while (content.hasRemaining() && channel.read(content) != -1) { /* read until eof or full */ }
+		} finally {
+			Closeables.closeQuietly(is);
+		}
+		content.flip();
+		return content.asReadOnlyBuffer();
+	}
+	
+	private synchronized void put(String path, Entry entry) {
+		Entry previous = entries.put(path, entry);
+		if (previous != null) {
+			cachedBytes -= previous.size();
+		}
+		cachedBytes += entry.size();
+		evictLeastRecentlyUsed(entry);
+	}
+	
+	/* evicts entries (except the given one) until the cache is within its limits, guarded by this */
+	private void evictLeastRecentlyUsed(Entry keep) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while ((cachedBytes > STATIC_FILE_CACHE_SIZE || entries.size() > MAX_ENTRIES) && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			if (eldest == keep) {
+				continue;
+			}
+			iterator.remove();
+			cachedBytes -= eldest.size();
+			evictions.incrementAndGet();
+		}
+	}
+	
+	private synchronized void remove(String path, Entry entry) {
+		if (entries.get(path) == entry) {
+			entries.remove(path);
+			cachedBytes -= entry.size();
+		}
+	}
+
+	// implements StaticFileCacheMXBean
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public synchronized int getNumberOfEntries() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+	
+	public static class Entry {
+		
+		private final String path;
+		public final long lastModified;
+		public final long length;
+		public final String contentType;
+		public final String etag;
+		
+		/* true if a gzip encoded representation is available (in memory or as a file) */
+		public final boolean compressible;
+		/* Etag of the gzip encoded representation */
+		public final String gzipEtag;
+		/* the pre-compressed sibling, or null */
+		public final File gzipFile;
+		
+		/* the content of the file (read only, use duplicate()), or null if the file is too large to be cached */
+		private final ByteBuffer content;
+		/* the gzip encoded content, null if not (yet) available. Written while holding the cache's lock */
+		private volatile ByteBuffer gzipped;
+		
+		private volatile long lastValidated;
+		
+		private Entry(String path, long lastModified, long length, String contentType, ByteBuffer content, 
+				boolean compressible, File gzipFile, ByteBuffer gzipped, long now) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.contentType = contentType;
+			String opaque = Long.toHexString(lastModified) + '-' + Long.toHexString(length);
+			this.etag = '"' + opaque + '"';
+			this.gzipEtag = '"' + opaque + "-gz\"";
+			this.content = content;
+			this.compressible = compressible;
+			this.gzipFile = gzipFile;
+			this.gzipped = gzipped;
+			this.lastValidated = now;
+		}
+		
+		/**
+		 * @return a (new) view of the cached content, or null if the content is not cached
+		 */
+		public ByteBuffer getContent() {
+			return content == null ? null : content.duplicate();
+		}
+		
+		private int size() {
+			ByteBuffer compressed = gzipped;
+			return (content == null ? 0 : content.capacity()) + (compressed == null ? 0 : compressed.capacity());
+		}
+		
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.deftserver.web.handler;
+
+public interface StaticFileCacheMXBean {
+
+	long getHits();
+	
+	long getMisses();
+	
+	double getHitRate();
+	
+	long getEvictions();
+	
+	int getNumberOfEntries();
+	
+	long getCachedBytes();
+	
+}
@@ -0,0 +1,23 @@
+package org.deftserver.web.http;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.StreamingBody;
+
+/**
+ * Receives the body of a request as it arrives (see {@link StreamingBody}). Invoked by the io loop thread.
+ */
+public interface BodyListener {
+
+	/**
+	 * @param chunk the next part of the body. The buffer is (a read only view of) the connection's read buffer and is
+	 * only valid during this invocation, i.e. it must be consumed (or copied) before the method returns.
+	 */
+	void onBodyChunk(ByteBuffer chunk);
+
+	/**
+	 * Invoked when the entire body is received.
+	 */
+	void onBodyComplete();
+
+}
@@ -0,0 +1,138 @@
+package org.deftserver.web.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range (RFC 2616, 14.35) of a representation, {@code first} and {@code last} are inclusive
+ * positions.
+ */
+public class ByteRange {
+
+	/* requests with more ranges are answered with the whole representation (rather than hundreds of tiny parts) */
+	private static final int MAX_RANGES = 16;
+
+	public final long first;
+	public final long last;
+
+	public ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	public long length() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @return the value of a "Content-Range" header for this range, e.g. "bytes 0-499/1234"
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + first + '-' + last + '/' + length;
+	}
+
+	/**
+	 * Parses the value of a "Range" header. Ranges that extend beyond the representation are truncated and
+	 * overlapping ranges are coalesced.
+	 *
+	 * @param range the value of a "Range" header
+	 * @param length the length of the representation
+	 * @return the satisfiable ranges, an empty list if no range is satisfiable ("416 Requested Range Not
+	 * Satisfiable"), or null if the header is invalid (or unsupported) and should be ignored.
+	 */
+	public static List<ByteRange> parse(String range, long length) {
+		if (range == null || !range.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		String[] specs = range.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long first, last;
+			try {
+				if (dash == 0) {	// suffix range, the last n bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix == 0) {
+						continue;	// not satisfiable
+					}
+					first = Math.max(length - suffix, 0);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {	// to the end
+						last = length - 1;
+					} else {
+						last = Long.parseLong(spec.substring(dash + 1));
+						if (last < first) {
+							return null;
+						}
+						last = Math.min(last, length - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first < 0) {
+				return null;	// e.g. "--1"
+			}
+			if (first < length) {
+				ranges.add(new ByteRange(first, last));
+			}
+		}
+		return coalesce(ranges);
+	}
+
+	private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+		Collections.sort(sorted, new Comparator<ByteRange>() {
+			@Override public int compare(ByteRange r1, ByteRange r2) {
+				return r1.first < r2.first ? -1 : (r1.first == r2.first ? 0 : 1);
+			}
+		});
+		List<ByteRange> coalesced = new ArrayList<ByteRange>(sorted.size());
+		ByteRange current = sorted.get(0);
+		for (int i = 1; i < sorted.size(); i++) {
+			ByteRange next = sorted.get(i);
+			if (next.first <= current.last + 1) {
+				current = new ByteRange(current.first, Math.max(current.last, next.last));
+			} else {
+				coalesced.add(current);
+				current = next;
+			}
+		}
+		coalesced.add(current);
+		return coalesced.size() < ranges.size() ? coalesced : ranges;	// keep the requested order if possible
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ByteRange)) {
+			return false;
+		}
+		ByteRange that = (ByteRange) obj;
+		return first == that.first && last == that.last;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (first ^ (first >>> 32)) * 31 + (int) (last ^ (last >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+
+}
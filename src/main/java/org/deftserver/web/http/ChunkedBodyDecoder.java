@@ -0,0 +1,151 @@
+package org.deftserver.web.http;
+
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_HEADER_SIZE;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A resumable decoder of a "Transfer-Encoding: chunked" request body (RFC 2616, 3.6.1). The input may be split at
+ * arbitrary positions, the decoder remembers where it stopped. The chunk data is returned as views of the input
+ * (nothing is copied), chunk extensions are ignored and the trailer headers are collected (lower cased names).
+ */
+class ChunkedBodyDecoder {
+
+	private static final int MAX_LINE_LENGTH = 1024;	// chunk size line (including extensions)
+
+	private enum State { SIZE, DATA, DATA_CRLF, TRAILER, DONE, MALFORMED }
+
+	private State state = State.SIZE;
+
+	/* the remaining bytes of the current chunk */
+	private long remaining;
+
+	/* the current line (size or trailer), lines might be split between reads */
+	private final StringBuilder line = new StringBuilder();
+	private int trailerSize = 0;
+
+	private final Map<String, String> trailers = Maps.newHashMap();
+
+	/**
+	 * Decodes the input until the next chunk data (or the end of the input). The position of the input is advanced
+	 * past the consumed bytes.
+	 *
+	 * @return the next (part of a) chunk, a view of the input, or null if more input is needed (or the body is
+	 * complete, or malformed)
+	 */
+	ByteBuffer next(ByteBuffer input) {
+		while (input.hasRemaining()) {
+			switch (state) {
+			case SIZE:
+				if (readLine(input, MAX_LINE_LENGTH)) {
+					state = parseSize();
+					line.setLength(0);
+				}
+				break;
+			case DATA:
+				int length = (int) Math.min(remaining, input.remaining());
+				ByteBuffer data = input.duplicate();
+				data.limit(data.position() + length);
+				input.position(input.position() + length);
+				remaining -= length;
+				if (remaining == 0) {
+					state = State.DATA_CRLF;
+				}
+				return data;
+			case DATA_CRLF:
+				if (readLine(input, 1)) {
+					state = line.length() == 0 ? State.SIZE : State.MALFORMED;
+					line.setLength(0);
+				}
+				break;
+			case TRAILER:
+				if (readLine(input, MAX_HEADER_SIZE - trailerSize)) {
+					state = parseTrailer();
+					line.setLength(0);
+				}
+				break;
+			default:	// DONE or MALFORMED, bytes beyond the body are not consumed
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Appends bytes to the current line until LF.
+	 * @return true if the line is complete
+	 */
+	private boolean readLine(ByteBuffer input, int maxLength) {
+		while (input.hasRemaining()) {
+			char c = (char) (input.get() & 0xff);
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return true;
+			}
+			line.append(c);
+			if (line.length() > maxLength + 1) {	// + 1 for CR
+				state = State.MALFORMED;
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private State parseSize() {
+		if (state == State.MALFORMED) {
+			return state;
+		}
+		int end = line.indexOf(";");	// chunk extensions are ignored
+		String size = (end == -1 ? line.toString() : line.substring(0, end)).trim();
+		if (size.length() == 0 || size.length() > 15) {
+			return State.MALFORMED;
+		}
+		try {
+			remaining = Long.parseLong(size, 16);
+		} catch (NumberFormatException e) {
+			return State.MALFORMED;
+		}
+		if (remaining < 0) {
+			return State.MALFORMED;
+		}
+		return remaining == 0 ? State.TRAILER : State.DATA;
+	}
+
+	private State parseTrailer() {
+		if (state == State.MALFORMED) {
+			return state;
+		}
+		if (line.length() == 0) {
+			return State.DONE;	// the empty line after the last chunk (and the trailers)
+		}
+		trailerSize += line.length() + 2;
+		int colon = line.indexOf(":");
+		if (colon <= 0) {
+			return State.MALFORMED;
+		}
+		trailers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+		return State.TRAILER;
+	}
+
+	boolean isDone() {
+		return state == State.DONE;
+	}
+
+	boolean isMalformed() {
+		return state == State.MALFORMED;
+	}
+
+	/**
+	 * @return the trailer headers (lower cased names), complete when {@link #isDone()}
+	 */
+	Map<String, String> getTrailers() {
+		return trailers;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.deftserver.web.http;
+
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_OPEN_FILES;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A cache of open (read only) {@code FileChannel}s used to send static files.
+ * <p>
+ * A file is opened once and shared by all transfers of it, {@link FileChannel#transferTo(long, long, 
+ * java.nio.channels.WritableByteChannel)} is positional and does not modify the channel. A file that is modified 
+ * (last modified time or length changed) is reopened. At most {@link HttpServerDescriptor#MAX_OPEN_FILES} files are 
+ * kept open, the least recently used file is closed (when it is no longer used by any transfer).
+ * <p>
+ * Not thread safe, each {@code HttpProtocol} (io loop) has its own cache.
+ */
+class FileChannelCache {
+
+	private final static Logger logger = LoggerFactory.getLogger(FileChannelCache.class);
+
+	/* path -> entry, in access order */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * Opens the given file (or reuses an open channel). {@link #release(Entry)} must be invoked when the returned 
+	 * entry is no longer used.
+	 */
+	public Entry acquire(File file) throws IOException {
+		String path = file.getPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Entry entry = entries.get(path);
+		if (entry != null && (entry.lastModified != lastModified || entry.length != length)) {
+			logger.debug("{} is modified, reopening", path);
+			entries.remove(path);
+			evict(entry);
+			entry = null;
+		}
+		if (entry == null) {
+			FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+			entry = new Entry(channel, lastModified, length);
+			entries.put(path, entry);
+			evictLeastRecentlyUsed();
+		}
+		entry.references++;
+		return entry;
+	}
+
+	/**
+	 * Gives back an entry that was acquired by {@link #acquire(File)}.
+	 */
+	public void release(Entry entry) {
+		entry.references--;
+		if (entry.references == 0 && entry.evicted) {
+			Closeables.closeQuietly(entry.channel);
+		}
+	}
+
+	private void evictLeastRecentlyUsed() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > MAX_OPEN_FILES && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			evict(eldest);
+		}
+	}
+
+	/* closes the channel now or when the last transfer is finished */
+	private void evict(Entry entry) {
+		entry.evicted = true;
+		if (entry.references == 0) {
+			Closeables.closeQuietly(entry.channel);
+		}
+	}
+
+	/**
+	 * @return the number of open files
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	static class Entry {
+
+		public final FileChannel channel;
+		public final long lastModified;
+		public final long length;
+
+		private int references = 0;
+		private boolean evicted = false;
+
+		private Entry(FileChannel channel, long lastModified, long length) {
+			this.channel = channel;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+	}
+
+}
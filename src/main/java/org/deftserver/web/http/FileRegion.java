@@ -0,0 +1,117 @@
+package org.deftserver.web.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.deftserver.io.buffer.CompositeByteBuffer;
+
+/**
+ * A pending static file response: the initial line and headers (and any data written before the file) followed by 
+ * (a region of) a file that is sent with {@code FileChannel.transferTo} (sendfile). The position is tracked between 
+ * invocations of {@link #transferTo(SocketChannel, long)}, i.e. the transfer continues when the channel is writable again.
+ * <p>
+ * A multipart/byteranges response consists of several regions of the file, each preceded by a delimiter (boundary and
+ * part headers), and a final delimiter.
+ * <p>
+ * Kept by the {@code HttpConnection} until everything is written. {@link #close()} gives back the buffer and the 
+ * file channel.
+ */
+class FileRegion implements Closeable {
+
+	private final CompositeByteBuffer head;
+	private final FileChannelCache cache;
+	private final FileChannelCache.Entry file;
+
+	private final long[] positions;
+	private final long[] ends;
+	/* null, or one delimiter before each region plus the closing delimiter */
+	private final ByteBuffer[] delimiters;
+	
+	private int index = 0;	// the current region
+	private long position;
+
+	private boolean closed = false;
+
+	/**
+	 * @param head data that is written before the file
+	 * @param positions the first byte of each region
+	 * @param counts the number of bytes of each region
+	 * @param delimiters null, or the data that is written before each region followed by the data that is written 
+	 * after the last region ({@code positions.length + 1} buffers)
+	 */
+	public FileRegion(CompositeByteBuffer head, FileChannelCache cache, FileChannelCache.Entry file, long[] positions,
+			long[] counts, ByteBuffer[] delimiters) {
+		this.head = head;
+		this.cache = cache;
+		this.file = file;
+		this.positions = positions;
+		this.ends = new long[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			ends[i] = positions[i] + counts[i];
+		}
+		this.delimiters = delimiters;
+		this.position = positions[0];
+	}
+
+	/**
+	 * Writes as much as possible, but (roughly) at most {@code maxBytes}, of the remaining data to the given channel.
+	 * The delimiters of a multipart response are written as a whole.
+	 * @return the number of bytes written
+	 */
+	public long transferTo(SocketChannel channel, long maxBytes) throws IOException {
+		long written = 0;
+		if (head.hasRemaining()) {
+			written += head.writeTo(channel, maxBytes);
+			if (head.hasRemaining()) {
+				return written;
+			}
+		}
+		while (index < ends.length && written < maxBytes) {
+			if (delimiters != null && delimiters[index].hasRemaining()) {
+				written += channel.write(delimiters[index]);
+				if (delimiters[index].hasRemaining()) {
+					return written;	// socket send buffer is full
+				}
+			}
+			long end = ends[index];
+			while (position < end && written < maxBytes) {
+				long count = Math.min(end - position, maxBytes - written);
+				long transferred = file.channel.transferTo(position, count, channel);
+				if (transferred == 0) {
+					if (position >= file.channel.size()) {
+						throw new IOException("File truncated during transfer");
+					}
+					return written;	// socket send buffer is full
+				}
+				position += transferred;
+				written += transferred;
+			}
+			if (position < end) {
+				return written;	// maxBytes written
+			}
+			if (++index < ends.length) {
+				position = positions[index];
+			}
+		}
+		if (index == ends.length && delimiters != null && delimiters[index].hasRemaining()) {
+			written += channel.write(delimiters[index]);
+		}
+		return written;
+	}
+
+	public boolean hasRemaining() {
+		return head.hasRemaining() || index < ends.length || (delimiters != null && delimiters[index].hasRemaining());
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			head.release();
+			cache.release(file);
+		}
+	}
+
+}
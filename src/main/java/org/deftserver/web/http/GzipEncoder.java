@@ -0,0 +1,118 @@
+package org.deftserver.web.http;
+
+import java.lang.reflect.Method;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.deftserver.io.buffer.CompositeByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming gzip (RFC 1952) encoder of a response body. The compressed output is appended to a 
+ * {@code CompositeByteBuffer}.
+ * <p>
+ * {@link #flush(CompositeByteBuffer)} emits all data written so far (SYNC_FLUSH) so that an explicitly flushed 
+ * response can be decoded by the client without waiting for the rest. The sync flush mode of {@code Deflater} is only
+ * available on Java 7+ and is looked up by reflection, on older JVMs the flushed data might be delayed until more data
+ * is written or the response is finished.
+ */
+class GzipEncoder {
+
+	private final static Logger logger = LoggerFactory.getLogger(GzipEncoder.class);
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static final int SYNC_FLUSH = 2;	// Deflater.SYNC_FLUSH (Java 7)
+	private static final Method DEFLATE_WITH_FLUSH_MODE;
+
+	static {
+		Method method = null;
+		try {
+			method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch (Exception e) {
+			logger.debug("Deflater.SYNC_FLUSH is not available: {}", e.toString());
+		}
+		DEFLATE_WITH_FLUSH_MODE = method;
+	}
+
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);	// raw deflate
+	private final CRC32 crc = new CRC32();
+	private final byte[] out = new byte[8 * 1024];
+
+	private boolean headerWritten = false;
+	private boolean finished = false;
+
+	/**
+	 * Compresses {@code length} bytes from {@code src} (starting at {@code offset}). Nop if the encoder is finished
+	 * (or ended, e.g. the connection is closed while the handler is still writing).
+	 */
+	public void write(byte[] src, int offset, int length, CompositeByteBuffer dst) {
+		if (finished) {
+			return;
+		}
+		writeHeader(dst);
+		crc.update(src, offset, length);
+		deflater.setInput(src, offset, length);
+		while (!deflater.needsInput()) {
+			int n = deflater.deflate(out, 0, out.length);
+			dst.put(out, 0, n);
+		}
+	}
+
+	/**
+	 * Emits all compressed data of the data written so far.
+	 */
+	public void flush(CompositeByteBuffer dst) {
+		if (finished || !headerWritten || DEFLATE_WITH_FLUSH_MODE == null) {
+			return;
+		}
+		try {
+			int n;
+			do {
+				n = (Integer) DEFLATE_WITH_FLUSH_MODE.invoke(deflater, out, 0, out.length, SYNC_FLUSH);
+				dst.put(out, 0, n);
+			} while (n == out.length);
+		} catch (Exception e) {
+			logger.error("Could not flush compressed data: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Emits the rest of the compressed data and the gzip trailer. Releases the (native) resources of the encoder.
+	 */
+	public void finish(CompositeByteBuffer dst) {
+		if (finished) {
+			return;
+		}
+		writeHeader(dst);
+		deflater.finish();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(out, 0, out.length);
+			dst.put(out, 0, n);
+		}
+		int crc32 = (int) crc.getValue();
+		int size = deflater.getTotalIn();	// mod 2^32
+		dst.put(new byte[] { 
+				(byte) crc32, (byte) (crc32 >> 8), (byte) (crc32 >> 16), (byte) (crc32 >> 24),
+				(byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) 
+		});
+		end();
+	}
+
+	/**
+	 * Releases the (native) resources of the encoder without emitting anything. Might be invoked more than once.
+	 */
+	public void end() {
+		finished = true;
+		deflater.end();
+	}
+
+	private void writeHeader(CompositeByteBuffer dst) {
+		if (!headerWritten) {
+			dst.put(HEADER);
+			headerWritten = true;
+		}
+	}
+
+}
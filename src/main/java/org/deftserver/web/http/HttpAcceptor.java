@@ -0,0 +1,98 @@
+package org.deftserver.web.http;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import org.deftserver.io.IOHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * An {@code IOHandler} that accepts new connections on a dedicated (acceptor) {@code IOLoop} and hands them over to a
+ * set of worker {@link HttpProtocol}s (each running on its own {@code IOLoop}).
+ * An accepted connection stays on the selected worker {@code IOLoop} during its whole lifetime.
+ */
+public class HttpAcceptor implements IOHandler {
+
+	private final static Logger logger = LoggerFactory.getLogger(HttpAcceptor.class);
+
+	/** Max number of connections to accept per accept event (the rest is accepted during the next iteration) */
+	private static final int MAX_ACCEPTS_PER_EVENT = 64;
+
+	public enum Balancing {
+
+		/** Hand out connections to the workers in turn */
+		ROUND_ROBIN,
+
+		/** Hand out connections to the worker with the fewest number of registered connections */
+		LEAST_LOADED
+	}
+
+	private final HttpProtocol[] workers;
+	private final Balancing balancing;
+	private int next = 0;
+
+	public HttpAcceptor(List<HttpProtocol> workers, Balancing balancing) {
+		if (workers.isEmpty()) {
+			throw new IllegalArgumentException("At least one worker is required");
+		}
+		this.workers = workers.toArray(new HttpProtocol[workers.size()]);
+		this.balancing = balancing;
+	}
+
+	@Override
+	public void handleAccept(SelectionKey key) throws IOException {
+		ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+		for (int i = 0; i < MAX_ACCEPTS_PER_EVENT; i++) {
+			SocketChannel clientChannel = serverChannel.accept();
+			if (clientChannel == null) {
+				break;	// backlog is empty
+			}
+			try {
+				clientChannel.configureBlocking(false);
+				nextWorker().handoff(clientChannel);
+			} catch (IOException e) {
+				logger.warn("Could not hand off accepted connection: {}", e.getMessage());
+				Closeables.closeQuietly(clientChannel);
+			}
+		}
+	}
+
+	private HttpProtocol nextWorker() {
+		if (balancing == Balancing.ROUND_ROBIN) {
+			next = (next + 1) % workers.length;
+			return workers[next];
+		}
+		HttpProtocol leastLoaded = workers[0];
+		for (int i = 1; i < workers.length; i++) {
+			if (workers[i].getLoad() < leastLoaded.getLoad()) {
+				leastLoaded = workers[i];
+			}
+		}
+		return leastLoaded;
+	}
+
+	@Override
+	public void handleConnect(SelectionKey key) throws IOException {
+		logger.error("handle connect in HttpAcceptor...");
+	}
+
+	@Override
+	public void handleRead(SelectionKey key) throws IOException {
+		logger.error("handle read in HttpAcceptor...");
+	}
+
+	@Override
+	public void handleWrite(SelectionKey key) {
+		logger.error("handle write in HttpAcceptor...");
+	}
+
+	@Override
+	public String toString() { return "HttpAcceptor"; }
+
+}
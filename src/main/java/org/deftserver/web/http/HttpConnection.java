@@ -0,0 +1,127 @@
+package org.deftserver.web.http;
+
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_READ_BUFFER_SIZE;
+import static org.deftserver.web.http.HttpServerDescriptor.READ_BUFFER_SIZE;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.deftserver.io.Connection;
+import org.deftserver.io.IOLoop;
+import org.deftserver.io.buffer.ByteBufferPool;
+import org.deftserver.io.buffer.CompositeByteBuffer;
+import org.deftserver.io.buffer.ReceiveBufferPredictor;
+
+/**
+ * The state of a HTTP connection, attached to the connection's {@code SelectionKey}. Replaces the maps (keyed by
+ * channel) that {@link HttpProtocol} used to look up unfinished requests and responses in.
+ */
+class HttpConnection extends Connection {
+
+	private final IOLoop ioLoop;
+
+	/*
+	 * the read buffer (pooled), in "write mode" (position = end of the received data) unless a request is being
+	 * handled (awaitingResponse), then it is flipped (position = first byte after the request that is handled)
+	 */
+	ByteBuffer readBuffer;
+	
+	/* the size of the next read buffer, from the size of the recent reads */
+	final ReceiveBufferPredictor predictor = 
+		new ReceiveBufferPredictor(READ_BUFFER_SIZE, READ_BUFFER_SIZE, Math.max(READ_BUFFER_SIZE, MAX_READ_BUFFER_SIZE));
+
+	/* the unfinished request (headers or body not yet completely received), null if none */
+	PartialHttpRequest partial;
+
+	/* the pending (not yet written) data of the response, a CompositeByteBuffer or a FileRegion, null if none */
+	Object pending;
+
+	/* the response if it is flushed before it is finished (e.g. a chunked response), null if none */
+	HttpResponse streamingResponse;
+
+	/* the encoder of the compressed response in progress (holds native memory until it is ended), null if none */
+	GzipEncoder gzip;
+
+	/* true from when a request is dispatched until its response is complete (pipelined requests wait) */
+	boolean awaitingResponse = false;
+
+	/* true while HttpProtocol handles the received requests (a completed response leaves the read buffer to it) */
+	boolean handlingRequests = false;
+
+	HttpConnection(IOLoop ioLoop, SocketChannel channel, HttpProtocol protocol, ByteBuffer readBuffer) {
+		super(channel, protocol);
+		this.ioLoop = ioLoop;
+		this.readBuffer = readBuffer;
+	}
+
+	/**
+	 * @return true while the body of a streamed request is received, its handler is dispatched already (and the
+	 * connection might await its response).
+	 */
+	boolean isReceivingBody() {
+		return partial != null && partial.isHeaderComplete() && !partial.isComplete();
+	}
+
+	/**
+	 * @return {@code OP_READ}, or 0 if the handler paused the streamed body that is received.
+	 */
+	int readInterest() {
+		return isReceivingBody() && partial.isPaused() ? 0 : SelectionKey.OP_READ;
+	}
+
+	/**
+	 * @return the read interest while a streamed body is received, 0 otherwise. The body is read while the response
+	 * is written (e.g. a handler that echoes the body), other (pipelined) requests wait until it is complete.
+	 */
+	int bodyReadInterest() {
+		return isReceivingBody() ? readInterest() : 0;
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return (SocketChannel) super.getChannel();
+	}
+
+	/**
+	 * @return the read buffer, replaced by a buffer of the predicted size if it is empty (no unfinished header section
+	 * and no pipelined requests) and the predicted size belongs to another size class of the pool.
+	 */
+	ByteBuffer prepareReadBuffer() {
+		if (readBuffer.position() == 0) {
+			ByteBufferPool pool = ioLoop.getByteBufferPool();
+			int size = predictor.nextSize();
+			if (pool.capacityFor(size) != readBuffer.capacity()) {
+				pool.releaseLater(readBuffer);	// the request might still refer to it
+				readBuffer = pool.acquire(size);
+			}
+		}
+		return readBuffer;
+	}
+
+	/**
+	 * Releases the pending data and the gzip encoder of the response (the connection is kept open).
+	 */
+	void releasePending() {
+		if (pending instanceof CompositeByteBuffer) {
+			((CompositeByteBuffer) pending).release();
+		} else if (pending instanceof FileRegion) {
+			((FileRegion) pending).close();
+		}
+		pending = null;
+		if (gzip != null) {
+			gzip.end();	// nop unless the response was not finished (e.g. the connection is closed)
+			gzip = null;
+		}
+	}
+
+	@Override
+	protected void release() {
+		releasePending();
+		if (readBuffer != null) {
+			ioLoop.getByteBufferPool().releaseLater(readBuffer);	// the request might still refer to it
+			readBuffer = null;
+		}
+	}
+
+}
@@ -1,40 +1,55 @@
 package org.deftserver.web.http;
 
 import static org.deftserver.web.http.HttpServerDescriptor.KEEP_ALIVE_TIMEOUT;
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_BODY_SIZE;
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_READ_BYTES_PER_EVENT;
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_WRITE_BYTES_PER_EVENT;
 import static org.deftserver.web.http.HttpServerDescriptor.READ_BUFFER_SIZE;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.deftserver.io.IOHandler;
 import org.deftserver.io.IOLoop;
-import org.deftserver.io.buffer.DynamicByteBuffer;
+import org.deftserver.io.buffer.CompositeByteBuffer;
 import org.deftserver.io.timeout.Timeout;
 import org.deftserver.util.Closeables;
 import org.deftserver.web.Application;
+import org.deftserver.web.AsyncCallback;
 import org.deftserver.web.handler.RequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Maps;
 
 public class HttpProtocol implements IOHandler {
 	
 	private final static Logger logger = LoggerFactory.getLogger(HttpProtocol.class);
+	
+	/* the body of a streamed request whose handler did not register a listener */
+	private static final BodyListener DISCARDING_BODY_LISTENER = new BodyListener() {
+		@Override public void onBodyChunk(ByteBuffer chunk) { /* discard */ }
+		@Override public void onBodyComplete() { /* nop */ }
+	};
 
 	private final IOLoop ioLoop;
 	private final Application application;
+	private final FileChannelCache fileChannelCache = new FileChannelCache();
 
 	
-	// a queue of half-baked (pending/unfinished) HTTP post request
-	private final Map<SelectableChannel, PartialHttpRequest> partials = Maps.newHashMap();
+	// connections accepted by a HttpAcceptor (on another thread) that should be registered with this ioloop
+	private final Queue<SocketChannel> handoffs = new ConcurrentLinkedQueue<SocketChannel>();
+	private final AtomicInteger pendingHandoffs = new AtomicInteger();
+	private final AtomicBoolean handoffScheduled = new AtomicBoolean(false);
+	private final AsyncCallback registerHandoffs = new AsyncCallback() {
+		@Override public void onCallback() { registerHandoffs(); }
+	};
  	
 	public HttpProtocol(Application app) {
 		this(IOLoop.INSTANCE, app);
@@ -50,101 +65,289 @@ public class HttpProtocol implements IOHandler {
 		logger.debug("handle accept...");
 		SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
 		if (clientChannel != null) {
-			// could be null in a multithreaded deft environment because another ioloop was "faster" to accept()
+			// could be null if the connection was reset (or accepted by someone else) before we got to it
 			clientChannel.configureBlocking(false);
-			ioLoop.addHandler(clientChannel, this, SelectionKey.OP_READ, ByteBuffer.allocate(READ_BUFFER_SIZE));
+			register(clientChannel);
+		}
+	}
+	
+	/**
+	 * Hands over an accepted (non-blocking) connection that will be registered with (and served by) the 
+	 * {@code IOLoop} of this {@code HttpProtocol}. This method is thread safe and is intended to be invoked by an 
+	 * {@link HttpAcceptor} running on another {@code IOLoop}.
+	 */
+	public void handoff(SocketChannel clientChannel) {
+		pendingHandoffs.incrementAndGet();
+		handoffs.add(clientChannel);
+		if (handoffScheduled.compareAndSet(false, true)) {
+			ioLoop.addCallback(registerHandoffs);	// wakes up the (worker) io loop
 		}
 	}
 	
+	private void registerHandoffs() {
+		handoffScheduled.set(false);
+		SocketChannel clientChannel;
+		while ((clientChannel = handoffs.poll()) != null) {
+			pendingHandoffs.decrementAndGet();
+			register(clientChannel);
+		}
+	}
+	
+	/* the state of the connection is attached to its key, released by the IOLoop when the connection is closed */
+	private void register(SocketChannel clientChannel) {
+		ioLoop.addHandler(new HttpConnection(ioLoop, clientChannel, this, newReadBuffer()), SelectionKey.OP_READ);
+	}
+	
+	/**
+	 * @return a (pooled) read buffer.
+	 */
+	private ByteBuffer newReadBuffer() {
+		return ioLoop.getByteBufferPool().acquire(READ_BUFFER_SIZE);
+	}
+	
+	/**
+	 * @return The (approximate) number of connections served by this {@code HttpProtocol}, including those handed 
+	 * over but not yet registered. Safe to invoke from any thread.
+	 */
+	public int getLoad() {
+		return ioLoop.getNumberOfRegisteredIOHandlers() + pendingHandoffs.get();
+	}
+	
 	@Override
 	public void handleConnect(SelectionKey key) throws IOException {
 		logger.error("handle connect in HttpProcotol...");
 	}
 
+	/**
+	 * Reads until the socket has no more data (a read that does not fill the buffer), the connection waits for a
+	 * response or a streamed body is paused, or {@link HttpServerDescriptor#MAX_READ_BYTES_PER_EVENT} bytes are read.
+	 * The requests are handled after every read, i.e. the buffer is reused. The size of the read buffer is adapted to
+	 * the size of the reads.
+	 */
 	@Override
 	public void handleRead(SelectionKey key) throws IOException {
 		logger.debug("handle read...");
-		SocketChannel clientChannel = (SocketChannel) key.channel();
-		HttpRequest request = getHttpRequest(key, clientChannel);
-		
-		if (request.isKeepAlive()) {
-			ioLoop.addKeepAliveTimeout(
-					clientChannel, 
-					Timeout.newKeepAliveTimeout(ioLoop, clientChannel, KEEP_ALIVE_TIMEOUT)
-			);
+		HttpConnection connection = (HttpConnection) key.attachment();
+		if (connection.awaitingResponse && !connection.isReceivingBody()) {
+			readPipelined(connection);
+			return;
 		}
-		HttpResponse response = new HttpResponse(this, key, request.isKeepAlive());
+		int total = 0;
+		boolean full;
+		do {
+			ByteBuffer buffer = connection.prepareReadBuffer();
+			int attempted = buffer.remaining();
+			int bytesRead = read(connection, buffer);
+			if (bytesRead == -1) {
+				return;	// connection closed (or reset) by peer
+			} else if (bytesRead == 0) {
+				break;
+			}
+			total += bytesRead;
+			full = bytesRead == attempted;
+			if (full) {
+				connection.predictor.record(bytesRead);	// grow now, there is probably more to read
+			}
+			buffer.flip();
+			handleRequests(connection, buffer);
+		} while (full && total < MAX_READ_BYTES_PER_EVENT && key.isValid() && 
+				(!connection.awaitingResponse || connection.isReceivingBody()) && 
+				(key.interestOps() & SelectionKey.OP_READ) != 0);
+		connection.predictor.record(total);
+	}
+	
+	/* pipelined requests are received while a response is in progress, they are handled when it is complete */
+	private void readPipelined(HttpConnection connection) {
+		ByteBuffer buffer = connection.readBuffer;
+		buffer.compact();
+		if (read(connection, buffer) == -1) {
+			return;
+		}
+		buffer.flip();
+		if (buffer.limit() == buffer.capacity()) {	// stop reading until the response is complete
+			connection.setInterestOps(connection.getKey().interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+	
+	/**
+	 * Handles all complete requests in the given (flipped) buffer, one at a time. If a response is not complete 
+	 * when its handler returns (asynchronous handlers, or pending writes) the remaining (pipelined) requests are kept
+	 * in the read buffer until it is, i.e. the responses are sent in request order. The same applies to the requests
+	 * that follow a streamed body.
+	 */
+	private void handleRequests(HttpConnection connection, ByteBuffer buffer) {
+		connection.handlingRequests = true;
+		try {
+			HttpRequest request;
+			while ((request = doGetHttpRequest(connection, buffer)) != null) {
+				if (request.isKeepAlive()) {
+					prolongKeepAliveTimeout(connection);
+				}
+				if (request instanceof PartialHttpRequest) {
+					PartialHttpRequest partial = (PartialHttpRequest) request;
+					if (!partial.isStreaming() || !partial.isComplete()) {
+						return;	// wait for the rest of the request (or of the body streamed to a dispatched handler)
+					}
+				} else {
+					if (request == MalFormedHttpRequest.instance) {
+						buffer.position(buffer.limit());	// nothing after a malformed request can be trusted
+					}
+					connection.awaitingResponse = true;
+					dispatch(connection, request);
+				}
+				if (connection.awaitingResponse || !connection.getKey().isValid()) {
+					return;	// the response is not complete (or the connection is closed)
+				}
+				if (!buffer.hasRemaining()) {	// no pipelined requests
+					buffer.clear();
+					return;
+				}
+				buffer.compact();	// the parser expects the next request at the front of the buffer
+				buffer.flip();
+			}
+		} finally {
+			connection.handlingRequests = false;
+		}
+	}
+	
+	private void dispatch(HttpConnection connection, HttpRequest request) {
+		HttpResponse response = new HttpResponse(this, connection.getKey(), request);
 		RequestHandler rh = application.getHandler(request);
+		if (rh.isMethodAsynchronous(request.getMethod())) {
+			// the request will probably outlive the read buffer
+			request.detachFromBuffer();
+		}
 		HttpRequestDispatcher.dispatch(rh, request, response);
+		if (rh.isMethodStreaming(request.getMethod()) && request.getBodyListener() != null) {
+			deliverBody(request);	// the entire body was received with the headers
+		}
 		
-		//Only close if not async. In that case its up to RH to close it (+ don't close if it's a partial request).
-		if (!rh.isMethodAsynchronous(request.getMethod()) && ! (request instanceof PartialHttpRequest)) {
+		//Only close if not async. In that case its up to RH to close it.
+		if (!rh.isMethodAsynchronous(request.getMethod())) {
 			response.finish();
 		}
 	}
+	
+	/* handles the pipelined requests that waited for the previous (asynchronous) response */
+	private void handlePipelined(HttpConnection connection) {
+		ByteBuffer buffer = connection.readBuffer;
+		if (connection.getKey().isValid() && !connection.awaitingResponse && buffer.position() > 0) {
+			buffer.flip();
+			handleRequests(connection, buffer);
+		}
+	}
+
+	private void deliverBody(HttpRequest request) {
+		byte[] body = request.getBodyAsBytes();
+		if (body != null && body.length > 0) {
+			request.getBodyListener().onBodyChunk(ByteBuffer.wrap(body).asReadOnlyBuffer());
+		}
+		request.getBodyListener().onBodyComplete();
+	}
 
 	@Override
 	public void handleWrite(SelectionKey key) {
 		logger.debug("handle write...");
-		SocketChannel channel = ((SocketChannel) key.channel());
+		HttpConnection connection = (HttpConnection) key.attachment();
 
-		if (key.attachment() instanceof MappedByteBuffer) {
-			writeMappedByteBuffer(key, channel);
-		} else if (key.attachment() instanceof DynamicByteBuffer) {
-			writeDynamicByteBuffer(key, channel);
+		if (connection.pending instanceof FileRegion) {
+			writeFileRegion(connection);
+		} else if (connection.pending instanceof CompositeByteBuffer) {
+			writeCompositeByteBuffer(connection);
 		}
-		if (ioLoop.hasKeepAliveTimeout(channel)) {
-			prolongKeepAliveTimeout(channel);
+		if (ioLoop.hasKeepAliveTimeout(connection)) {
+			prolongKeepAliveTimeout(connection);
 		}
 
 	}
 
-	private void writeMappedByteBuffer(SelectionKey key, SocketChannel channel) {
-		MappedByteBuffer mbb = (MappedByteBuffer) key.attachment();
-		if (mbb.hasRemaining()) {
+	private void writeFileRegion(HttpConnection connection) {
+		FileRegion region = (FileRegion) connection.pending;
+		if (region.hasRemaining()) {
 			try {
-				channel.write(mbb);
+				recordWrite(region.transferTo(connection.getChannel(), MAX_WRITE_BYTES_PER_EVENT), region.hasRemaining());
 			} catch (IOException e) {
 				logger.error("Failed to send data to client: {}", e.getMessage());
-				Closeables.closeQuietly(channel);
+				Closeables.closeQuietly(ioLoop, connection.getChannel());
+				return;
 			}
 		}
-		if (!mbb.hasRemaining()) {
-			closeOrRegisterForRead(key);
+		if (!region.hasRemaining()) {
+			closeOrRegisterForRead(connection.getKey());
 		}
 	}
 	
-	private void writeDynamicByteBuffer(SelectionKey key, SocketChannel channel) {
-		DynamicByteBuffer dbb = (DynamicByteBuffer) key.attachment();
+	private void writeCompositeByteBuffer(HttpConnection connection) {
+		CompositeByteBuffer pending = (CompositeByteBuffer) connection.pending;
+		HttpResponse response = connection.streamingResponse;
 		logger.debug("pending data about to be written");
-		ByteBuffer toSend = dbb.getByteBuffer();
-		toSend.flip(); // prepare for write
 		long bytesWritten = 0;
 		try {
-			bytesWritten = channel.write(toSend);
+			bytesWritten = pending.writeTo(connection.getChannel(), MAX_WRITE_BYTES_PER_EVENT);
 		} catch (IOException e) {
 			logger.error("Failed to send data to client: {}", e.getMessage());
-			Closeables.closeQuietly(channel);
+			Closeables.closeQuietly(ioLoop, connection.getChannel());
+			return;
 		}
 		logger.debug("sent {} bytes to wire", bytesWritten);
-		if (!toSend.hasRemaining()) {
-			logger.debug("sent all data in toSend buffer");
-			closeOrRegisterForRead(key); // should probably only be done if the HttpResponse is finished
+		recordWrite(bytesWritten, pending.hasRemaining());
+		if (response == null) {
+			if (!pending.hasRemaining()) {
+				logger.debug("sent all pending data");
+				closeOrRegisterForRead(connection.getKey());
+			}
+		} else if (!pending.hasRemaining() && response.isFinished()) {
+			response.complete();
 		} else {
-			toSend.compact(); // make room for more data be "read" in
+			if (!pending.hasRemaining()) {
+				// until the handler flushes (or finishes) the response, a streamed body is still read
+				connection.setInterestOps(connection.bodyReadInterest());
+			}
+			response.onWritten();
+		}
+	}
+
+	/**
+	 * Counts the writes that stopped at {@link HttpServerDescriptor#MAX_WRITE_BYTES_PER_EVENT} (see 
+	 * {@link IOLoop#getWriteBudgetExhaustions()}).
+	 */
+	void recordWrite(long bytesWritten, boolean hasRemaining) {
+		if (hasRemaining && bytesWritten >= MAX_WRITE_BYTES_PER_EVENT) {
+			ioLoop.recordWriteBudgetExhaustion();
 		}
 	}
 
+	/**
+	 * Invoked when a response is complete (finished and written). Closes the connection, or registers it for read if 
+	 * the connection is kept alive. The requests that were pipelined after the completed one are handled (during the
+	 * next io loop iteration unless the response was completed by {@link #handleRequests}, or before the streamed 
+	 * body of the request is received).
+	 */
 	public void closeOrRegisterForRead(SelectionKey key) {
-		if (key.isValid() && ioLoop.hasKeepAliveTimeout(key.channel())) {
-			try {
-				key.channel().register(key.selector(), SelectionKey.OP_READ, reuseAttachment(key));
-				prolongKeepAliveTimeout(key.channel());
-				logger.debug("keep-alive connection. registrating for read.");
-			} catch (ClosedChannelException e) {
-				logger.debug("ClosedChannelException while registrating key for read: {}", e.getMessage());
-				Closeables.closeQuietly(ioLoop, key.channel());
-			}		
+		if (!(key.attachment() instanceof HttpConnection)) {
+			Closeables.closeQuietly(ioLoop, key.channel());	// closed already
+			return;
+		}
+		final HttpConnection connection = (HttpConnection) key.attachment();
+		connection.streamingResponse = null;
+		connection.releasePending();
+		if (key.isValid() && ioLoop.hasKeepAliveTimeout(connection)) {
+			connection.setInterestOps(connection.readInterest());	// unless the streamed body is paused
+			prolongKeepAliveTimeout(connection);
+			logger.debug("keep-alive connection. registrating for read.");
+			if (connection.awaitingResponse) {
+				connection.awaitingResponse = false;
+				if (!connection.handlingRequests && !connection.isReceivingBody()) {
+					connection.readBuffer.compact();	// the pipelined requests (if any) are moved to the front
+					if (connection.readBuffer.position() > 0) {
+						ioLoop.addCallback(new AsyncCallback() { 
+							@Override public void onCallback() { handlePipelined(connection); } 
+						});
+					}
+				}
+			} else if (!connection.handlingRequests) {
+				connection.readBuffer.clear();
+			}
 		} else {
 			// http request should be finished and no 'keep-alive' => close connection
 			logger.debug("Closing finished (non keep-alive) http connection"); 
@@ -152,10 +355,10 @@ public class HttpProtocol implements IOHandler {
 		}
 	}
 	
-	public void prolongKeepAliveTimeout(SelectableChannel channel) {
+	void prolongKeepAliveTimeout(HttpConnection connection) {
 		ioLoop.addKeepAliveTimeout(
-				channel, 
-				Timeout.newKeepAliveTimeout(ioLoop, channel, KEEP_ALIVE_TIMEOUT)
+				connection, 
+				Timeout.newKeepAliveTimeout(ioLoop, connection.getChannel(), KEEP_ALIVE_TIMEOUT)
 		);
 	}
 	
@@ -163,61 +366,138 @@ public class HttpProtocol implements IOHandler {
 		return ioLoop;
 	}
 	
-	/**
-	 * Clears the buffer (prepares for reuse) attached to the given SelectionKey.
-	 * @return A cleared (position=0, limit=capacity) ByteBuffer which is ready for new reads
-	 */
-	private ByteBuffer reuseAttachment(SelectionKey key) {
-		Object o = key.attachment();
-		ByteBuffer attachment = null;
-		if (o instanceof MappedByteBuffer) {
-			attachment = ByteBuffer.allocate(READ_BUFFER_SIZE);
-		} else if (o instanceof DynamicByteBuffer) {
-			attachment = ((DynamicByteBuffer) o).getByteBuffer();
-		} else {
-			attachment = (ByteBuffer) o;
-		}
-
-		if (attachment.capacity() < READ_BUFFER_SIZE) {
-			attachment = ByteBuffer.allocate(READ_BUFFER_SIZE);
-		}
-		attachment.clear(); // prepare for reuse
-		return attachment;
+	FileChannelCache getFileChannelCache() {
+		return fileChannelCache;
 	}
 
-	private HttpRequest getHttpRequest(SelectionKey key, SocketChannel clientChannel) {
-		ByteBuffer buffer = (ByteBuffer) key.attachment();
+	/**
+	 * Reads from the channel (appended to the data that is already in the buffer).
+	 * @return the number of bytes read, -1 if the connection is closed
+	 */
+	private int read(HttpConnection connection, ByteBuffer buffer) {
+		SocketChannel clientChannel = connection.getChannel();
 		try {
-			clientChannel.read(buffer);
+			int bytesRead = clientChannel.read(buffer);
+			if (bytesRead == -1) {
+				Closeables.closeQuietly(ioLoop, clientChannel);
+			}
+			return bytesRead;
 		} catch (IOException e) {
 			logger.warn("Could not read buffer: {}", e.getMessage());
 			Closeables.closeQuietly(ioLoop, clientChannel);
+			return -1;
 		}
-		buffer.flip();
-		
-		return doGetHttpRequest(key, clientChannel, buffer);
 	}
 	
-	private HttpRequest doGetHttpRequest(SelectionKey key, SocketChannel clientChannel, ByteBuffer buffer) {
-		//do we have any unfinished http post requests for this channel?
+	private HttpRequest doGetHttpRequest(HttpConnection connection, ByteBuffer buffer) {
+		SocketChannel clientChannel = connection.getChannel();
+		//do we have any unfinished http requests for this channel?
 		HttpRequest request = null;
-		if (partials.containsKey(clientChannel)) {
-			request = HttpRequest.continueParsing(buffer, partials.get(clientChannel));
-			if (! (request instanceof PartialHttpRequest)) {	// received the entire payload/body
-				partials.remove(clientChannel);
+		PartialHttpRequest unfinished = connection.partial;
+		if (unfinished != null) {
+			request = HttpRequest.continueParsing(buffer, unfinished);
+			if (unfinished.isStreaming()) {	// the request is already dispatched
+				if (unfinished.isMalformed()) {
+					logger.debug("Malformed chunked request body");
+					connection.partial = null;
+					Closeables.closeQuietly(ioLoop, clientChannel);
+					return null;
+				} else if (unfinished.isComplete()) {
+					connection.partial = null;	// the bytes after the body (pipelined requests) are kept
+				} else {
+					buffer.clear();
+				}
+				return unfinished;
+			} else if (request == unfinished && unfinished.getReceived() > MAX_BODY_SIZE) {	// chunked
+				connection.partial = null;
+				rejectTooLarge(connection);
+				return null;
 			}
 		} else {
 			request = HttpRequest.of(buffer);
-			if (request instanceof PartialHttpRequest) {
-				partials.put(key.channel(), (PartialHttpRequest) request);
+		}
+		if (request instanceof PartialHttpRequest) {
+			PartialHttpRequest partial = (PartialHttpRequest) request;
+			if (partial != unfinished && partial.isHeaderComplete() && !beginBody(connection, partial)) {
+				connection.partial = null;
+				return null;	// rejected
 			}
+			connection.partial = partial;
+			prepareForPartialRead(connection, buffer, partial);
+			return request;
+		} else if (unfinished != null) {	// received the entire request 
+			connection.partial = null;
 		}
-		//set extra request info
+		setConnectionInfo(request, clientChannel);
+		return request;
+	}
+	
+	private void setConnectionInfo(HttpRequest request, SocketChannel clientChannel) {
 		request.setRemoteHost(clientChannel.socket().getInetAddress());
 		request.setRemotePort(clientChannel.socket().getPort());
 		request.setServerHost(clientChannel.socket().getLocalAddress());
 		request.setServerPort(clientChannel.socket().getLocalPort());
-		return request;
+	}
+	
+	/**
+	 * Invoked when the headers of a request are received but (parts of) the body are missing. A request handler 
+	 * method annotated with {@link org.deftserver.web.StreamingBody} is dispatched immediately and receives the 
+	 * body as it arrives (the connection awaits its response, as for any dispatched request). Otherwise the body is buffered, bodies larger than {@link HttpServerDescriptor#MAX_BODY_SIZE}
+	 * are rejected with "413 Request Entity Too Large" (and the connection is closed).
+	 * 
+	 * @return false if the request is rejected
+	 */
+	private boolean beginBody(HttpConnection connection, PartialHttpRequest partial) {
+		HttpRequest request = partial.getRequest();
+		RequestHandler rh = application.getHandler(request);
+		if (rh.isMethodStreaming(request.getMethod())) {
+			setConnectionInfo(request, connection.getChannel());
+			HttpResponse response = new HttpResponse(this, connection.getKey(), request);
+			connection.partial = partial;	// a response that completes while the body is received keeps the buffer
+			connection.awaitingResponse = true;
+			HttpRequestDispatcher.dispatch(rh, request, response);
+			if (request.getBodyListener() == null) {
+				request.setBodyListener(DISCARDING_BODY_LISTENER);
+			}
+			partial.stream(ioLoop, connection);
+			return true;
+		} else if (partial.getContentLength() > MAX_BODY_SIZE) {
+			rejectTooLarge(connection);
+			return false;
+		}
+		return true;
+	}
+	
+	private void rejectTooLarge(HttpConnection connection) {
+		logger.debug("Request body too large");
+		HttpResponse response = new HttpResponse(this, connection.getKey(), false);
+		response.setStatusCode(413);
+		response.write("");
+		response.finish();
+		if (connection.pending == null) {	// the response is written
+			Closeables.closeQuietly(ioLoop, connection.getChannel());
+		}
+	}
+	
+	/**
+	 * Prepares the read buffer for the next part of an unfinished request. 
+	 * Body chunks are consumed as they arrive so the buffer is simply cleared. An incomplete header section is kept 
+	 * (at the same positions, the parser refers to it by offset) and the next read is appended to it. The buffer is
+	 * replaced by one twice as large if it is full.
+	 */
+	private void prepareForPartialRead(HttpConnection connection, ByteBuffer buffer, PartialHttpRequest partial) {
+		if (partial.isHeaderComplete()) {
+			buffer.clear();
+		} else if (buffer.limit() < buffer.capacity()) {
+			buffer.position(buffer.limit());
+			buffer.limit(buffer.capacity());
+		} else {
+			ByteBuffer grown = ioLoop.getByteBufferPool().acquire(buffer.capacity() * 2);
+			buffer.rewind();
+			grown.put(buffer);
+			connection.readBuffer = grown;
+			ioLoop.getByteBufferPool().release(buffer);
+		}
 	}
 	
 	@Override
@@ -2,18 +2,19 @@ package org.deftserver.web.http;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.deftserver.io.IOLoop;
-import org.deftserver.util.ArrayUtil;
 import org.deftserver.web.HttpVerb;
+import org.deftserver.web.StreamingBody;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Maps;
 
 public class HttpRequest {
 	
@@ -26,6 +27,12 @@ public class HttpRequest {
 	private Map<String, String> headers;
 	private ImmutableMultimap<String, String> parameters;
 	private String body;
+	/* the raw body (decoded on demand), the first rawBodyLength bytes are used */
+	private byte[] rawBody;
+	private int rawBodyLength;
+	private BodyListener bodyListener;
+	/* the unfinished request that streams the body to the listener (null unless the body is being streamed) */
+	private volatile PartialHttpRequest bodyStream;
 	private boolean keepAlive;
 	private InetAddress remoteHost;
 	private InetAddress serverHost;
@@ -40,11 +47,14 @@ public class HttpRequest {
 	public static final Pattern PARAM_STRING_PATTERN = Pattern.compile("\\&|;");  //Delimiter is either & or ;
 	/** Regex to parse out key/value pairs */
 	public static final Pattern KEY_VALUE_PATTERN = Pattern.compile("=");
-	/** Regex to parse raw headers and body */
-	public static final Pattern RAW_VALUE_PATTERN = Pattern.compile("\\r\\n\\r\\n"); //TODO fix a better regexp for this
-	/** Regex to parse raw headers from body */
+	/** Regex to parse raw headers and body (no longer used, see {@link HttpRequestParser}) */
+	@Deprecated
+	public static final Pattern RAW_VALUE_PATTERN = Pattern.compile("\\r\\n\\r\\n");
+	/** Regex to parse raw headers from body (no longer used, see {@link HttpRequestParser}) */
+	@Deprecated
 	public static final Pattern HEADERS_BODY_PATTERN = Pattern.compile("\\r\\n");
-	/** Regex to parse header name and value */
+	/** Regex to parse header name and value (no longer used, see {@link HttpRequestParser}) */
+	@Deprecated
 	public static final Pattern HEADER_VALUE_PATTERN = Pattern.compile(": ");
 	
 	
@@ -78,46 +88,115 @@ public class HttpRequest {
 		this.body = body;
 	}
 	
+	/**
+	 * Creates a new HttpRequest from an already parsed (and validated) request line.
+	 * @param headers The Http request headers (typically a {@link LazyHeaderMap})
+	 */
+	HttpRequest(HttpRequestParser parser, Map<String, String> headers, String body) {
+		requestLine = parser.getRequestLine();
+		method = parser.getMethod();
+		String uri = requestLine.substring(parser.getMethodEnd() + 1, parser.getUriEnd());
+		int queryStart = uri.indexOf('?');
+		requestedPath = queryStart == -1 ? uri : uri.substring(0, queryStart);
+		int versionEnd = requestLine.indexOf(' ', parser.getUriEnd() + 1);
+		version = requestLine.substring(parser.getUriEnd() + 1, versionEnd == -1 ? requestLine.length() : versionEnd);
+		this.headers = headers;
+		this.body = body;
+		initKeepAlive();
+		parameters = queryStart == -1 ? ImmutableMultimap.<String, String>of() : parseParameters(uri);
+	}
+	
+	/**
+	 * Creates a new HttpRequest from the given ByteBuffer (position == 0, limit == number of bytes read). Once the 
+	 * header section is received the position of the buffer is advanced past the consumed bytes, i.e. the remaining
+	 * bytes of the buffer belong to the next (pipelined) request.
+	 * 
+	 * @return a {@link PartialHttpRequest} if the request line, the headers or the body are not yet completely 
+	 * received, {@link MalFormedHttpRequest#instance} if the request could not be parsed.
+	 */
 	public static HttpRequest of(ByteBuffer buffer) {
+		return parse(buffer, new HttpRequestParser());
+	}
+	
+	/**
+	 * Continues parsing of a {@link PartialHttpRequest}. If the headers of the unfinished request are not yet 
+	 * complete the given buffer must contain all bytes received so far (at the same positions as in the previous 
+	 * invocation). Otherwise the buffer should only contain the next chunk of the body (the bytes are buffered, or
+	 * streamed to the {@link BodyListener} of the request).
+	 */
+	public static HttpRequest continueParsing(ByteBuffer buffer, PartialHttpRequest unfinished) {
+		if (!unfinished.isHeaderComplete()) {
+			return parse(buffer, unfinished.getParser());
+		}
+		unfinished.append(buffer);
+		if (unfinished.isMalformed()) {
+			return MalFormedHttpRequest.instance;
+		}
+		return unfinished.isComplete() ? unfinished.complete() : unfinished;
+	}
+	
+	private static HttpRequest parse(ByteBuffer buffer, HttpRequestParser parser) {
 		try {
-			String raw = new String(buffer.array(), 0, buffer.limit(), Charsets.ISO_8859_1);
-			String[] headersAndBody = RAW_VALUE_PATTERN.split(raw); 
-			String[] headerFields = HEADERS_BODY_PATTERN.split(headersAndBody[0]);
-			headerFields = ArrayUtil.dropFromEndWhile(headerFields, "");
-
-			String requestLine = headerFields[0];
-			Map<String, String> generalHeaders = new HashMap<String, String>();
-			for (int i = 1; i < headerFields.length; i++) {
-				String[] header = HEADER_VALUE_PATTERN.split(headerFields[i]);
-				generalHeaders.put(header[0].toLowerCase(), header[1]);
+			if (!parser.parse(buffer)) {
+				return new PartialHttpRequest(parser);
+			} else if (parser.isMalformed()) {
+				return MalFormedHttpRequest.instance;
 			}
-
-			String body = "";
-			for (int i = 1; i < headersAndBody.length; ++i) { //First entry contains headers
-				body += headersAndBody[i];
+			LazyHeaderMap headers = parser.newHeaderMap(buffer);
+			int bodyStart = parser.getBodyStart();
+			int available = buffer.limit() - bodyStart;
+			String transferEncoding = headers.get("transfer-encoding");
+			if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+				if (!"chunked".equalsIgnoreCase(transferEncoding)) {
+					return MalFormedHttpRequest.instance;	// unsupported transfer coding
+				}
+				// the body is decoded (and buffered or streamed) as it arrives, see HttpProtocol
+				HttpRequest request = new HttpRequest(parser, headers.materialize(), null);
+				PartialHttpRequest partial = new PartialHttpRequest(request, -1);
+				buffer.position(bodyStart);
+				return continueParsing(buffer, partial);
 			}
-			
-			if (requestLine.contains("POST")) {
-				int contentLength = Integer.parseInt(generalHeaders.get("content-length"));
-				if (contentLength > body.length()) {
-					return new PartialHttpRequest(requestLine, generalHeaders, body);
+			String contentLength = headers.get("content-length");
+			if (contentLength != null) {
+				long length = Long.parseLong(contentLength);
+				if (length < 0) {
+					return MalFormedHttpRequest.instance;
+				} else if (length > available) {
+					// the body is buffered (or streamed) as it arrives, see HttpProtocol
+					HttpRequest request = new HttpRequest(parser, headers.materialize(), null);
+					PartialHttpRequest partial = new PartialHttpRequest(request, length);
+					buffer.position(bodyStart);
+					partial.append(buffer);
+					return partial;
 				}
+				available = (int) length;
+			} else {
+				available = 0;	// RFC 2616, 4.4: without Content-Length (or Transfer-Encoding) there is no body
+			}
+			HttpRequest request = new HttpRequest(parser, headers, null);
+			if (available > 0) {
+				byte[] body = new byte[available];
+				ByteBuffer received = buffer.duplicate();
+				received.position(bodyStart);
+				received.get(body);
+				request.setBody(body, available);
+			} else {
+				request.body = "";
 			}
-			return new HttpRequest(requestLine, generalHeaders, body);
+			buffer.position(bodyStart + available);
+			return request;
 		} catch (Exception t) {
 			return MalFormedHttpRequest.instance;
 		}
 	}
 	
-	public static HttpRequest continueParsing(ByteBuffer buffer, PartialHttpRequest unfinished) {
-		String nextChunk = new String(buffer.array(), 0, buffer.limit(), Charsets.US_ASCII);
-		unfinished.appendBody(nextChunk);
-		
-		int contentLength = Integer.parseInt(unfinished.getHeader("Content-Length"));
-		if (contentLength > unfinished.getBody().length()) {
-			return unfinished;
-		} else {
-			return new HttpRequest(unfinished.getRequestLine(), unfinished.getHeaders(), unfinished.getBody());
+	/**
+	 * Decodes all headers that are still referenced by offset into the read buffer. Must be invoked before the read 
+	 * buffer is reused if this request is expected to outlive the current read (e.g. asynchronous request handlers).
+	 */
+	void detachFromBuffer() {
+		if (headers instanceof LazyHeaderMap) {
+			headers = ((LazyHeaderMap) headers).materialize();
 		}
 	}
 	
@@ -170,9 +249,82 @@ public class HttpRequest {
 		return parameters.asMap();
 	}	
 	
+	/**
+	 * @return the (ISO-8859-1 decoded) body of the request, null if the body is streamed (see {@link StreamingBody}).
+	 */
 	public String getBody() {
+		if (body == null && rawBody != null) {
+			body = new String(rawBody, 0, rawBodyLength, Charsets.ISO_8859_1);
+		}
 		return body;
-	}	
+	}
+	
+	/**
+	 * @return the raw bytes of the body (e.g. to be decoded with the charset of the request's "Content-Type"). The 
+	 * array is shared and must not be modified. Null if the body is streamed (see {@link StreamingBody}).
+	 */
+	public byte[] getBodyAsBytes() {
+		if (rawBody == null && body != null) {
+			rawBody = body.getBytes(Charsets.ISO_8859_1);
+			rawBodyLength = rawBody.length;
+		}
+		if (rawBody != null && rawBody.length != rawBodyLength) {
+			rawBody = Arrays.copyOf(rawBody, rawBodyLength);
+		}
+		return rawBody;
+	}
+	
+	void addTrailers(Map<String, String> trailers) {
+		if (!trailers.isEmpty()) {
+			Map<String, String> merged = Maps.newHashMap(headers);
+			merged.putAll(trailers);
+			headers = merged;
+		}
+	}
+	
+	void setBody(byte[] body, int length) {
+		this.rawBody = body;
+		this.rawBodyLength = length;
+		this.body = null;
+	}
+	
+	/**
+	 * Streams the body of this request to the given listener. Only supported by request handler methods annotated 
+	 * with {@link StreamingBody}, should be invoked before the method returns.
+	 */
+	public void setBodyListener(BodyListener listener) {
+		bodyListener = listener;
+	}
+	
+	BodyListener getBodyListener() {
+		return bodyListener;
+	}
+	
+	void setBodyStream(PartialHttpRequest stream) {
+		bodyStream = stream;
+	}
+	
+	/**
+	 * Stops reading the (streamed) body from the connection until {@link #resumeBody()} is invoked, e.g. when the 
+	 * {@link BodyListener} hands the body over to a slower consumer. The client is throttled by TCP flow control.
+	 * Has no effect unless the body is being streamed. Thread safe.
+	 */
+	public void pauseBody() {
+		PartialHttpRequest stream = bodyStream;
+		if (stream != null) {
+			stream.setPaused(true);
+		}
+	}
+	
+	/**
+	 * Resumes reading the (streamed) body, see {@link #pauseBody()}. Thread safe.
+	 */
+	public void resumeBody() {
+		PartialHttpRequest stream = bodyStream;
+		if (stream != null) {
+			stream.setPaused(false);
+		}
+	}
 	
 	public InetAddress getRemoteHost() {
 		return remoteHost;
@@ -0,0 +1,234 @@
+package org.deftserver.web.http;
+
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_HEADER_SIZE;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.HttpVerb;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A resumable, byte level parser of the request line and the headers of an HTTP request.
+ * <p>
+ * The parser works directly on the {@code ByteBuffer} that the socket was read into. Header names and values are
+ * stored as offsets into that buffer and no {@code String}s are created until somebody asks for a header value (see
+ * {@link LazyHeaderMap}).
+ * <p>
+ * If the header section is not complete the parser remembers where it stopped. The next invocation of
+ * {@link #parse(ByteBuffer)} must be given a buffer that contains the same bytes at the same positions (followed by
+ * the newly read data).
+ */
+class HttpRequestParser {
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	private static final byte SP = ' ';
+	private static final byte HT = '\t';
+	private static final byte COLON = ':';
+
+	private static final HttpVerb[] VERBS = HttpVerb.values();
+
+	private enum State { REQUEST_LINE, HEADERS, DONE, MALFORMED }
+
+	private State state = State.REQUEST_LINE;
+
+	/** position from where to continue scanning */
+	private int pos;
+
+	/** start of the line that is currently being parsed */
+	private int lineStart;
+
+	private String requestLine;
+	private HttpVerb method;
+	private int methodEnd;
+	private int uriEnd;
+
+	/** (nameStart, nameEnd, valueStart, valueEnd) for each header */
+	private int[] headers = new int[4 * 16];
+	private int headerCount;
+
+	/** index of the first byte after the empty line that terminates the header section */
+	private int bodyStart = -1;
+
+	/**
+	 * Continue parsing from where the last invocation stopped.
+	 * @param buffer A flipped buffer (position == 0 and limit == number of bytes read so far)
+	 * @return true if the request line and all headers have been parsed (or the request was found to be malformed).
+	 */
+	boolean parse(ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		while (pos < limit && (state == State.REQUEST_LINE || state == State.HEADERS)) {
+			int lf = indexOfLineFeed(buffer, pos, limit);
+			if (lf == -1) {
+				pos = limit;
+				break;
+			}
+			int lineEnd = lf > lineStart && buffer.get(lf - 1) == CR ? lf - 1 : lf;
+			if (state == State.REQUEST_LINE) {
+				state = parseRequestLine(buffer, lineStart, lineEnd);
+			} else if (lineEnd == lineStart) {
+				bodyStart = lf + 1;
+				state = State.DONE;
+			} else {
+				state = parseHeader(buffer, lineStart, lineEnd);
+			}
+			pos = lineStart = lf + 1;
+		}
+		if (state != State.DONE && limit > MAX_HEADER_SIZE) {
+			state = State.MALFORMED;
+		}
+		return isDone() || isMalformed();
+	}
+
+	/**
+	 * Scans for the next LF. Returns -1 if no LF is found within [from, to).
+	 * Control characters (except CR and HT) are not allowed in the request line or in header fields.
+	 */
+	private int indexOfLineFeed(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i < to; i++) {
+			byte b = buffer.get(i);
+			if (b == LF) {
+				return i;
+			} else if (b >= 0 && b < SP && b != CR && b != HT || b == 127) {
+				state = State.MALFORMED;
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private State parseRequestLine(ByteBuffer buffer, int start, int end) {
+		if (start == end) {
+			return State.REQUEST_LINE;	// RFC 2616, 4.1: ignore leading empty line(s)
+		}
+		int firstSpace = indexOf(buffer, SP, start, end);
+		int secondSpace = firstSpace == -1 ? -1 : indexOf(buffer, SP, firstSpace + 1, end);
+		if (secondSpace == -1 || firstSpace == start || secondSpace == firstSpace + 1) {
+			return State.MALFORMED;
+		}
+		method = lookupMethod(buffer, start, firstSpace);
+		if (method == null) {
+			return State.MALFORMED;
+		}
+		requestLine = decode(buffer, start, end);
+		methodEnd = firstSpace - start;
+		uriEnd = secondSpace - start;
+		return State.HEADERS;
+	}
+
+	private State parseHeader(ByteBuffer buffer, int start, int end) {
+		byte first = buffer.get(start);
+		if (first == SP || first == HT) {
+			return State.MALFORMED;	// obsolete line folding is not supported
+		}
+		int colon = indexOf(buffer, COLON, start, end);
+		if (colon == -1 || colon == start) {
+			return State.MALFORMED;
+		}
+		int valueStart = colon + 1;
+		while (valueStart < end && isWhitespace(buffer.get(valueStart))) { valueStart++; }
+		int valueEnd = end;
+		while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) { valueEnd--; }
+
+		if (headers.length < 4 * (headerCount + 1)) {
+			int[] grown = new int[headers.length * 2];
+			System.arraycopy(headers, 0, grown, 0, headers.length);
+			headers = grown;
+		}
+		int i = 4 * headerCount++;
+		headers[i] = start;
+		headers[i + 1] = colon;
+		headers[i + 2] = valueStart;
+		headers[i + 3] = valueEnd;
+		return State.HEADERS;
+	}
+
+	private static HttpVerb lookupMethod(ByteBuffer buffer, int start, int end) {
+		for (HttpVerb verb : VERBS) {
+			String name = verb.name();
+			if (name.length() == end - start && regionMatches(buffer, start, name, false)) {
+				return verb;
+			}
+		}
+		return null;
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == SP || b == HT;
+	}
+
+	/**
+	 * Compares the bytes starting at {@code offset} with the given (ASCII) string.
+	 * @param toLowerCase if true the bytes are lower cased before the comparison (i.e. {@code s} is expected to be in 
+	 * lower case). 
+	 */
+	static boolean regionMatches(ByteBuffer buffer, int offset, String s, boolean toLowerCase) {
+		for (int i = 0; i < s.length(); i++) {
+			int b = buffer.get(offset + i) & 0xff;
+			if ((toLowerCase ? Character.toLowerCase(b) : b) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates an ISO-8859-1 decoded {@code String} of the bytes in [from, to).
+	 */
+	static String decode(ByteBuffer buffer, int from, int to) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + from, to - from, Charsets.ISO_8859_1);
+		}
+		char[] chars = new char[to - from];
+		for (int i = from; i < to; i++) {
+			chars[i - from] = (char) (buffer.get(i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	boolean isDone() {
+		return state == State.DONE;
+	}
+
+	boolean isMalformed() {
+		return state == State.MALFORMED;
+	}
+
+	String getRequestLine() {
+		return requestLine;
+	}
+
+	HttpVerb getMethod() {
+		return method;
+	}
+
+	/** @return the index (in the request line) of the space that terminates the method */
+	int getMethodEnd() {
+		return methodEnd;
+	}
+
+	/** @return the index (in the request line) of the space that terminates the request uri */
+	int getUriEnd() {
+		return uriEnd;
+	}
+
+	/** @return index of the first body byte (in the buffer), or -1 if the header section is not yet complete */
+	int getBodyStart() {
+		return bodyStart;
+	}
+
+	LazyHeaderMap newHeaderMap(ByteBuffer buffer) {
+		return new LazyHeaderMap(buffer, headers, headerCount);
+	}
+
+}
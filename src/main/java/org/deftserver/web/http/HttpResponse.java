@@ -1,23 +1,27 @@
 package org.deftserver.web.http;
 
+import static org.deftserver.web.http.HttpServerDescriptor.ETAG_STRATEGY;
+import static org.deftserver.web.http.HttpServerDescriptor.MAX_WRITE_BYTES_PER_EVENT;
+import static org.deftserver.web.http.HttpServerDescriptor.MIN_COMPRESSION_SIZE;
 import static org.deftserver.web.http.HttpServerDescriptor.WRITE_BUFFER_SIZE;
+import static org.deftserver.web.http.HttpServerDescriptor.WRITE_HIGH_WATER_MARK;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.FileChannel.MapMode;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.deftserver.io.buffer.DynamicByteBuffer;
+import org.deftserver.io.buffer.CompositeByteBuffer;
 import org.deftserver.util.Closeables;
 import org.deftserver.util.DateUtil;
 import org.deftserver.util.HttpUtil;
+import org.deftserver.web.AsyncCallback;
+import org.deftserver.web.HttpVerb;
+import org.deftserver.web.http.etag.EtagDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,21 +31,108 @@ public class HttpResponse {
 	
 	private final static Logger logger = LoggerFactory.getLogger(HttpResponse.class);
 	
+	private static final String SERVER = "Deft/0.4.0-SNAPSHOT";
+	
+	/* values of the connection field (indices of PREFIXES) */
+	private static final int CONNECTION_CLOSE = 0;
+	private static final int CONNECTION_KEEP_ALIVE = 1;
+	private static final int CONNECTION_CUSTOM = 2;	// "Connection" is a header in the header array
+	
+	/* pre-encoded initial line and constant headers (Server, Connection) indexed by connection and status code */
+	private static final byte[][][] PREFIXES = new byte[3][600][];
+	
+	private static final byte[] DATE = "Date: ".getBytes(Charsets.US_ASCII);
+	private static final byte[] COLON_SPACE = { ':', ' ' };
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	
+	/* makes the multipart boundaries unique (with the time), no lock is shared by the io loops */
+	private static final AtomicLong boundaries = new AtomicLong();
+	
+	static {
+		for (int statusCode = 100; statusCode < 600; statusCode++) {
+			if (HttpUtil.isKnownStatusCode(statusCode)) {
+				String initial = HttpUtil.createInitialLine(statusCode) + "Server: " + SERVER + "\r\n";
+				PREFIXES[CONNECTION_CLOSE][statusCode] = (initial + "Connection: Close\r\n").getBytes(Charsets.UTF_8);
+				PREFIXES[CONNECTION_KEEP_ALIVE][statusCode] = 
+					(initial + "Connection: Keep-Alive\r\n").getBytes(Charsets.UTF_8);
+				PREFIXES[CONNECTION_CUSTOM][statusCode] = initial.getBytes(Charsets.UTF_8);
+			}
+		}
+	}
+	
 	private final HttpProtocol protocol;
 	private final SelectionKey key;
+	private final HttpConnection httpConnection;	// the state of the connection, attached to the key
 	
 	private int statusCode = 200;	// default response status code
+	private int connection;
+	private boolean customDate = false;	// true if "Date" is a header in the header array
 	
-	private final Map<String, String> headers = new HashMap<String, String>();
+	/* flat array of the (non constant) headers: name0, value0, name1, value1, ... */
+	private String[] headers = new String[2 * 8];
+	private int numberOfHeaders = 0;
 	private boolean headersCreated = false;
-	private DynamicByteBuffer responseData = DynamicByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	private final CompositeByteBuffer responseData;
+	
+	/* hashes the body as it is written, null if no Etag should be calculated */
+	private EtagDigest etag = ETAG_STRATEGY.newDigest();
+	
+	/* "If-None-Match" and "If-Modified-Since" of the request (null unless the request is a conditional GET or HEAD) */
+	private final String ifNoneMatch;
+	private final String ifModifiedSince;
+	
+	/* true if the client's cached copy is up to date, the response will be sent as "304 Not Modified" */
+	private boolean notModified = false;
+	
+	/* true if the request's "Accept-Encoding" header accepts gzip */
+	private final boolean acceptsGzip;
+	
+	/* true if the handler opted in to compression and the client accepts gzip */
+	private boolean compressionEnabled = false;
+	
+	/* compresses the body, null until the body is large enough (or is flushed) */
+	private GzipEncoder gzip;
+	
+	/* true if the body may be sent with "Transfer-Encoding: chunked" (HTTP/1.1 request, not HEAD) */
+	private final boolean chunkedAllowed;
+	
+	/* the body written since the last flush (null unless the response is chunked), sent as one chunk by next flush */
+	private CompositeByteBuffer chunk;
+	
+	/* true if the response is flushed before it is finished and the body is delimited by closing the connection */
+	private boolean closeWhenFinished = false;
+	
+	private boolean finished = false;
+	
+	/* invoked when the buffered data has drained, see whenWritable */
+	private AsyncCallback writableCallback;
 	
 	public HttpResponse(HttpProtocol protocol, SelectionKey key, boolean keepAlive) {
+		this(protocol, key, keepAlive, null);
+	}
+	
+	/**
+	 * @param request The request that this is the response to. Conditional GET and HEAD requests (If-None-Match, 
+	 * If-Modified-Since) are answered with "304 Not Modified" if the validators of the response match.
+	 */
+	public HttpResponse(HttpProtocol protocol, SelectionKey key, HttpRequest request) {
+		this(protocol, key, request.isKeepAlive(), request);
+	}
+	
+	private HttpResponse(HttpProtocol protocol, SelectionKey key, boolean keepAlive, HttpRequest request) {
 		this.protocol = protocol;
 		this.key = key;
-		headers.put("Server", "Deft/0.4.0-SNAPSHOT");
-		headers.put("Date", DateUtil.getCurrentAsString());
-		headers.put("Connection", keepAlive ? "Keep-Alive" : "Close");
+		this.httpConnection = (HttpConnection) key.attachment();
+		responseData = new CompositeByteBuffer(protocol.getIOLoop().getByteBufferPool(), WRITE_BUFFER_SIZE);
+		connection = keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE;
+		boolean conditional = request != null && 
+			(request.getMethod() == HttpVerb.GET || request.getMethod() == HttpVerb.HEAD);
+		ifNoneMatch = conditional ? request.getHeader("If-None-Match") : null;
+		ifModifiedSince = conditional ? request.getHeader("If-Modified-Since") : null;
+		acceptsGzip = request != null && HttpUtil.acceptsEncoding(request.getHeader("Accept-Encoding"), "gzip");
+		chunkedAllowed = request != null && "HTTP/1.1".equals(request.getVersion()) && 
+			request.getMethod() != HttpVerb.HEAD;
 	}
 	
 	public void setStatusCode(int sc) {
@@ -49,7 +140,114 @@ public class HttpResponse {
 	}
 	
 	public void setHeader(String header, String value) {
-		headers.put(header, value);
+		if ("Connection".equalsIgnoreCase(header)) {
+			if ("close".equalsIgnoreCase(value)) {
+				connection = CONNECTION_CLOSE;
+				return;
+			} else if ("keep-alive".equalsIgnoreCase(value)) {
+				connection = CONNECTION_KEEP_ALIVE;
+				return;
+			}
+			connection = CONNECTION_CUSTOM;
+		} else if ("Date".equals(header)) {
+			customDate = true;
+		}
+		for (int i = 0; i < 2 * numberOfHeaders; i += 2) {
+			if (headers[i].equals(header)) {
+				headers[i + 1] = value;
+				return;
+			}
+		}
+		if (2 * numberOfHeaders == headers.length) {
+			headers = Arrays.copyOf(headers, 2 * headers.length);
+		}
+		headers[2 * numberOfHeaders] = header;
+		headers[2 * numberOfHeaders + 1] = value;
+		numberOfHeaders++;
+	}
+	
+	private String getHeader(String header) {
+		for (int i = 0; i < 2 * numberOfHeaders; i += 2) {
+			if (headers[i].equals(header)) {
+				return headers[i + 1];
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Opts in to (streaming) gzip compression of the response body. The body is compressed if the client accepts gzip
+	 * and the body is at least {@link HttpServerDescriptor#MIN_COMPRESSION_SIZE} bytes, or is flushed explicitly 
+	 * before it is finished. Has no effect if invoked after the first flush.
+	 */
+	public void enableCompression() {
+		if (!headersCreated) {
+			setHeader("Vary", "Accept-Encoding");
+			compressionEnabled = acceptsGzip;
+		}
+	}
+	
+	/* compresses the data that is buffered so far and all subsequent writes */
+	private void startCompression() {
+		byte[] buffered = new byte[responseData.remaining()];
+		int offset = 0;
+		for (ByteBuffer segment : responseData.nioBuffers()) {
+			int n = segment.remaining();
+			segment.get(buffered, offset, n);
+			offset += n;
+		}
+		responseData.clear();
+		gzip = new GzipEncoder();
+		if (httpConnection != null) {
+			httpConnection.gzip = gzip;	// ended when the connection is released
+		}
+		gzip.write(buffered, 0, buffered.length, body());
+		setHeader("Content-Encoding", "gzip");
+		String declared = getHeader("Etag");
+		if (declared != null) {
+			setHeader("Etag", toGzipEtag(declared));
+		}
+	}
+	
+	/* the Etag of the gzip encoded representation must differ from the identity representation's */
+	private static String toGzipEtag(String etag) {
+		return etag.endsWith("\"") ? etag.substring(0, etag.length() - 1) + "-gz\"" : etag + "-gz";
+	}
+	
+	/**
+	 * Declares the Etag of the response up front, typically a cheap validator like a version number of the resource
+	 * (the body is not hashed). Unquoted values are quoted.
+	 * 
+	 * @return true if the Etag matches the request's "If-None-Match" header. The response will be sent as 
+	 * "304 Not Modified" (without body), i.e. the handler does not have to produce the body.
+	 */
+	public boolean setEtag(String value) {
+		String quoted = value.startsWith("\"") || value.startsWith("W/\"") ? value : '"' + value + '"';
+		setHeader("Etag", quoted);
+		etag = null;
+		if (ifNoneMatch != null && HttpUtil.matchesEtag(ifNoneMatch, quoted)) {
+			notModified = true;
+		}
+		return notModified;
+	}
+	
+	/**
+	 * Declares when the resource was last modified (sets the "Last-Modified" header).
+	 * 
+	 * @param lastModified ms since epoch
+	 * @return true if the resource is not modified since the request's "If-Modified-Since" header (only used if the
+	 * request has no "If-None-Match" header). The response will be sent as "304 Not Modified" (without body), i.e. 
+	 * the handler does not have to produce the body.
+	 */
+	public boolean setLastModified(long lastModified) {
+		setHeader("Last-Modified", DateUtil.format(lastModified));
+		if (ifNoneMatch == null && ifModifiedSince != null) {
+			long since = DateUtil.parse(ifModifiedSince);
+			if (since != -1 && lastModified / 1000 <= since / 1000) {	// the resolution of HTTP dates is one second
+				notModified = true;
+			}
+		}
+		return notModified;
 	}
 
 	/**
@@ -58,157 +256,458 @@ public class HttpResponse {
 	 * @return this for chaining purposes.
 	 */
 	public HttpResponse write(String data) {
+		if (notModified) {
+			return this;	// the body will not be sent anyway
+		}
 		byte[] bytes = data.getBytes(Charsets.UTF_8);
-		responseData.put(bytes);
+		write(bytes, 0, bytes.length);
 		return this;
 	}
+	
+	private void write(byte[] bytes, int offset, int length) {
+		if (etag != null) {
+			etag.update(bytes, offset, length);
+		}
+		if (gzip != null) {
+			gzip.write(bytes, offset, length, body());
+		} else {
+			body().put(bytes, offset, length);
+			if (compressionEnabled && !headersCreated && responseData.remaining() >= MIN_COMPRESSION_SIZE) {
+				startCompression();
+			}
+		}
+	}
 
 	/**
-	 * Explicit flush. 
+	 * The remaining bytes of the given buffer will be sent as (part of) the HTTP response upon next flush or when the
+	 * response is finished. The buffer is not copied, i.e. it must not be modified until the response is finished 
+	 * (pass a {@code duplicate()} of shared buffers). Intended for prebuilt content, e.g. cached files.
+	 *
+	 * @return this for chaining purposes.
+	 */
+	public HttpResponse write(ByteBuffer data) {
+		if (notModified) {
+			return this;	// the body will not be sent anyway
+		}
+		if (etag == null && gzip == null && !compressionEnabled) {
+			body().append(data);
+			return this;
+		}
+		// the data has to be hashed and/or compressed
+		ByteBuffer view = data.duplicate();
+		byte[] chunk = new byte[Math.min(view.remaining(), WRITE_BUFFER_SIZE)];
+		while (view.hasRemaining()) {
+			int n = Math.min(chunk.length, view.remaining());
+			view.get(chunk, 0, n);
+			write(chunk, 0, n);
+		}
+		return this;
+	}
+
+	/* the buffer that the body is written to */
+	private CompositeByteBuffer body() {
+		return chunk != null ? chunk : responseData;
+	}
+	
+	/**
+	 * Explicit flush. The length of the body is unknown when the response is flushed before it is finished, the body 
+	 * of a response to a HTTP/1.1 request is therefore sent with "Transfer-Encoding: chunked" (unless the request 
+	 * handler declared the "Content-Length" or "Transfer-Encoding" itself), each flush sends the data written since the
+	 * previous flush as one chunk and {@link #finish()} sends the last (empty) chunk. The response to a HTTP/1.0 
+	 * request is delimited by closing the connection.
 	 * 
 	 * @return the number of bytes that were actually written as the result of this flush.
 	 */
 	public long flush() {
-		if (!headersCreated) {
-			String initial = createInitalLineAndHeaders();			
-			responseData.prepend(initial);
-			headersCreated = true;
+		if (!headersCreated && !finished) {
+			startCompressionIfEnabled();
+			beginStreaming();
+		}
+		return flush(false);
+	}
+	
+	private long flush(boolean last) {
+		startCompressionIfEnabled();
+		if (gzip != null) {
+			gzip.flush(body());	// nop if finished
+		}
+		if (chunk != null) {
+			writeChunk(last);
 		}
+		createHeaders();
 
 		SocketChannel channel = (SocketChannel) key.channel();
-		responseData.flip();	// prepare for write
+		long bytesFlushed = 0;
 		try {
-			channel.write(responseData.getByteBuffer());
+			// headers and body in one gathering write
+			bytesFlushed = responseData.writeTo(channel, MAX_WRITE_BYTES_PER_EVENT);
+			protocol.recordWrite(bytesFlushed, responseData.hasRemaining());
 		} catch (IOException e) {
 			logger.error("ClosedChannelException during channel.write(): {}", e.getMessage());
 			Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
+			responseData.release();	// the connection is released, the data would never be written (or released)
+			return bytesFlushed;
 		}
-		long bytesFlushed = responseData.position();
-		if (protocol.getIOLoop().hasKeepAliveTimeout(channel)) {
-			protocol.prolongKeepAliveTimeout(channel);
+		if (protocol.getIOLoop().hasKeepAliveTimeout(httpConnection)) {
+			protocol.prolongKeepAliveTimeout(httpConnection);
 		}
 		if (responseData.hasRemaining()) { 
-			responseData.compact();	// make room for more data be "read" in
-			try {
-				key.channel().register(key.selector(), SelectionKey.OP_WRITE);	//TODO RS 110621, use IOLoop.updateHandler
-			} catch (ClosedChannelException e) {
-				logger.error("ClosedChannelException during flush(): {}", e.getMessage());
-				Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
-			}
-			key.attach(responseData);
-		} else {
-			responseData.clear();
+			httpConnection.setInterestOps(SelectionKey.OP_WRITE | httpConnection.bodyReadInterest());
+			httpConnection.pending = responseData;
 		}
 		return bytesFlushed;
 	}
 	
+	private void startCompressionIfEnabled() {
+		if (compressionEnabled && gzip == null && !headersCreated && responseData.hasRemaining()) {
+			startCompression();	// the length of the body is unknown, compress regardless of size
+		}
+	}
+	
+	/* decides how the body of a response that is flushed before it is finished is delimited */
+	private void beginStreaming() {
+		httpConnection.streamingResponse = this;
+		if (notModified || getHeader("Content-Length") != null || getHeader("Transfer-Encoding") != null) {
+			return;	// no body, or the request handler delimits the body itself
+		}
+		if (chunkedAllowed) {
+			setHeader("Transfer-Encoding", "chunked");
+			chunk = new CompositeByteBuffer(protocol.getIOLoop().getByteBufferPool(), WRITE_BUFFER_SIZE);
+			chunk.append(responseData);	// written before the first flush
+		} else if (connection != CONNECTION_CLOSE) {
+			connection = CONNECTION_CLOSE;
+			closeWhenFinished = true;
+		}
+	}
+	
+	/* moves the data written since the previous flush to the response data as one chunk (size line, data, CRLF) */
+	private void writeChunk(boolean last) {
+		int size = chunk.remaining();
+		if (size > 0) {	// an empty chunk would end the body
+			responseData.put((Integer.toHexString(size) + "\r\n").getBytes(Charsets.US_ASCII));
+			responseData.append(chunk);
+			responseData.put(CRLF);
+		}
+		if (last) {
+			responseData.put(LAST_CHUNK);
+			chunk.release();
+		}
+	}
+	
+	/**
+	 * @return true if the amount of buffered data (written but not yet sent to the client) is below 
+	 * {@link HttpServerDescriptor#WRITE_HIGH_WATER_MARK}. A streaming request handler should stop writing otherwise, 
+	 * see {@link #whenWritable(AsyncCallback)}.
+	 */
+	public boolean isWritable() {
+		return getBufferedSize() < WRITE_HIGH_WATER_MARK;
+	}
+	
+	/**
+	 * Invokes the given callback (on the io loop) when more data can be written without growing the buffers, i.e. when
+	 * the buffered data has drained to half of {@link HttpServerDescriptor#WRITE_HIGH_WATER_MARK}. The buffered data
+	 * is flushed. If the response is writable already the callback is invoked during the next io loop iteration. Only 
+	 * the latest callback is kept.
+	 */
+	public void whenWritable(AsyncCallback callback) {
+		if (isWritable() || finished || !key.channel().isOpen()) {
+			protocol.getIOLoop().addCallback(callback);
+			return;
+		}
+		writableCallback = callback;
+		flush();
+		onWritten();	// the flush might have written (almost) everything
+	}
+	
+	private int getBufferedSize() {
+		return responseData.remaining() + (chunk != null ? chunk.remaining() : 0);
+	}
+	
+	/**
+	 * Invoked by the io loop when (parts of) the pending data of a flushed, unfinished response is written.
+	 */
+	void onWritten() {
+		if (writableCallback != null && getBufferedSize() <= WRITE_HIGH_WATER_MARK / 2) {
+			AsyncCallback callback = writableCallback;
+			writableCallback = null;
+			protocol.getIOLoop().addCallback(callback);
+		}
+	}
+	
+	/**
+	 * @return true if {@link #finish()} is invoked
+	 */
+	boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Invoked when the response is finished and all data is written. 
+	 */
+	void complete() {
+		httpConnection.streamingResponse = null;
+		if (closeWhenFinished) {
+			Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
+		} else {
+			protocol.closeOrRegisterForRead(key);
+		}
+	}
+	
+	/**
+	 * Prepends the initial line and headers to the response data (unless already done).
+	 */
+	private void createHeaders() {
+		if (!headersCreated) {
+			if (notModified && statusCode == 200) {
+				statusCode = 304;
+				responseData.clear();	// a 304 response has no body
+			}
+			// the header block is a (pooled, direct) segment of its own, i.e. the body is never copied to make room for
+			// it and the gathering write does not have to copy a heap buffer to a temporary direct buffer.
+			responseData.prepend(createInitalLineAndHeaders());
+			headersCreated = true;
+			etag = null;	// the Etag header (if any) is already written
+		}
+	}
+	
 	/**
 	 * Should only be invoked by third party asynchronous request handlers 
 	 * (or by the Deft framework for synchronous request handlers). 
 	 * If no previous (explicit) flush is invoked, the "Content-Length" and "Etag" header will be calculated and 
-	 * inserted to the HTTP response.
+	 * inserted to the HTTP response. If the calculated Etag matches the request's "If-None-Match" header the response
+	 * is sent as "304 Not Modified" (without body).
 	 * 
 	 */
 	public long finish() {
+		finished = true;
 		long bytesWritten = 0;
 		SocketChannel clientChannel = (SocketChannel) key.channel();
 
-		if (key.attachment() instanceof MappedByteBuffer) {
-			MappedByteBuffer mbb = (MappedByteBuffer) key.attachment();
-			if (mbb.hasRemaining() && clientChannel.isOpen()) {
+		if (httpConnection.pending instanceof FileRegion) {
+			FileRegion region = (FileRegion) httpConnection.pending;
+			if (region.hasRemaining() && clientChannel.isOpen()) {
 				try {
-					bytesWritten = clientChannel.write(mbb);
+					bytesWritten = region.transferTo(clientChannel, MAX_WRITE_BYTES_PER_EVENT);
+					protocol.recordWrite(bytesWritten, region.hasRemaining());
 				} catch (IOException e) {
 					logger.warn("Could not write to channel: ", e.getMessage());					
-					Closeables.closeQuietly(key.channel());
+					Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
 				}
 			}
-			if (!mbb.hasRemaining()) {
+			if (!region.hasRemaining()) {
 				protocol.closeOrRegisterForRead(key);
 			}
 		} else {
+			if (gzip != null) {
+				gzip.finish(body());
+			}
+			compressionEnabled = false;	// the body is complete, not compressed if it is too small
 			if (clientChannel.isOpen()) {
 				if (!headersCreated) {
 					setEtagAndContentLength();
 				}
-				bytesWritten = flush();
+				bytesWritten = flush(true);
+			} else {
+				httpConnection.streamingResponse = null;
 			}
 			// close (or register for read) if
-			// (a) DBB is attached but all data is sent to wire (hasRemaining ==
-			// false)
-			// (b) no DBB is attached (never had to register for write)
-			if (key.attachment() instanceof DynamicByteBuffer) {
-				DynamicByteBuffer dbb = (DynamicByteBuffer) key.attachment();
-				if (!(dbb).hasRemaining()) {
-					protocol.closeOrRegisterForRead(key);
+			// (a) the response data is pending but all data is sent to wire (hasRemaining == false)
+			// (b) the response data is not pending (never had to register for write)
+			if (httpConnection.pending instanceof CompositeByteBuffer) {
+				CompositeByteBuffer pending = (CompositeByteBuffer) httpConnection.pending;
+				if (!pending.hasRemaining()) {
+					complete();
 				}
 			} else {
-				protocol.closeOrRegisterForRead(key);
+				responseData.release();	// everything is written (otherwise it would be pending)
+				complete();
 			}
 		}
 		return bytesWritten;
 	}	
 	private void setEtagAndContentLength() {
-		if (responseData.position() > 0) {
-			setHeader("Etag", HttpUtil.getEtag(responseData.array()));
+		if (etag != null && responseData.hasRemaining()) {
+			String value = gzip != null ? toGzipEtag(etag.getEtag()) : etag.getEtag();
+			setHeader("Etag", value);
+			if (ifNoneMatch != null && HttpUtil.matchesEtag(ifNoneMatch, value)) {
+				notModified = true;
+			}
+		}
+		if (!notModified || statusCode != 200) {
+			setHeader("Content-Length", String.valueOf(responseData.remaining()));
 		}
-		setHeader("Content-Length", String.valueOf(responseData.position()));
 	}
 	
-	private String createInitalLineAndHeaders() {
-		StringBuilder sb = new StringBuilder(HttpUtil.createInitialLine(statusCode));
-		for (Map.Entry<String, String> header : headers.entrySet()) {
-			sb.append(header.getKey());
-			sb.append(": ");
-			sb.append(header.getValue());
-			sb.append("\r\n");
+	/**
+	 * Encodes the initial line and headers into a buffer leased from the io loop's pool. The pre-encoded prefix (initial
+	 * line, Server and Connection) and the current date ({@link DateUtil#getCurrentAsBytes()}) are copied as is, the
+	 * other headers are encoded char by char (US-ASCII fast path).
+	 */
+	private ByteBuffer createInitalLineAndHeaders() {
+		if (statusCode < 0 || statusCode >= 600 || PREFIXES[connection][statusCode] == null) {
+			HttpUtil.createInitialLine(statusCode);	// throws IllegalArgumentException
+		}
+		byte[] prefix = PREFIXES[connection][statusCode];
+		byte[] date = customDate ? null : DateUtil.getCurrentAsBytes();
+		int capacity = prefix.length + CRLF.length + (date == null ? 0 : DATE.length + date.length + CRLF.length);
+		for (int i = 0; i < 2 * numberOfHeaders; i++) {
+			capacity += 3 * headers[i].length() + 2;	// worst case UTF-8 + ": " (or CRLF)
+		}
+		ByteBuffer block = protocol.getIOLoop().getByteBufferPool().acquire(capacity);
+		block.put(prefix);
+		if (date != null) {
+			block.put(DATE).put(date).put(CRLF);
+		}
+		for (int i = 0; i < 2 * numberOfHeaders; i += 2) {
+			putString(block, headers[i]);
+			block.put(COLON_SPACE);
+			putString(block, headers[i + 1]);
+			block.put(CRLF);
+		}
+		block.put(CRLF);
+		block.flip();
+		return block;
+	}
+	
+	private static void putString(ByteBuffer buffer, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				buffer.put(s.substring(i).getBytes(Charsets.UTF_8));
+				return;
+			}
+			buffer.put((byte) c);
 		}
-		
-		sb.append("\r\n");
-		return sb.toString();
 	}
 	
 	/**
-	 * Experimental support.
-	 * Before use, read https://github.com/rschildmeijer/deft/issues/75
+	 * Sends the given file as the body of the response (the "Content-Length" header is set). The file is sent with 
+	 * {@code FileChannel.transferTo} (sendfile), i.e. it is never copied to user space, and the file channel is taken
+	 * from a cache of open files. If the file could not be sent at once the rest is sent when the channel is writable.
+	 * 
+	 * @return the number of bytes that were written (initial line and headers included) by this invocation
 	 */
 	public long write(File file) {
-		//setHeader("Etag", HttpUtil.getEtag(file));
-		setHeader("Content-Length", String.valueOf(file.length()));
-		long bytesWritten = 0;
-		flush(); // write initial line + headers
-		
-		RandomAccessFile raf = null;
-		try {
-			raf = new RandomAccessFile(file, "r");
-			FileChannel fc = raf.getChannel();
-			MappedByteBuffer mbb = raf.getChannel().map(MapMode.READ_ONLY, 0L, fc.size());
-
-			if (mbb.hasRemaining()) {
-				bytesWritten = ((SocketChannel) key.channel()).write(mbb);
-				logger.debug("sent file, bytes sent: {}", bytesWritten);
+		return transfer(file, null);
+	}
+	
+	/**
+	 * Sends the given ranges of the file as the body of a "206 Partial Content" response, see 
+	 * {@link #write(File)}. A single range is sent with a "Content-Range" header, several ranges as a 
+	 * "multipart/byteranges" body (the parts have the "Content-Type" of the response).
+	 * 
+	 * @param ranges satisfiable ranges of the file, see {@link ByteRange#parse(String, long)}
+	 * @return the number of bytes that were written (initial line and headers included) by this invocation
+	 */
+	public long write(File file, List<ByteRange> ranges) {
+		return transfer(file, ranges);
+	}
+	
+	/**
+	 * Writes the given ranges of the content as the body of a "206 Partial Content" response, see 
+	 * {@link #write(File, List)}. The content is not copied (see {@link #write(ByteBuffer)}).
+	 * 
+	 * @param ranges satisfiable ranges of the content, see {@link ByteRange#parse(String, long)}
+	 * @return this for chaining purposes.
+	 */
+	public HttpResponse write(ByteBuffer content, List<ByteRange> ranges) {
+		ByteBuffer[] delimiters = prepareRanges(ranges, content.remaining());
+		int base = content.position();
+		for (int i = 0; i < ranges.size(); i++) {
+			if (delimiters != null) {
+				write(delimiters[i]);
 			}
-			if (mbb.hasRemaining()) {
-				try {
-					key.channel().register(key.selector(), SelectionKey.OP_WRITE); //TODO RS 110621, use IOLoop.updateHandler
-				} catch (ClosedChannelException e) {
-					logger.error("ClosedChannelException during write(File): {}", e.getMessage());
-					Closeables.closeQuietly(key.channel());
-				}
-				key.attach(mbb);
+			ByteBuffer part = content.duplicate();
+			part.limit(base + (int) ranges.get(i).last + 1);
+			part.position(base + (int) ranges.get(i).first);
+			write(part);
+		}
+		if (delimiters != null) {
+			write(delimiters[ranges.size()]);
+		}
+		return this;
+	}
+	
+	/**
+	 * Sets the status code and the headers of a partial response.
+	 * 
+	 * @return null for a single range, otherwise the delimiters of the multipart/byteranges body (one before each 
+	 * part plus the closing delimiter)
+	 */
+	private ByteBuffer[] prepareRanges(List<ByteRange> ranges, long length) {
+		statusCode = 206;
+		etag = null;	// a hash of the parts would not identify the representation, the Etag has to be declared
+		compressionEnabled = false;
+		if (ranges.size() == 1) {
+			setHeader("Content-Range", ranges.get(0).toContentRange(length));
+			return null;
+		}
+		String contentType = getHeader("Content-Type");
+		String boundary =
+			"DEFT" + Long.toHexString(System.nanoTime()) + "-" + Long.toHexString(boundaries.incrementAndGet());
+		setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+		ByteBuffer[] delimiters = new ByteBuffer[ranges.size() + 1];
+		for (int i = 0; i < ranges.size(); i++) {
+			StringBuilder delimiter = new StringBuilder(128);
+			delimiter.append(i == 0 ? "--" : "\r\n--").append(boundary).append("\r\n");
+			if (contentType != null) {
+				delimiter.append("Content-Type: ").append(contentType).append("\r\n");
 			}
+			delimiter.append("Content-Range: ").append(ranges.get(i).toContentRange(length)).append("\r\n\r\n");
+			delimiters[i] = ByteBuffer.wrap(delimiter.toString().getBytes(Charsets.US_ASCII));
+		}
+		delimiters[ranges.size()] = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(Charsets.US_ASCII));
+		return delimiters;
+	}
+	
+	/* sends the whole file (ranges == null) or the given ranges of it */
+	private long transfer(File file, List<ByteRange> ranges) {
+		FileChannelCache cache = protocol.getFileChannelCache();
+		FileChannelCache.Entry entry;
+		try {
+			entry = cache.acquire(file);
 		} catch (IOException e) {
-			logger.error("Error writing (static file) response: {}", e.getMessage());
-		} finally {
-			if (raf != null) {
-				try {
-					raf.close();
-				} catch (IOException e) {
-					logger.error("Error closing static file: ", e.getMessage());					
-				}
+			logger.error("Could not open static file: {}", e.getMessage());
+			Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
+			return 0;
+		}
+		long[] positions = { 0 };
+		long[] counts = { entry.length };
+		ByteBuffer[] delimiters = null;
+		long contentLength = entry.length;
+		if (ranges != null) {
+			delimiters = prepareRanges(ranges, entry.length);
+			positions = new long[ranges.size()];
+			counts = new long[ranges.size()];
+			contentLength = 0;
+			for (int i = 0; i < ranges.size(); i++) {
+				positions[i] = ranges.get(i).first;
+				counts[i] = ranges.get(i).length();
+				contentLength += counts[i] + (delimiters == null ? 0 : delimiters[i].remaining());
 			}
+			contentLength += delimiters == null ? 0 : delimiters[ranges.size()].remaining();
+		}
+		setHeader("Content-Length", String.valueOf(contentLength));
+		createHeaders();
+		
+		FileRegion region = new FileRegion(responseData, cache, entry, positions, counts, delimiters);
+		long bytesWritten = 0;
+		try {
+			bytesWritten = region.transferTo((SocketChannel) key.channel(), MAX_WRITE_BYTES_PER_EVENT);
+			protocol.recordWrite(bytesWritten, region.hasRemaining());
+			logger.debug("sent file, bytes sent: {}", bytesWritten);
+		} catch (IOException e) {
+			logger.error("Error writing (static file) response: {}", e.getMessage());
+			region.close();
+			Closeables.closeQuietly(protocol.getIOLoop(), key.channel());
+			return bytesWritten;
+		}
+		if (region.hasRemaining()) {
+			httpConnection.setInterestOps(SelectionKey.OP_WRITE | httpConnection.bodyReadInterest());
+			httpConnection.pending = region;
+		} else {
+			region.close();
 		}
-
 		return bytesWritten;
 	}
 	
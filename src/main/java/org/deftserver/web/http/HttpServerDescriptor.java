@@ -1,5 +1,7 @@
 package org.deftserver.web.http;
 
+import org.deftserver.web.http.etag.EtagStrategy;
+
 /**
  * This class provides a possiblity to change the tunables used by Deft for the http server configuration.
  * Do not change the values unless you know what you are doing.
@@ -10,7 +12,8 @@ public class HttpServerDescriptor {
 	public static int KEEP_ALIVE_TIMEOUT = 30 * 1000;	// 30s
 	
 	/**
-	 * Size of the read (receive) buffer.
+	 * Initial (and min) size of the read (receive) buffer of a connection. The buffer grows and shrinks with the size
+	 * of the connection's recent reads (see {@link org.deftserver.io.buffer.ReceiveBufferPredictor}).
 	 * "Ideally, an HTTP request should not go beyond 1 packet. 
 	 * The most widely used networks limit packets to approximately 1500 bytes, so if you can constrain each request 
 	 * to fewer than 1500 bytes, you can reduce the overhead of the request stream." (from: http://bit.ly/bkksUu)
@@ -18,8 +21,77 @@ public class HttpServerDescriptor {
 	public static int READ_BUFFER_SIZE = 1024;	// 1024 bytes
 	
 	/**
-	 * Size of the write (send) buffer.
+	 * Max size of the read buffer predicted from the recent reads of a connection. (An incomplete header section 
+	 * might grow the buffer beyond this size, up to {@link #MAX_HEADER_SIZE}.)
+	 */
+	public static int MAX_READ_BUFFER_SIZE = 64 * 1024;	// 64 kB
+	
+	/**
+	 * Max number of bytes read from a connection per read event. The reads continue until the socket has no more data 
+	 * or this budget is spent, i.e. one busy connection can not keep the io loop from serving the others.
+	 */
+	public static int MAX_READ_BYTES_PER_EVENT = 64 * 1024;	// 64 kB
+	
+	/**
+	 * Max size of the request line and headers. Requests with a larger header section are considered malformed.
+	 */
+	public static int MAX_HEADER_SIZE = 64 * 1024;	// 64 kB
+	
+	/**
+	 * Max size of a request body that is buffered before the request handler is invoked. Requests with a larger body
+	 * are answered with "413 Request Entity Too Large". Bodies that are streamed to the request handler (see 
+	 * {@link org.deftserver.web.StreamingBody}) are not limited.
+	 */
+	public static int MAX_BODY_SIZE = 16 * 1024 * 1024;	// 16 MB
+	
+	/**
+	 * Size of the segments of the write (send) buffer.
+	 */
+	public static int WRITE_BUFFER_SIZE = 4 * 1024;	// 4 kB
+	
+	/**
+	 * Max number of bytes written to a connection per write event (i.e. per io loop iteration). The rest is written
+	 * during the next iteration, i.e. one large response can not keep the io loop from serving the others.
+	 */
+	public static int MAX_WRITE_BYTES_PER_EVENT = 256 * 1024;	// 256 kB
+	
+	/**
+	 * Max amount of response data that is buffered (written or flushed by the request handler but not yet sent to the
+	 * client) before {@link HttpResponse#isWritable()} returns false. Streaming (asynchronous) request handlers should
+	 * stop writing and wait for {@link HttpResponse#whenWritable(org.deftserver.web.AsyncCallback)}, which is invoked 
+	 * when the buffered data has drained to half of this value.
+	 */
+	public static int WRITE_HIGH_WATER_MARK = 64 * 1024;	// 64 kB
+	
+	/**
+	 * Max number of (static) files that are kept open (per io loop) to be sent with sendfile.
+	 */
+	public static int MAX_OPEN_FILES = 256;
+	
+	/**
+	 * Max total size of the static files that are cached in memory.
+	 */
+	public static int STATIC_FILE_CACHE_SIZE = 32 * 1024 * 1024;	// 32 MB
+	
+	/**
+	 * Max size of a static file that is cached in memory (larger files are sent from disk).
+	 */
+	public static int MAX_CACHED_FILE_SIZE = 256 * 1024;	// 256 kB
+	
+	/**
+	 * How often (at most) a cached static file is checked for modifications (ms).
+	 */
+	public static int STATIC_FILE_CHECK_INTERVAL = 1000;	// 1 s
+	
+	/**
+	 * How the "Etag" header of dynamic responses (that are not explicitly flushed) is calculated.
+	 */
+	public static EtagStrategy ETAG_STRATEGY = EtagStrategy.WEAK;
+	
+	/**
+	 * Min size of a dynamic response body that is compressed (see {@link HttpResponse#enableCompression()}). 
+	 * Smaller bodies are sent as is (unless explicitly flushed).
 	 */
-	public static int WRITE_BUFFER_SIZE = 1024;	// 1024 bytes
+	public static int MIN_COMPRESSION_SIZE = 1024;	// 1 kB
 
 }
@@ -0,0 +1,79 @@
+package org.deftserver.web.http;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+
+/**
+ * An immutable {@code Map} of the headers of an {@link HttpRequest} that is backed by the raw request bytes.
+ * <p>
+ * Header names and values are kept as offsets into the read buffer. {@link #get(Object)} compares the requested 
+ * (lower case) name directly against the lower cased bytes and only the matching value is turned into a 
+ * {@code String}. Every other {@code Map} operation will materialize all headers (lower cased names) into a regular 
+ * {@code HashMap} once.
+ * <p>
+ * The read buffer must not be reused before {@link #materialize()} has been invoked if the map is expected to outlive
+ * the current read.
+ */
+class LazyHeaderMap extends AbstractMap<String, String> {
+
+	private ByteBuffer buffer;
+	private final int[] offsets;
+	private final int count;
+
+	private Map<String, String> materialized;
+
+	LazyHeaderMap(ByteBuffer buffer, int[] offsets, int count) {
+		this.buffer = buffer;
+		this.offsets = offsets;
+		this.count = count;
+	}
+
+	@Override
+	public String get(Object key) {
+		if (materialized != null) {
+			return materialized.get(key);
+		}
+		if (!(key instanceof String)) {
+			return null;
+		}
+		String name = (String) key;
+		for (int i = 4 * (count - 1); i >= 0; i -= 4) {	// last header wins (like the Map.put semantics)
+			if (offsets[i + 1] - offsets[i] == name.length() &&
+					HttpRequestParser.regionMatches(buffer, offsets[i], name, true)) {
+				return HttpRequestParser.decode(buffer, offsets[i + 2], offsets[i + 3]);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return materialize().entrySet();
+	}
+
+	/**
+	 * Decodes all headers and releases the reference to the underlying buffer.
+	 */
+	Map<String, String> materialize() {
+		if (materialized == null) {
+			Map<String, String> map = Maps.newHashMapWithExpectedSize(count);
+			for (int i = 0; i < 4 * count; i += 4) {
+				String name = HttpRequestParser.decode(buffer, offsets[i], offsets[i + 1]).toLowerCase();
+				map.put(name, HttpRequestParser.decode(buffer, offsets[i + 2], offsets[i + 3]));
+			}
+			materialized = map;
+			buffer = null;
+		}
+		return materialized;
+	}
+
+}
@@ -1,38 +1,238 @@
 package org.deftserver.web.http;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
 import java.util.Map;
 
+import org.deftserver.io.IOLoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
 
 /**
- * Represents an unfinished "dummy" HTTP request, e.g, an HTTP POST request where the entire payload hasn't been 
- * received.
+ * Represents an unfinished "dummy" HTTP request, e.g, an HTTP POST request where the entire payload hasn't been
+ * received, or a request where not even the request line and all headers have been received.
  * (E.g. because the size of the underlying (OS) socket's read buffer has a fixed size.)
- * 
+ * <p>
+ * Once the headers are received the body is either buffered (as bytes, the buffer grows with the received data)
+ * until it is complete, or streamed to a {@link BodyListener}. A body with "Transfer-Encoding: chunked" is decoded
+ * as it arrives (the trailer headers are added to the headers of the request).
  */
 
 public class PartialHttpRequest extends HttpRequest {
-	
+
 	private final String requestLine;
-	private String unfinishedBody;
+
+	/* The parser that will continue with the header section (null if all headers are received). */
+	private final HttpRequestParser parser;
+
+	/* the request that is received (null until the headers are complete) */
+	private final HttpRequest request;
+	private final long contentLength;	// -1 if the body is chunked
+	private long received = 0;
+	
+	/* decodes a chunked body (null unless the body is chunked) */
+	private final ChunkedBodyDecoder chunked;
+
+	/* the body received so far (unless streamed) */
+	private byte[] body = new byte[0];
+
+	/* the io loop and connection of a streamed body (flow control) */
+	private IOLoop ioLoop;
+	private HttpConnection connection;
+	private boolean paused = false;
 
 	public PartialHttpRequest(String requestLine, Map<String, String> generalHeaders, String body) {
 		super("POST <> Unfinished request\r\n", generalHeaders);
 		this.requestLine = requestLine;
-		this.unfinishedBody = body;
+		this.parser = null;
+		this.request = new HttpRequest(requestLine, generalHeaders);
+		byte[] bytes = body.getBytes(Charsets.ISO_8859_1);
+		String contentLength = request.getHeader("Content-Length");
+		this.contentLength = contentLength == null ? bytes.length : Long.parseLong(contentLength);
+		this.chunked = null;
+		append(ByteBuffer.wrap(bytes));
 	}
 
+	PartialHttpRequest(HttpRequestParser parser) {
+		super("POST <> Unfinished request\r\n", Maps.<String, String>newHashMap());
+		this.requestLine = null;
+		this.parser = parser;
+		this.request = null;
+		this.contentLength = 0;
+		this.chunked = null;
+	}
+
+	/**
+	 * @param request the request (all headers received) whose body is received
+	 * @param contentLength the length of the body, -1 if the body is chunked
+	 */
+	PartialHttpRequest(HttpRequest request, long contentLength) {
+		super("POST <> Unfinished request\r\n", request.getHeaders());
+		this.requestLine = request.getRequestLine();
+		this.parser = null;
+		this.request = request;
+		this.contentLength = contentLength;
+		this.chunked = contentLength == -1 ? new ChunkedBodyDecoder() : null;
+	}
+
+	/**
+	 * @deprecated the body is no longer buffered as a {@code String}
+	 */
+	@Deprecated
 	public void appendBody(String nextChunk) {
-		unfinishedBody += nextChunk;
+		append(ByteBuffer.wrap(nextChunk.getBytes(Charsets.ISO_8859_1)));
 	}
-	
+
+	/**
+	 * @return the (ISO-8859-1 decoded) part of the body that is received so far, null if the body is streamed.
+	 */
 	@Override
 	public String getBody() {
-		return unfinishedBody;
+		return body == null ? null : new String(body, 0, (int) received, Charsets.ISO_8859_1);
 	}
-	
+
 	@Override
 	public String getRequestLine() {
 		return requestLine;
 	}
+
+	/**
+	 * @return true if the request line and all headers are received (i.e. only parts of the body is missing).
+	 */
+	public boolean isHeaderComplete() {
+		return parser == null;
+	}
+
+	HttpRequestParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * @return the request whose body is received (null unless the headers are complete)
+	 */
+	HttpRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return the declared length of the body, -1 if the body is chunked
+	 */
+	long getContentLength() {
+		return contentLength;
+	}
+	
+	/**
+	 * @return the number of body bytes received so far (decoded if the body is chunked)
+	 */
+	long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Consumes (buffers or streams) the remaining bytes of the given buffer, at most the bytes that belong to the 
+	 * body.
+	 */
+	void append(ByteBuffer buffer) {
+		if (chunked == null) {
+			append(buffer, (int) Math.min(buffer.remaining(), contentLength - received));
+			return;
+		}
+		ByteBuffer data;
+		while ((data = chunked.next(buffer)) != null) {
+			append(data, data.remaining());
+		}
+	}
 	
+	private void append(ByteBuffer buffer, int length) {
+		if (length <= 0) {
+			return;
+		}
+		if (body == null) {
+			ByteBuffer chunk = buffer.asReadOnlyBuffer();
+			chunk.limit(chunk.position() + length);
+			received += length;
+			request.getBodyListener().onBodyChunk(chunk);
+		} else {
+			if (received + length > body.length) {	// grows with the received data, not with the declared length
+				long capacity = Math.max(received + length, Math.max(1024, 2L * body.length));
+				body = Arrays.copyOf(body, (int) (chunked == null ? Math.min(capacity, contentLength) : capacity));
+			}
+			buffer.duplicate().get(body, (int) received, length);
+			received += length;
+		}
+		buffer.position(buffer.position() + length);
+	}
+
+	boolean isComplete() {
+		return chunked == null ? received >= contentLength : chunked.isDone();
+	}
+	
+	/**
+	 * @return true if the chunked encoding of the body is malformed
+	 */
+	boolean isMalformed() {
+		return chunked != null && chunked.isMalformed();
+	}
+
+	/**
+	 * Streams the body to the listener of the request. The part of the body that is already received is delivered
+	 * immediately.
+	 */
+	void stream(IOLoop ioLoop, HttpConnection connection) {
+		this.ioLoop = ioLoop;
+		this.connection = connection;
+		byte[] buffered = body;
+		int length = (int) received;
+		body = null;
+		request.setBodyStream(this);
+		if (length > 0) {
+			request.getBodyListener().onBodyChunk(ByteBuffer.wrap(buffered, 0, length).asReadOnlyBuffer());
+		}
+	}
+
+	boolean isStreaming() {
+		return body == null;
+	}
+
+	/**
+	 * @return the received request, the body is attached (or the listener is notified that the body is complete).
+	 */
+	HttpRequest complete() {
+		if (chunked != null) {
+			request.addTrailers(chunked.getTrailers());
+		}
+		if (body == null) {
+			request.setBodyStream(null);
+			request.getBodyListener().onBodyComplete();
+		} else {
+			request.setBody(body, (int) received);
+		}
+		return request;
+	}
+
+	boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Stops (or resumes) reading from the channel. Thread safe, the interest set is updated by the io loop thread.
+	 * Only {@code OP_READ} is toggled, a response might be written (OP_WRITE) while the body is received.
+	 */
+	void setPaused(final boolean pause) {
+		if (!ioLoop.isIOLoopThread()) {
+			ioLoop.execute(new Runnable() { @Override public void run() { setPaused(pause); } });
+			return;
+		}
+		SelectionKey key = connection.getKey();
+		if (paused == pause || isComplete() || key == null || !key.isValid()) {
+			return;	// the connection is closed (or the body received completely already)
+		}
+		paused = pause;
+		int ops = key.interestOps();
+		connection.setInterestOps(pause ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ);
+	}
+
 }
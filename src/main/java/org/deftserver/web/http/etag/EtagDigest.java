@@ -0,0 +1,21 @@
+package org.deftserver.web.http.etag;
+
+/**
+ * Calculates the Etag of a response body incrementally, i.e. the body is hashed as it is written (and only the 
+ * written bytes are hashed).
+ * 
+ * @see EtagStrategy
+ */
+public interface EtagDigest {
+
+	/**
+	 * Hashes {@code length} bytes from {@code src} (starting at {@code offset}).
+	 */
+	void update(byte[] src, int offset, int length);
+	
+	/**
+	 * @return the (quoted) value of the Etag header for all bytes that have been hashed.
+	 */
+	String getEtag();
+
+}
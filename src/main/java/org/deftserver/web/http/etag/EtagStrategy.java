@@ -0,0 +1,32 @@
+package org.deftserver.web.http.etag;
+
+/**
+ * How the "Etag" header of (non streamed) dynamic responses is calculated. 
+ * See {@link org.deftserver.web.http.HttpServerDescriptor#ETAG_STRATEGY}.
+ */
+public enum EtagStrategy {
+
+	/** No Etag header is added. */
+	NONE {
+		@Override public EtagDigest newDigest() { return null; }
+	},
+	
+	/** 
+	 * Weak Etag ({@code W/"<length>-<hash>"}) from a 32 bit MurmurHash3 of the body, fast but not collision resistant
+	 * (which is why the body length is part of the Etag).
+	 */
+	WEAK {
+		@Override public EtagDigest newDigest() { return new WeakEtagDigest(); }
+	},
+	
+	/** Strong Etag ({@code "<md5>"}) from a MD5 hash of the body. */
+	MD5 {
+		@Override public EtagDigest newDigest() { return new Md5EtagDigest(); }
+	};
+	
+	/**
+	 * @return a new {@code EtagDigest} (one per response), or null if no Etag should be added.
+	 */
+	public abstract EtagDigest newDigest();
+
+}
@@ -0,0 +1,26 @@
+package org.deftserver.web.http.etag;
+
+class Hex {
+
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * Writes the {@code digits} least significant hex digits of {@code value} to {@code dst}.
+	 * @return the index in {@code dst} after the last written digit
+	 */
+	static int encode(long value, int digits, char[] dst, int offset) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			dst[i] = DIGITS[(int) value & 0xf];
+			value >>>= 4;
+		}
+		return offset + digits;
+	}
+	
+	/**
+	 * @return the number of hex digits needed to represent {@code value} (at least one)
+	 */
+	static int digits(long value) {
+		return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+	}
+	
+}
@@ -0,0 +1,36 @@
+package org.deftserver.web.http.etag;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+class Md5EtagDigest implements EtagDigest {
+
+	private final MessageDigest md;
+	
+	Md5EtagDigest() {
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 cryptographic algorithm is not available.", e);
+		}
+	}
+	
+	@Override
+	public void update(byte[] src, int offset, int length) {
+		md.update(src, offset, length);
+	}
+
+	@Override
+	public String getEtag() {
+		byte[] digest = md.digest();
+		char[] etag = new char[2 * digest.length + 2];
+		etag[0] = '"';
+		int index = 1;
+		for (byte b : digest) {
+			index = Hex.encode(b, 2, etag, index);
+		}
+		etag[index] = '"';
+		return new String(etag);
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.deftserver.web.http.etag;
+
+/**
+ * Incremental (streaming) 32 bit MurmurHash3 (x86 variant, seed 0).
+ */
+class WeakEtagDigest implements EtagDigest {
+
+	private static final int C1 = 0xcc9e2d51;
+	private static final int C2 = 0x1b873593;
+	
+	private int h1 = 0;
+	
+	/* bytes (< 4, little endian) that are not yet mixed into h1 */
+	private int tail = 0;
+	private int tailLength = 0;
+	
+	private long length = 0;
+	
+	@Override
+	public void update(byte[] src, int offset, int length) {
+		this.length += length;
+		int i = offset;
+		int end = offset + length;
+		while (tailLength != 0 && i < end) {	// complete the pending block
+			tail |= (src[i++] & 0xff) << (8 * tailLength);
+			if (++tailLength == 4) {
+				mix(tail);
+				tail = tailLength = 0;
+			}
+		}
+		for (; i + 4 <= end; i += 4) {
+			mix((src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | src[i + 3] << 24);
+		}
+		for (; i < end; i++) {
+			tail |= (src[i] & 0xff) << (8 * tailLength++);
+		}
+	}
+	
+	private void mix(int k1) {
+		k1 *= C1;
+		k1 = Integer.rotateLeft(k1, 15);
+		k1 *= C2;
+		h1 ^= k1;
+		h1 = Integer.rotateLeft(h1, 13);
+		h1 = h1 * 5 + 0xe6546b64;
+	}
+	
+	/**
+	 * @return the hash of all bytes that have been hashed (does not modify the state of this digest)
+	 */
+	int hash() {
+		int h = h1;
+		if (tailLength > 0) {
+			int k1 = tail * C1;
+			k1 = Integer.rotateLeft(k1, 15);
+			h ^= k1 * C2;
+		}
+		h ^= (int) length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	@Override
+	public String getEtag() {
+		int lengthDigits = Hex.digits(length);
+		char[] etag = new char[3 + lengthDigits + 1 + 8 + 1];	// W/"<length>-<hash>"
+		etag[0] = 'W';
+		etag[1] = '/';
+		etag[2] = '"';
+		int index = Hex.encode(length, lengthDigits, etag, 3);
+		etag[index++] = '-';
+		index = Hex.encode(hash() & 0xffffffffL, 8, etag, index);
+		etag[index] = '"';
+		return new String(etag);
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.deftserver.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.deftserver.io.timeout.Timeout;
+import org.deftserver.io.transport.TransportProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IOLoopTest {
+
+	private final IOLoop ioLoop = new IOLoop();
+	
+	@Before
+	public void setup() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		new Thread(new Runnable() {
+
+			@Override public void run() { ioLoop.start(); }
+		
+		}).start();
+		ioLoop.execute(new Runnable() { @Override public void run() { started.countDown(); }});
+		started.await(5, TimeUnit.SECONDS);
+	}
+	
+	@After
+	public void tearDown() {
+		ioLoop.stop();
+		ioLoop.wakeup();
+	}
+	
+	@Test
+	public void executeFromAnotherThreadWakesUpIOLoop() throws InterruptedException {
+		Thread.sleep(50);	// let the io loop block in select
+		final CountDownLatch latch = new CountDownLatch(100);
+		final boolean[] onIOLoopThread = { true };
+		long start = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+			ioLoop.execute(new Runnable() {
+				@Override public void run() {
+					onIOLoopThread[0] &= ioLoop.isIOLoopThread();
+					latch.countDown(); 
+				}
+			});
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		// well below the 250 ms select timeout
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+		assertTrue(onIOLoopThread[0]);
+	}
+	
+	@Test
+	public void slowCallbacksAreCountedAsIOStarvation() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		ioLoop.execute(new Runnable() {
+			@Override public void run() {
+				try {
+					Thread.sleep(ioLoop.getStarvationThreshold() + 10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		ioLoop.execute(new Runnable() { @Override public void run() { latch.countDown(); }});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		// the starvation is counted after the callbacks of the iteration are executed
+		long deadline = System.currentTimeMillis() + 5000;
+		while (ioLoop.getIOStarvations() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(ioLoop.getIOStarvations() >= 1);
+	}
+	
+	@Test
+	public void transport() {
+		assertEquals(TransportProvider.provider().getName(), ioLoop.getTransport());
+		assertEquals("nio", new IOLoop(TransportProvider.NIO).getTransport());
+	}
+	
+	@Test
+	public void everyIOLoopRegistersItsMXBeans() throws Exception {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		for (String type : new String[] { "IOLoop", "TimeoutManager", "CallbackManager", "ByteBufferPool" }) {
+			ObjectName pattern = new ObjectName("org.deftserver:type=" + type + ",*");
+			int registered = mbs.queryNames(pattern, null).size();
+			new IOLoop(TransportProvider.NIO);
+			new IOLoop(TransportProvider.NIO);
+			assertEquals(type, registered + 2, mbs.queryNames(pattern, null).size());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidIORatio() {
+		ioLoop.setIORatio(0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidStarvationThreshold() {
+		ioLoop.setStarvationThreshold(0);
+	}
+	
+	@Test
+	public void scheduleFromAnotherThread() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final int[] cancelledExecuted = { 0 };
+		Timeout cancelled = ioLoop.schedule(new Runnable() {
+			@Override public void run() { cancelledExecuted[0]++; }
+		}, 10, TimeUnit.MILLISECONDS);
+		cancelled.cancel();
+		ioLoop.schedule(new Runnable() {
+			@Override public void run() { latch.countDown(); }
+		}, 20, TimeUnit.MILLISECONDS);
+		
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, cancelledExecuted[0]);
+	}
+	
+}
@@ -0,0 +1,117 @@
+package org.deftserver.io.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+	private final ByteBufferPool pool = new ByteBufferPool();
+	
+	@Test
+	public void sizeClasses() {
+		ByteBuffer b1 = pool.acquire(10);
+		ByteBuffer b2 = pool.acquire(1025);
+		ByteBuffer b3 = pool.acquire(128 * 1024);
+		
+		assertTrue(b1.isDirect());
+		assertEquals(1024, b1.capacity());
+		assertEquals(4 * 1024, b2.capacity());
+		assertEquals(128 * 1024, b3.capacity());	// larger than the largest size class (unpooled)
+		assertEquals(3, pool.getNumberOfLeasedBuffers());
+		assertEquals(3, pool.getMisses());
+		
+		assertTrue(pool.release(b1));
+		assertTrue(pool.release(b2));
+		assertTrue(pool.release(b3));
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+		assertEquals(2, pool.getNumberOfPooledBuffers());
+		assertEquals(5 * 1024, pool.getPooledBytes());
+	}
+	
+	@Test
+	public void capacityFor() {
+		assertEquals(1024, pool.capacityFor(10));
+		assertEquals(4 * 1024, pool.capacityFor(1025));
+		assertEquals(64 * 1024, pool.capacityFor(64 * 1024));
+		assertEquals(128 * 1024, pool.capacityFor(128 * 1024));
+		assertEquals(pool.capacityFor(2048), pool.acquire(2048).capacity());
+	}
+	
+	@Test
+	public void reuse() {
+		ByteBuffer b1 = pool.acquire(1024);
+		b1.put((byte) 1);
+		pool.release(b1);
+		
+		ByteBuffer b2 = pool.acquire(512);
+		assertSame(b1, b2);
+		assertEquals(0, b2.position());
+		assertEquals(b2.capacity(), b2.limit());
+		assertEquals(1, pool.getHits());
+		assertNotSame(b2, pool.acquire(512));
+	}
+	
+	@Test
+	public void releaseOfReadOnlyOrHeapBuffer() {
+		ByteBuffer buffer = pool.acquire(1024);
+		assertFalse(pool.release(buffer.asReadOnlyBuffer()));
+		assertFalse(pool.release(ByteBuffer.allocate(1024)));
+		assertEquals(1, pool.getNumberOfLeasedBuffers());
+		assertEquals(0, pool.getNumberOfPooledBuffers());
+	}
+	
+	@Test
+	public void releaseOfUnknownBuffer() {
+		ByteBufferPool pool = new ByteBufferPool(1);	// every buffer is tracked
+		assertFalse(pool.release(ByteBuffer.allocateDirect(1024)));
+		ByteBuffer buffer = pool.acquire(1024);
+		assertTrue(pool.release(buffer));
+		assertFalse(pool.release(buffer));	// released twice
+		assertEquals(1, pool.getNumberOfPooledBuffers());
+	}
+	
+	@Test
+	public void releaseLater() {
+		ByteBuffer buffer = pool.acquire(1024);
+		pool.releaseLater(buffer);
+		assertEquals(1, pool.getNumberOfLeasedBuffers());
+		pool.releaseDeferred();
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+		assertEquals(1, pool.getNumberOfPooledBuffers());
+	}
+	
+	@Test
+	public void leakDetection() throws InterruptedException {
+		ByteBufferPool pool = new ByteBufferPool(2);	// every second buffer is tracked
+		pool.acquire(1024);	// never released (not tracked)
+		pool.acquire(1024);	// never released
+		for (int i = 0; i < 50 && pool.getLeaks() == 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			pool.release(pool.acquire(1024));	// leaks are detected when a buffer is tracked
+			pool.release(pool.acquire(1024));
+		}
+		assertEquals(1, pool.getLeaks());
+		assertEquals(1, pool.getNumberOfLeasedBuffers());
+	}
+	
+	@Test
+	public void leakDetectionDisabled() throws InterruptedException {
+		pool.acquire(1024);	// never released
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(10);
+			pool.release(pool.acquire(1024));
+		}
+		assertEquals(0, pool.getLeaks());
+		assertEquals(1, pool.getNumberOfLeasedBuffers());
+	}
+	
+}
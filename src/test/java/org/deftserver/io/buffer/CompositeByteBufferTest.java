@@ -0,0 +1,188 @@
+package org.deftserver.io.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class CompositeByteBufferTest {
+
+	private final ByteBufferPool pool = new ByteBufferPool();
+	private final CompositeByteBuffer cbb = new CompositeByteBuffer(pool, 1024);
+	
+	@Test
+	public void putAndWrite() throws IOException {
+		byte[] body = body(2500);
+		cbb.put(body);
+		assertEquals(2500, cbb.remaining());
+		assertEquals(3, pool.getNumberOfLeasedBuffers());	// 3 segments
+		
+		MockChannel channel = new MockChannel(Integer.MAX_VALUE);
+		assertEquals(2500, cbb.writeTo(channel));
+		assertFalse(cbb.hasRemaining());
+		assertEquals(new String(body, Charsets.ISO_8859_1), channel.toString());
+		assertEquals(1, pool.getNumberOfLeasedBuffers());	// the last segment is kept for reuse
+		
+		cbb.release();
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+	}
+	
+	@Test
+	public void prependAndPartialWrites() throws IOException {
+		byte[] body = body(3000);
+		cbb.put(ByteBuffer.wrap(body));
+		cbb.prepend(ByteBuffer.wrap("HTTP/1.1 200 OK\r\n\r\n".getBytes()));
+		assertEquals(3019, cbb.remaining());
+		assertEquals(19, cbb.nioBuffers()[0].remaining());	// the prepended buffer is a segment of its own
+		
+		MockChannel channel = new MockChannel(1000);
+		while (cbb.hasRemaining()) {
+			assertTrue(cbb.writeTo(channel) > 0);
+		}
+		assertEquals("HTTP/1.1 200 OK\r\n\r\n" + new String(body, Charsets.ISO_8859_1), channel.toString());
+		
+		cbb.put("more".getBytes());
+		assertEquals(4, cbb.remaining());
+		cbb.writeTo(channel);
+		assertTrue(channel.toString().endsWith("more"));
+	}
+	
+	@Test
+	public void writeAtMostMaxBytes() throws IOException {
+		byte[] body = body(2500);
+		cbb.put(body);
+		MockChannel channel = new MockChannel(Integer.MAX_VALUE);
+		assertEquals(1500, cbb.writeTo(channel, 1500));	// cuts the second segment
+		assertEquals(1000, cbb.remaining());
+		assertEquals(2, pool.getNumberOfLeasedBuffers());	// the first segment is released
+		assertEquals(1000, cbb.writeTo(channel, 1500));
+		assertFalse(cbb.hasRemaining());
+		assertEquals(new String(body, Charsets.ISO_8859_1), channel.toString());
+		
+		cbb.put("more".getBytes());	// the limit of the tail is restored
+		assertEquals(2, cbb.writeTo(channel, 2));
+		assertEquals(2, cbb.writeTo(channel, 2));
+		assertTrue(channel.toString().endsWith("more"));
+		cbb.release();
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+	}
+	
+	@Test
+	public void appendWithoutCopy() throws IOException {
+		ByteBuffer shared = ByteBuffer.wrap("shared".getBytes()).asReadOnlyBuffer();
+		cbb.put("a".getBytes());
+		cbb.append(shared.duplicate());
+		cbb.put("b".getBytes());
+		assertEquals(8, cbb.remaining());
+		assertEquals(3, cbb.nioBuffers().length);	// the appended buffer is a segment of its own
+		
+		MockChannel channel = new MockChannel(Integer.MAX_VALUE);
+		assertEquals(8, cbb.writeTo(channel));
+		assertEquals("asharedb", channel.toString());
+		assertEquals(6, shared.remaining());	// only the duplicate was consumed
+		cbb.release();
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+	}
+	
+	@Test
+	public void appendCompositeByteBuffer() throws IOException {
+		CompositeByteBuffer chunk = new CompositeByteBuffer(pool, 1024);
+		chunk.put(body(1500));
+		cbb.put("5dc\r\n".getBytes());
+		cbb.append(chunk);
+		cbb.put("\r\n".getBytes());
+		assertEquals(0, chunk.remaining());
+		assertEquals(1507, cbb.remaining());
+		assertEquals(4, cbb.nioBuffers().length);	// the segments of the chunk are moved as is
+		
+		MockChannel channel = new MockChannel(Integer.MAX_VALUE);
+		assertEquals(1507, cbb.writeTo(channel));
+		assertEquals("5dc\r\n" + new String(body(1500), Charsets.ISO_8859_1) + "\r\n", channel.toString());
+		cbb.release();
+		chunk.release();
+		assertEquals(0, pool.getNumberOfLeasedBuffers());
+	}
+	
+	@Test
+	public void nioBuffersDoesNotModifyState() throws IOException {
+		cbb.put(body(1500));
+		ByteBuffer[] buffers = cbb.nioBuffers();
+		assertEquals(2, buffers.length);
+		assertEquals(1024, buffers[0].remaining());
+		assertEquals(476, buffers[1].remaining());
+		buffers[0].position(buffers[0].limit());
+		assertEquals(1500, cbb.remaining());
+		assertEquals(1500, cbb.writeTo(new MockChannel(Integer.MAX_VALUE)));
+	}
+	
+	private static byte[] body(int length) {
+		byte[] body = new byte[length];
+		for (int i = 0; i < length; i++) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		return body;
+	}
+	
+	/**
+	 * Accepts at most {@code maxBytesPerWrite} bytes per write.
+	 */
+	private static class MockChannel implements GatheringByteChannel {
+
+		private final int maxBytesPerWrite;
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		
+		MockChannel(int maxBytesPerWrite) {
+			this.maxBytesPerWrite = maxBytesPerWrite;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) {
+			int n = Math.min(src.remaining(), maxBytesPerWrite);
+			for (int i = 0; i < n; i++) {
+				written.write(src.get());
+			}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			long total = 0;
+			for (int i = offset; i < offset + length && total < maxBytesPerWrite; i++) {
+				int n = Math.min(srcs[i].remaining(), (int) (maxBytesPerWrite - total));
+				for (int j = 0; j < n; j++) {
+					written.write(srcs[i].get());
+				}
+				total += n;
+			}
+			return total;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {}
+		
+		@Override
+		public String toString() {
+			return new String(written.toByteArray(), Charsets.ISO_8859_1);
+		}
+		
+	}
+	
+}
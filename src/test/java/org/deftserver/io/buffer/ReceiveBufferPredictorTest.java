@@ -0,0 +1,47 @@
+package org.deftserver.io.buffer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ReceiveBufferPredictorTest {
+
+	@Test
+	public void initialSize() {
+		assertEquals(1024, new ReceiveBufferPredictor(64, 1024, 64 * 1024).nextSize());
+		assertEquals(1024, new ReceiveBufferPredictor(64, 1000, 64 * 1024).nextSize());	// rounded up to the table
+	}
+	
+	@Test
+	public void growsWhenReadsFillTheBuffer() {
+		ReceiveBufferPredictor predictor = new ReceiveBufferPredictor(1024, 1024, 64 * 1024);
+		predictor.record(1024);
+		assertEquals(16 * 1024, predictor.nextSize());	// 4 steps
+		predictor.record(16 * 1024);
+		assertEquals(64 * 1024, predictor.nextSize());	// max
+		predictor.record(64 * 1024);
+		assertEquals(64 * 1024, predictor.nextSize());
+	}
+	
+	@Test
+	public void shrinksAfterTwoSmallReads() {
+		ReceiveBufferPredictor predictor = new ReceiveBufferPredictor(1024, 16 * 1024, 64 * 1024);
+		predictor.record(100);
+		assertEquals(16 * 1024, predictor.nextSize());
+		predictor.record(10 * 1024);	// neither small nor filling the buffer, no change
+		assertEquals(16 * 1024, predictor.nextSize());
+		predictor.record(100);
+		assertEquals(8 * 1024, predictor.nextSize());	// the second small read, one step
+		
+		for (int i = 0; i < 20; i++) {
+			predictor.record(100);
+		}
+		assertEquals(1024, predictor.nextSize());	// min
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidSizes() {
+		new ReceiveBufferPredictor(1024, 512, 64 * 1024);
+	}
+
+}
@@ -52,6 +52,49 @@ public class JMXDebuggableCallbackManagerTest {
 		assertEquals(0, latch.getCount());
 	}
 	
+	@Test
+	public void maxCallbacksPerIterationTest() {
+		final JMXDebuggableCallbackManager cm = new JMXDebuggableCallbackManager(2);
+		final int[] executed = {0};
+		final AsyncCallback cb = new AsyncCallback() {
+			@Override public void onCallback() { executed[0]++; }
+		};
+		for (int i = 0; i < 5; i++) {
+			cm.addCallback(cb);
+		}
+		
+		assertEquals(true, cm.execute());
+		assertEquals(2, executed[0]);
+		assertEquals(3, cm.getNumberOfCallbacks());
+		assertEquals(true, cm.execute());
+		assertEquals(false, cm.execute());
+		assertEquals(5, executed[0]);
+		assertEquals(0, cm.getNumberOfCallbacks());
+	}
+	
+	@Test
+	public void budgetTest() {
+		final int[] executed = {0};
+		final AsyncCallback cb = new AsyncCallback() {
+			@Override public void onCallback() { executed[0]++; }
+		};
+		for (int i = 0; i < 200; i++) {
+			cm.addCallback(cb);
+		}
+		
+		assertEquals(true, cm.execute(3, CallbackManager.NO_DEADLINE));
+		assertEquals(3, executed[0]);
+		assertEquals(1, cm.getBudgetExhaustions());
+		
+		assertEquals(true, cm.execute(1000, System.nanoTime()));	// deadline passed, checked every 64 callbacks
+		assertEquals(3 + 64, executed[0]);
+		assertEquals(2, cm.getBudgetExhaustions());
+		
+		assertEquals(false, cm.execute());
+		assertEquals(200, executed[0]);
+		assertEquals(2, cm.getBudgetExhaustions());
+	}
+	
 	@Test
 	public void concurrencyTest() {
 		final int nThreads = 25;
@@ -1,6 +1,7 @@
 package org.deftserver.io.timeout;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -9,10 +10,14 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.List;
 
+import org.deftserver.io.Connection;
 import org.deftserver.web.AsyncCallback;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 public class JMXDebuggableTimeoutManagerTest {
 
 	private final JMXDebuggableTimeoutManager tm = new JMXDebuggableTimeoutManager();
@@ -43,7 +48,7 @@ public class JMXDebuggableTimeoutManagerTest {
 		Thread.sleep(200);
 	
 		tm.execute();
-		assertEquals(6, tm.getNumberOfTimeouts());
+		assertEquals(3, tm.getNumberOfTimeouts());
 		assertEquals(0, tm.getNumberOfKeepAliveTimeouts());
 	
 		Thread.sleep(2000);
@@ -92,6 +97,100 @@ public class JMXDebuggableTimeoutManagerTest {
 		assertEquals(0, tm.getNumberOfKeepAliveTimeouts());
 	}
 	
+	@Test
+	public void rescheduleAndCancelTimeouts() throws InterruptedException {
+		final long now = System.currentTimeMillis();
+		final int[] executed = new int[1];
+		MockChannel c1 = new MockChannel();
+		AsyncCallback cb = new AsyncCallback() {
+			@Override public void onCallback() { executed[0]++; }
+		};
+		tm.addKeepAliveTimeout(c1, new Timeout(now, cb));
+		tm.addKeepAliveTimeout(c1, new Timeout(now + 60 * 1000, cb));	// prolong (beyond one revolution)
+		Timeout cancelled = new Timeout(now + 60 * 1000, cb);
+		tm.addTimeout(cancelled);
+		assertEquals(2, tm.getNumberOfTimeouts());
+		assertEquals(1, tm.getNumberOfKeepAliveTimeouts());
+
+		cancelled.cancel();
+		Thread.sleep(50);
+		long ms = tm.execute();
+		assertEquals(0, executed[0]);
+		assertTrue(ms > 0 && ms != Long.MAX_VALUE);
+		assertEquals(2, tm.getNumberOfTimeouts());	// cancelled timeouts are removed lazily
+		assertEquals(1, tm.getNumberOfKeepAliveTimeouts());
+		assertTrue(tm.hasKeepAliveTimeout(c1));
+
+		tm.addKeepAliveTimeout(c1, new Timeout(System.currentTimeMillis(), cb));	// shorten
+		Thread.sleep(20);
+		tm.execute();
+		assertEquals(1, executed[0]);
+		assertEquals(1, tm.getNumberOfTimeouts());
+		assertEquals(0, tm.getNumberOfKeepAliveTimeouts());
+	}
+
+	@Test
+	public void connectionKeepAliveTimeouts() throws InterruptedException {
+		final long now = System.currentTimeMillis();
+		final int[] executed = new int[1];
+		Connection c1 = new Connection(new MockChannel(), null);
+		Connection c2 = new Connection(new MockChannel(), null);
+		AsyncCallback cb = new AsyncCallback() {
+			@Override public void onCallback() { executed[0]++; }
+		};
+		assertFalse(tm.hasKeepAliveTimeout(c1));
+		tm.addKeepAliveTimeout(c1, new Timeout(now, cb));
+		tm.addKeepAliveTimeout(c1, new Timeout(now + 60 * 1000, cb));	// prolong, the entry is reused
+		tm.addKeepAliveTimeout(c2, new Timeout(now, cb));
+		addNopKeepAliveTimeout(new MockChannel(), now);
+		assertEquals(3, tm.getNumberOfTimeouts());
+		assertEquals(3, tm.getNumberOfKeepAliveTimeouts());
+		assertTrue(tm.hasKeepAliveTimeout(c1));
+
+		Thread.sleep(50);
+		tm.execute();
+		assertEquals(1, executed[0]);
+		assertEquals(1, tm.getNumberOfTimeouts());
+		assertEquals(1, tm.getNumberOfKeepAliveTimeouts());
+		assertTrue(tm.hasKeepAliveTimeout(c1));
+		assertFalse(tm.hasKeepAliveTimeout(c2));
+
+		tm.addKeepAliveTimeout(c2, new Timeout(now + 60 * 1000, cb));	// a new keep-alive period
+		assertTrue(tm.hasKeepAliveTimeout(c2));
+		assertEquals(2, tm.getNumberOfKeepAliveTimeouts());
+	}
+
+	@Test
+	public void budgetTest() throws InterruptedException {
+		final long now = System.currentTimeMillis();
+		final List<Integer> executed = Lists.newArrayList();
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			tm.addTimeout(new Timeout(now + i, new AsyncCallback() {
+				@Override public void onCallback() { executed.add(n); }
+			}));
+		}
+		Thread.sleep(50);
+		
+		assertEquals(0, tm.execute(2, TimeoutManager.NO_DEADLINE));	// expired timeouts are left
+		assertEquals(2, executed.size());
+		assertEquals(1, tm.getBudgetExhaustions());
+		
+		assertEquals(0, tm.execute(10, System.nanoTime()));	// deadline passed, at least one is executed
+		assertEquals(3, executed.size());
+		assertEquals(2, tm.getBudgetExhaustions());
+		
+		tm.addTimeout(new Timeout(System.currentTimeMillis(), new AsyncCallback() {
+			@Override public void onCallback() { executed.add(5); }
+		}));
+		Thread.sleep(20);
+		assertEquals(Long.MAX_VALUE, tm.execute());
+		assertEquals(6, executed.size());
+		assertEquals(5, (int) executed.get(5));	// the timeouts that were left are executed first
+		assertEquals(0, tm.getNumberOfTimeouts());
+		assertEquals(2, tm.getBudgetExhaustions());
+	}
+
 	private void addRecursiveTimeout(final long timeout) {
 		final Timeout t = new Timeout(timeout, new AsyncCallback() {
 			@Override public void onCallback() { addNopTimeout(System.currentTimeMillis()); }
@@ -0,0 +1,82 @@
+package org.deftserver.io.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SelectedKeySetTest {
+
+	private final List<Pipe> pipes = Lists.newArrayList();
+	private final List<SelectionKey> keys = Lists.newArrayList();
+	private Selector selector;
+
+	@Before
+	public void setUp() throws IOException {
+		selector = Selector.open();
+		for (int i = 0; i < 3; i++) {
+			Pipe pipe = Pipe.open();
+			pipes.add(pipe);
+			pipe.source().configureBlocking(false);
+			keys.add(pipe.source().register(selector, SelectionKey.OP_READ));
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (Pipe pipe : pipes) {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+		selector.close();
+	}
+
+	@Test
+	public void setContract() {
+		SelectedKeySet set = new SelectedKeySet();
+		assertTrue(set.add(keys.get(0)));
+		assertTrue(set.add(keys.get(1)));
+		assertFalse(set.add(keys.get(0)));	// no duplicates
+		assertEquals(2, set.size());
+		assertTrue(set.contains(keys.get(1)));
+		assertFalse(set.contains(keys.get(2)));
+
+		assertTrue(set.remove(keys.get(0)));
+		assertFalse(set.remove(keys.get(0)));
+		assertEquals(1, set.size());
+		assertEquals(keys.get(1), set.keys[0]);
+
+		set.add(keys.get(2));
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains(keys.get(1)));
+	}
+
+	@Test
+	public void iteratorRemove() {
+		SelectedKeySet set = new SelectedKeySet();
+		set.addAll(keys);
+		Iterator<SelectionKey> it = set.iterator();
+		assertEquals(keys.get(0), it.next());
+		assertEquals(keys.get(1), it.next());
+		it.remove();
+		assertEquals(keys.get(2), it.next());
+		assertFalse(it.hasNext());
+		assertEquals(2, set.size());
+		assertFalse(set.contains(keys.get(1)));
+		assertTrue(set.contains(keys.get(2)));
+	}
+
+}
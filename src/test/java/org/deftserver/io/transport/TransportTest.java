@@ -0,0 +1,121 @@
+package org.deftserver.io.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TransportTest {
+
+	private final List<Pipe> pipes = Lists.newArrayList();
+	
+	@After
+	public void tearDown() throws IOException {
+		for (Pipe pipe : pipes) {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+	}
+	
+	@Test
+	public void nioTransport() throws IOException {
+		selectAndProcess(TransportProvider.NIO);
+	}
+	
+	@Test
+	public void optimizedNioTransport() throws IOException {
+		// on Java 9+ sun.nio.ch must be opened (the add-opens profile in pom.xml is active on Java 9+)
+		assertTrue(TransportProvider.OPTIMIZED_NIO.isAvailable());
+		selectAndProcess(TransportProvider.OPTIMIZED_NIO);
+	}
+	
+	private void selectAndProcess(TransportProvider provider) throws IOException {
+		Transport transport = provider.openTransport();
+		assertEquals(provider.getName(), transport.getName());
+		try {
+			List<Pipe.SourceChannel> ready = Lists.newArrayList();
+			for (int i = 0; i < 2000; i++) {	// more than the initial capacity of the SelectedKeySet
+				Pipe pipe = Pipe.open();
+				pipes.add(pipe);
+				pipe.source().configureBlocking(false);
+				SelectionKey key = transport.register(pipe.source(), SelectionKey.OP_READ, i);
+				assertSame(key, transport.keyFor(pipe.source()));
+				if (i % 2 == 0) {
+					pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+					ready.add(pipe.source());
+				}
+			}
+			assertEquals(1000, transport.select(1000));
+			final List<Integer> selected = Lists.newArrayList();
+			Transport.SelectedKeyHandler handler = new Transport.SelectedKeyHandler() {
+				@Override public void handle(SelectionKey key) { selected.add((Integer) key.attachment()); }
+			};
+			transport.processSelectedKeys(handler);
+			assertEquals(1000, selected.size());
+			for (Integer i : selected) {
+				assertTrue(i % 2 == 0);
+			}
+			
+			selected.clear();
+			transport.processSelectedKeys(handler);	// the selected keys are cleared
+			assertEquals(0, selected.size());
+			
+			for (Pipe.SourceChannel source : ready) {	// no longer ready
+				source.read(ByteBuffer.allocate(1));
+			}
+			assertEquals(0, transport.select(0));
+		} finally {
+			transport.close();
+		}
+	}
+	
+	@Test
+	public void wakeup() throws IOException {
+		Transport transport = TransportProvider.provider().openTransport();
+		try {
+			transport.wakeup();
+			long start = System.currentTimeMillis();
+			assertEquals(0, transport.select(5000));
+			assertTrue(System.currentTimeMillis() - start < 2500);
+		} finally {
+			transport.close();
+		}
+	}
+	
+	@Test
+	public void providerSelection() {
+		assertSame(TransportProvider.NIO, TransportProvider.forName("nio"));
+		assertSame(TransportProvider.OPTIMIZED_NIO, TransportProvider.forName("Optimized-NIO"));
+		assertNull(TransportProvider.forName("kqueue"));
+		
+		String previous = System.getProperty(TransportProvider.PROPERTY);
+		try {
+			System.setProperty(TransportProvider.PROPERTY, "kqueue");
+			assertSame(TransportProvider.NIO, TransportProvider.provider());	// unknown, falls back to nio
+			System.setProperty(TransportProvider.PROPERTY, "nio");
+			assertSame(TransportProvider.NIO, TransportProvider.provider());
+			System.setProperty(TransportProvider.PROPERTY, "optimized-nio");
+			assertSame(TransportProvider.OPTIMIZED_NIO, TransportProvider.provider());
+			System.clearProperty(TransportProvider.PROPERTY);
+			assertSame(TransportProvider.NIO, TransportProvider.provider());	// opt-in only
+		} finally {
+			if (previous == null) {
+				System.clearProperty(TransportProvider.PROPERTY);
+			} else {
+				System.setProperty(TransportProvider.PROPERTY, previous);
+			}
+		}
+	}
+
+}
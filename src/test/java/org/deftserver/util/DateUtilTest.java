@@ -0,0 +1,36 @@
+package org.deftserver.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class DateUtilTest {
+
+	@Test
+	public void currentDateTest() throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		String current = DateUtil.getCurrentAsString();
+		assertTrue(current.endsWith(" GMT"));
+		long parsed = format.parse(current).getTime();
+		assertTrue(Math.abs(System.currentTimeMillis() - parsed) < 2000);
+		assertArrayEquals(current.getBytes(Charsets.US_ASCII), DateUtil.getCurrentAsBytes());
+	}
+
+	@Test
+	public void clockTest() throws InterruptedException {
+		String before = DateUtil.getCurrentAsString();
+		Thread.sleep(1500);
+		assertFalse(before.equals(DateUtil.getCurrentAsString()));
+	}
+
+}
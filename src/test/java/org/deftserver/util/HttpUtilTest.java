@@ -0,0 +1,38 @@
+package org.deftserver.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HttpUtilTest {
+
+	@Test
+	public void acceptsEncodingTest() {
+		assertFalse(HttpUtil.acceptsEncoding(null, "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("", "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("deflate", "gzip"));
+		assertTrue(HttpUtil.acceptsEncoding("gzip", "gzip"));
+		assertTrue(HttpUtil.acceptsEncoding("deflate, GZIP", "gzip"));
+		assertTrue(HttpUtil.acceptsEncoding("gzip;q=0.5, identity", "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("gzip;q=0, identity", "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("gzip;q=0.0", "gzip"));
+		assertTrue(HttpUtil.acceptsEncoding("*", "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("*;q=0", "gzip"));
+		assertTrue(HttpUtil.acceptsEncoding("*;q=0, gzip", "gzip"));
+		assertFalse(HttpUtil.acceptsEncoding("gzip;q=0, *", "gzip"));
+	}
+
+	@Test
+	public void matchesIfRangeTest() {
+		long lastModified = 784111777000L;	// Sun, 06 Nov 1994 08:49:37 GMT
+		assertTrue(HttpUtil.matchesIfRange(null, "\"v1\"", lastModified));
+		assertTrue(HttpUtil.matchesIfRange("\"v1\"", "\"v1\"", lastModified));
+		assertFalse(HttpUtil.matchesIfRange("\"v2\"", "\"v1\"", lastModified));
+		assertFalse(HttpUtil.matchesIfRange("W/\"v1\"", "W/\"v1\"", lastModified));	// strong comparison
+		assertTrue(HttpUtil.matchesIfRange("Sun, 06 Nov 1994 08:49:37 GMT", "\"v1\"", lastModified + 500));
+		assertFalse(HttpUtil.matchesIfRange("Sun, 06 Nov 1994 08:49:36 GMT", "\"v1\"", lastModified));
+		assertFalse(HttpUtil.matchesIfRange("garbage", "\"v1\"", lastModified));
+	}
+
+}
@@ -2,15 +2,19 @@ package org.deftserver.web;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
@@ -23,6 +27,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
@@ -33,6 +39,8 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
@@ -43,15 +51,21 @@ import org.deftserver.example.kv.KeyValueStore;
 import org.deftserver.example.kv.KeyValueStoreClient;
 import org.deftserver.io.IOLoop;
 import org.deftserver.io.timeout.Timeout;
+import org.deftserver.web.StreamingBody;
 import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.http.BodyListener;
 import org.deftserver.web.http.HttpException;
 import org.deftserver.web.http.HttpRequest;
+import org.deftserver.web.http.HttpServerDescriptor;
 import org.deftserver.web.http.client.AsynchronousHttpClient;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
@@ -283,6 +297,130 @@ public class DeftSystemTest {
 		}
 	}
 
+	private static class VersionedRequestHandler extends RequestHandler {
+		@Override
+		public void get(org.deftserver.web.http.HttpRequest request, org.deftserver.web.http.HttpResponse response) {
+			if (response.setEtag("v1")) {
+				return;	// not modified
+			}
+			response.write(expectedPayload);
+		}
+	}
+
+	private static class CompressedRequestHandler extends RequestHandler {
+		@Override
+		public void get(org.deftserver.web.http.HttpRequest request, org.deftserver.web.http.HttpResponse response) {
+			response.enableCompression();
+			response.write(_450KBResponseEntityRequestHandler.entity);
+			if (request.getParameter("flush") != null) {
+				response.flush();
+			}
+			response.write(expectedPayload);
+		}
+	}
+
+	private static class StreamingBodyRequestHandler extends RequestHandler {
+		@Override
+		@StreamingBody
+		public void post(final HttpRequest request, final org.deftserver.web.http.HttpResponse response) {
+			final CRC32 crc = new CRC32();
+			request.setBodyListener(new BodyListener() {
+				private long received = 0;
+				private boolean paused = false;
+
+				@Override public void onBodyChunk(ByteBuffer chunk) {
+					received += chunk.remaining();
+					byte[] bytes = new byte[chunk.remaining()];
+					chunk.get(bytes);
+					crc.update(bytes);
+					if (!paused) {	// simulate a slow consumer once
+						paused = true;
+						request.pauseBody();
+						IOLoop.INSTANCE.schedule(new Runnable() { 
+							@Override public void run() { request.resumeBody(); } 
+						}, 200, TimeUnit.MILLISECONDS);
+					}
+				}
+
+				@Override public void onBodyComplete() {
+					response.write(received + " " + crc.getValue()).finish();
+				}
+			});
+		}
+	}
+
+	private static class EventStreamRequestHandler extends RequestHandler {
+		@Override
+		@Asynchronous
+		public void get(HttpRequest request, final org.deftserver.web.http.HttpResponse response) {
+			response.setHeader("Content-Type", "text/event-stream");
+			response.write("data: 0\n\n").flush();
+			IOLoop.INSTANCE.schedule(new Runnable() {
+				private int event = 1;
+				@Override public void run() {
+					response.write("data: " + event + "\n\n").flush();
+					if (++event < 3) {
+						IOLoop.INSTANCE.schedule(this, 50, TimeUnit.MILLISECONDS);
+					} else {
+						response.finish();
+					}
+				}
+			}, 50, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/* writes 4 MB (in blocks of 8 kB) as fast as the client reads it */
+	private static class ExportRequestHandler extends RequestHandler {
+		@Override
+		@Asynchronous
+		public void get(HttpRequest request, final org.deftserver.web.http.HttpResponse response) {
+			new AsyncCallback() {
+				private int blocks = 0;
+				@Override public void onCallback() {
+					while (response.isWritable()) {
+						if (blocks == 512) {
+							response.finish();
+							return;
+						}
+						response.write(block(blocks++));
+					}
+					response.whenWritable(this);
+				}
+			}.onCallback();
+		}
+		
+		static ByteBuffer block(int n) {
+			byte[] block = new byte[8 * 1024];
+			Arrays.fill(block, (byte) n);
+			return ByteBuffer.wrap(block);
+		}
+	}
+
+	/* echoes a streamed body chunk by chunk, the body is paused while the client does not keep up with the echo */
+	private static class StreamingEchoRequestHandler extends RequestHandler {
+		@Override
+		@StreamingBody
+		public void post(final HttpRequest request, final org.deftserver.web.http.HttpResponse response) {
+			request.setBodyListener(new BodyListener() {
+				@Override public void onBodyChunk(ByteBuffer chunk) {
+					byte[] bytes = new byte[chunk.remaining()];
+					chunk.get(bytes);
+					response.write(ByteBuffer.wrap(bytes)).flush();
+					if (!response.isWritable()) {
+						request.pauseBody();
+						response.whenWritable(new AsyncCallback() {
+							@Override public void onCallback() { request.resumeBody(); }
+						});
+					}
+				}
+
+				@Override public void onBodyComplete() {
+					response.finish();
+				}
+			});
+		}
+	}
+
 	@BeforeClass
 	public static void setup() {
 		Map<String, RequestHandler> reqHandlers = new HashMap<String, RequestHandler>();
@@ -307,6 +445,12 @@ public class DeftSystemTest {
 		reqHandlers.put("/authenticated", new AuthenticatedRequestHandler());
 		reqHandlers.put("/query_params", new QueryParamsRequestHandler());
 		reqHandlers.put("/chunked", new ChunkedRequestHandler());
+		reqHandlers.put("/versioned", new VersionedRequestHandler());
+		reqHandlers.put("/compressed", new CompressedRequestHandler());
+		reqHandlers.put("/streaming", new StreamingBodyRequestHandler());
+		reqHandlers.put("/streaming_echo", new StreamingEchoRequestHandler());
+		reqHandlers.put("/events", new EventStreamRequestHandler());
+		reqHandlers.put("/export", new ExportRequestHandler());
 
 		final Application application = new Application(reqHandlers);
 		application.setStaticContentDir("src/test/resources");
@@ -421,7 +565,7 @@ public class DeftSystemTest {
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
 		String payLoad = convertStreamToString(response.getEntity().getContent()).trim();
 		assertEquals("123", payLoad);
-		assertEquals(3, response.getAllHeaders().length);
+		assertEquals(4, response.getAllHeaders().length);	// Transfer-Encoding: chunked
 	}
 
 	@Test
@@ -441,7 +585,7 @@ public class DeftSystemTest {
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
 		String payLoad = convertStreamToString(response.getEntity().getContent()).trim();
 		assertEquals("12", payLoad);
-		assertEquals(3, response.getAllHeaders().length);
+		assertEquals(4, response.getAllHeaders().length);	// Transfer-Encoding: chunked
 	}
 	
 	@Test
@@ -461,7 +605,7 @@ public class DeftSystemTest {
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
 		String payLoad = convertStreamToString(response.getEntity().getContent()).trim();
 		assertEquals("12", payLoad);
-		assertEquals(3, response.getAllHeaders().length);
+		assertEquals(4, response.getAllHeaders().length);	// Transfer-Encoding: chunked
 	}
 
 	@Test
@@ -677,11 +821,69 @@ public class DeftSystemTest {
 		assertEquals(200, response.getStatusLine().getStatusCode());
 		assertEquals(new ProtocolVersion("HTTP", 1, 1), response.getStatusLine().getProtocolVersion());
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
-		assertEquals(7, response.getAllHeaders().length);
+		assertEquals(10, response.getAllHeaders().length);
+		assertNotNull(response.getFirstHeader("Etag"));
+		assertEquals("bytes", response.getFirstHeader("Accept-Ranges").getValue());
+		assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+		assertNull(response.getFirstHeader("Content-Encoding"));
 		String payLoad = convertStreamToString(response.getEntity().getContent()).trim();
 		assertEquals("test.txt", payLoad);
 	}
 
+	@Test
+	public void gzipStaticFileRequestTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpGet httpget = new HttpGet("http://localhost:" + PORT + "/src/test/resources/test.txt");
+		httpget.setHeader("Accept-Encoding", "gzip, deflate");
+		HttpResponse response = httpclient.execute(httpget);
+
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+		assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+		assertTrue(response.getFirstHeader("Etag").getValue().endsWith("-gz\""));
+		String payLoad = convertStreamToString(new GZIPInputStream(response.getEntity().getContent())).trim();
+		assertEquals("test.txt", payLoad);
+
+		httpget = new HttpGet("http://localhost:" + PORT + "/src/test/resources/n792205362_2067.jpg");
+		httpget.setHeader("Accept-Encoding", "gzip");
+		response = httpclient.execute(httpget);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertNull(response.getFirstHeader("Content-Encoding"));	// not compressible
+		assertEquals("54963", response.getFirstHeader("Content-Length").getValue());
+	}
+
+	@Test
+	public void compressedResponseTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpGet httpget = new HttpGet("http://localhost:" + PORT + "/compressed");
+		httpget.setHeader("Accept-Encoding", "gzip;q=0.5, identity");
+		HttpResponse response = httpclient.execute(httpget);
+
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+		assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+		assertTrue(Integer.parseInt(response.getFirstHeader("Content-Length").getValue()) < 10 * 1024);
+		String payLoad = convertStreamToString(new GZIPInputStream(response.getEntity().getContent())).trim();
+		assertEquals(_450KBResponseEntityRequestHandler.entity + expectedPayload, payLoad);
+
+		httpget = new HttpGet("http://localhost:" + PORT + "/compressed");
+		httpget.setHeader("Accept-Encoding", "gzip;q=0");
+		response = httpclient.execute(httpget);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertNull(response.getFirstHeader("Content-Encoding"));
+		payLoad = convertStreamToString(response.getEntity().getContent()).trim();
+		assertEquals(_450KBResponseEntityRequestHandler.entity + expectedPayload, payLoad);
+		
+		httpget = new HttpGet("http://localhost:" + PORT + "/compressed?flush=true");
+		httpget.setHeader("Accept-Encoding", "gzip");
+		response = httpclient.execute(httpget);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+		assertEquals("chunked", response.getFirstHeader("Transfer-Encoding").getValue());
+		payLoad = convertStreamToString(new GZIPInputStream(response.getEntity().getContent())).trim();
+		assertEquals(_450KBResponseEntityRequestHandler.entity + expectedPayload, payLoad);
+	}
+
 	@Test
 	public void pictureStaticFileRequestTest() throws ClientProtocolException, IOException {
 		DefaultHttpClient httpclient = new DefaultHttpClient();
@@ -692,7 +894,8 @@ public class DeftSystemTest {
 		assertEquals(200, response.getStatusLine().getStatusCode());
 		assertEquals(new ProtocolVersion("HTTP", 1, 1), response.getStatusLine().getProtocolVersion());
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
-		assertEquals(7, response.getAllHeaders().length);
+		assertEquals(9, response.getAllHeaders().length);
+		assertNotNull(response.getFirstHeader("Etag"));
 		assertEquals("54963", response.getFirstHeader("Content-Length").getValue());
 		assertEquals("image/jpeg", response.getFirstHeader("Content-Type").getValue());
 		assertNotNull(response.getFirstHeader("Last-Modified"));
@@ -708,7 +911,8 @@ public class DeftSystemTest {
 		assertEquals(200, response.getStatusLine().getStatusCode());
 		assertEquals(new ProtocolVersion("HTTP", 1, 1), response.getStatusLine().getProtocolVersion());
 		assertEquals("OK", response.getStatusLine().getReasonPhrase());
-		assertEquals(7, response.getAllHeaders().length);
+		assertEquals(9, response.getAllHeaders().length);
+		assertNotNull(response.getFirstHeader("Etag"));
 		//assertEquals("2145094", response.getFirstHeader("Content-Length").getValue()); // my mb says 2145066, imac says 2145094
 		assertEquals("image/jpeg", response.getFirstHeader("Content-Type").getValue());
 		assertNotNull(response.getFirstHeader("Last-Modified"));
@@ -1245,4 +1449,413 @@ public class DeftSystemTest {
 		}
 	}
 
+	@Test
+	public void ifNoneMatchTest() throws ClientProtocolException, IOException {
+		HttpClient httpclient = new DefaultHttpClient();
+		HttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/"));
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		String etag = response.getFirstHeader("Etag").getValue();
+		convertStreamToString(response.getEntity().getContent());
+
+		HttpGet conditional = new HttpGet("http://localhost:" + PORT + "/");
+		conditional.setHeader("If-None-Match", "\"other\", " + etag);
+		response = httpclient.execute(conditional);
+		assertEquals(304, response.getStatusLine().getStatusCode());
+		assertEquals("Not Modified", response.getStatusLine().getReasonPhrase());
+		assertEquals(etag, response.getFirstHeader("Etag").getValue());
+		assertNull(response.getFirstHeader("Content-Length"));
+		assertNull(response.getEntity());
+
+		conditional = new HttpGet("http://localhost:" + PORT + "/");	// same connection (keep-alive)
+		conditional.setHeader("If-None-Match", "\"other\"");
+		response = httpclient.execute(conditional);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(expectedPayload, convertStreamToString(response.getEntity().getContent()).trim());
+	}
+
+	@Test
+	public void declaredEtagTest() throws ClientProtocolException, IOException {
+		HttpClient httpclient = new DefaultHttpClient();
+		HttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/versioned"));
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("\"v1\"", response.getFirstHeader("Etag").getValue());
+		assertEquals(expectedPayload, convertStreamToString(response.getEntity().getContent()).trim());
+
+		HttpGet conditional = new HttpGet("http://localhost:" + PORT + "/versioned");
+		conditional.setHeader("If-None-Match", "W/\"v1\"");
+		response = httpclient.execute(conditional);
+		assertEquals(304, response.getStatusLine().getStatusCode());
+		assertEquals("\"v1\"", response.getFirstHeader("Etag").getValue());
+		assertNull(response.getEntity());
+	}
+
+	@Test
+	public void conditionalStaticFileRequestTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		String url = "http://localhost:" + PORT + "/src/test/resources/n792205362_2067.jpg";
+		HttpResponse response = httpclient.execute(new HttpGet(url));
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		String etag = response.getFirstHeader("Etag").getValue();
+		String lastModified = response.getFirstHeader("Last-Modified").getValue();
+		convertStreamToString(response.getEntity().getContent());
+
+		HttpGet ifNoneMatch = new HttpGet(url);
+		ifNoneMatch.setHeader("If-None-Match", etag);
+		response = httpclient.execute(ifNoneMatch);
+		assertEquals(304, response.getStatusLine().getStatusCode());
+		assertNull(response.getEntity());
+
+		HttpGet ifModifiedSince = new HttpGet(url);
+		ifModifiedSince.setHeader("If-Modified-Since", lastModified);
+		response = httpclient.execute(ifModifiedSince);
+		assertEquals(304, response.getStatusLine().getStatusCode());
+		assertNull(response.getEntity());
+	}
+
+	@Test
+	public void rangeStaticFileRequestTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		String url = "http://localhost:" + PORT + "/src/test/resources/test.txt";
+		HttpGet httpget = new HttpGet(url);
+		httpget.setHeader("Range", "bytes=0-3");
+		HttpResponse response = httpclient.execute(httpget);
+		assertEquals(206, response.getStatusLine().getStatusCode());
+		assertEquals("bytes 0-3/8", response.getFirstHeader("Content-Range").getValue());
+		assertEquals("4", response.getFirstHeader("Content-Length").getValue());
+		assertEquals("test", convertStreamToString(response.getEntity().getContent()).trim());
+
+		httpget = new HttpGet(url);
+		httpget.setHeader("Range", "bytes=-3");
+		response = httpclient.execute(httpget);
+		assertEquals(206, response.getStatusLine().getStatusCode());
+		assertEquals("bytes 5-7/8", response.getFirstHeader("Content-Range").getValue());
+		assertEquals("txt", convertStreamToString(response.getEntity().getContent()).trim());
+
+		httpget = new HttpGet(url);
+		httpget.setHeader("Range", "bytes=8-");
+		response = httpclient.execute(httpget);
+		assertEquals(416, response.getStatusLine().getStatusCode());
+		assertEquals("bytes */8", response.getFirstHeader("Content-Range").getValue());
+		assertEquals("0", response.getFirstHeader("Content-Length").getValue());
+		convertStreamToString(response.getEntity().getContent());
+
+		httpget = new HttpGet(url);	// the file has changed, the whole file is sent
+		httpget.setHeader("Range", "bytes=0-3");
+		httpget.setHeader("If-Range", "\"other\"");
+		response = httpclient.execute(httpget);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("test.txt", convertStreamToString(response.getEntity().getContent()).trim());
+	}
+
+	@Test
+	public void multipartRangeLargeStaticFileRequestTest() throws ClientProtocolException, IOException {
+		File file = new File("src/test/resources/f4_impact_1_original.jpg");	// sent from disk (not cached)
+		byte[] content = Files.toByteArray(file);
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		String url = "http://localhost:" + PORT + "/src/test/resources/f4_impact_1_original.jpg";
+		HttpResponse response = httpclient.execute(new HttpGet(url));
+		String etag = response.getFirstHeader("Etag").getValue();
+		ByteStreams.toByteArray(response.getEntity().getContent());
+		
+		HttpGet httpget = new HttpGet(url);
+		httpget.setHeader("Range", "bytes=1000000-");
+		httpget.setHeader("If-Range", etag);
+		response = httpclient.execute(httpget);
+		assertEquals(206, response.getStatusLine().getStatusCode());
+		assertEquals("bytes 1000000-" + (content.length - 1) + "/" + content.length, 
+				response.getFirstHeader("Content-Range").getValue());
+		assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1000000, content.length), 
+				ByteStreams.toByteArray(response.getEntity().getContent())));
+
+		httpget = new HttpGet(url);
+		httpget.setHeader("Range", "bytes=0-9, 2000000-2000099");
+		response = httpclient.execute(httpget);
+		assertEquals(206, response.getStatusLine().getStatusCode());
+		String contentType = response.getFirstHeader("Content-Type").getValue();
+		assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+		String boundary = contentType.substring(contentType.indexOf('=') + 1);
+		byte[] body = ByteStreams.toByteArray(response.getEntity().getContent());
+		assertEquals(Integer.parseInt(response.getFirstHeader("Content-Length").getValue()), body.length);
+		
+		String expected = "--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 0-9/" 
+			+ content.length + "\r\n\r\n" + new String(content, 0, 10, Charsets.ISO_8859_1) 
+			+ "\r\n--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 2000000-2000099/" 
+			+ content.length + "\r\n\r\n" + new String(content, 2000000, 100, Charsets.ISO_8859_1) 
+			+ "\r\n--" + boundary + "--\r\n";
+		assertEquals(expected, new String(body, Charsets.ISO_8859_1));
+	}
+
+	@Test
+	public void streamingBodyTest() throws ClientProtocolException, IOException {
+		byte[] body = new byte[3 * 1024 * 1024 + 17];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i * 31);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpPost httppost = new HttpPost("http://localhost:" + PORT + "/streaming");
+		httppost.setEntity(new ByteArrayEntity(body));
+		HttpResponse response = httpclient.execute(httppost);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(body.length + " " + crc.getValue(), convertStreamToString(response.getEntity().getContent()).trim());
+	}
+
+	@Test
+	public void requestEntityTooLargeTest() throws IOException {
+		int maxBodySize = HttpServerDescriptor.MAX_BODY_SIZE;
+		HttpServerDescriptor.MAX_BODY_SIZE = 64 * 1024;
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			socket.getOutputStream().write(("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000000\r\n\r\n" 
+					+ "first part of the body").getBytes(Charsets.US_ASCII));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			assertEquals("HTTP/1.1 413 Request Entity Too Large", reader.readLine());
+			String line;
+			while ((line = reader.readLine()) != null && line.length() > 0) { /* headers */ }
+			assertNull(reader.readLine());	// closed by the server
+		} finally {
+			HttpServerDescriptor.MAX_BODY_SIZE = maxBodySize;
+			socket.close();
+		}
+	}
+
+	@Test
+	public void chunkedRequestBodyTest() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write("POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nWi"
+					.getBytes(Charsets.US_ASCII));
+			os.flush();
+			os.write("ki\r\n5\r\npedia\r\n0\r\n\r\n".getBytes(Charsets.US_ASCII));
+			os.flush();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			assertEquals("HTTP/1.1 200 OK", reader.readLine());
+			String line;
+			while ((line = reader.readLine()) != null && line.length() > 0) { /* headers */ }
+			char[] body = new char[9];
+			assertEquals(9, reader.read(body));
+			assertEquals("Wikipedia", new String(body));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void chunkedStreamingBodyTest() throws ClientProtocolException, IOException {
+		byte[] body = new byte[1024 * 1024 + 3];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i * 7);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpPost httppost = new HttpPost("http://localhost:" + PORT + "/streaming");
+		InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(body), -1);	// unknown length
+		entity.setChunked(true);
+		httppost.setEntity(entity);
+		HttpResponse response = httpclient.execute(httppost);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(body.length + " " + crc.getValue(), convertStreamToString(response.getEntity().getContent()).trim());
+	}
+
+	@Test
+	public void streamingBodyEchoTest() throws Exception {
+		final byte[] body = new byte[4 * 1024 * 1024];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i * 7);
+		}
+		final Socket socket = new Socket("localhost", PORT);
+		socket.setSoTimeout(10 * 1000);	// fail instead of hanging if the echo stalls
+		ExecutorService uploader = Executors.newSingleThreadExecutor();
+		try {
+			uploader.execute(new Runnable() {
+				@Override public void run() {
+					try {
+						OutputStream os = socket.getOutputStream();
+						os.write(("POST /streaming_echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" +
+								"Content-Length: " + body.length + "\r\n\r\n").getBytes(Charsets.US_ASCII));
+						os.write(body);
+						os.flush();
+					} catch (IOException ignore) {
+						// the socket is closed (the assertions below fail)
+					}
+				}
+			});
+			Thread.sleep(200);	// the server buffers the echo (and pauses the body) until the client reads it
+			InputStream is = socket.getInputStream();
+			assertEquals("HTTP/1.1 200 OK", readLine(is));
+			List<String> headers = new LinkedList<String>();
+			String line;
+			while ((line = readLine(is)).length() > 0) {
+				headers.add(line);
+			}
+			assertTrue(headers.contains("Transfer-Encoding: chunked"));
+			CRC32 crc = new CRC32();
+			long received = 0;
+			int size;
+			while ((size = Integer.parseInt(readLine(is), 16)) > 0) {
+				byte[] data = new byte[size];
+				ByteStreams.readFully(is, data);
+				crc.update(data);
+				received += size;
+				assertEquals("", readLine(is));
+			}
+			CRC32 expected = new CRC32();
+			expected.update(body);
+			assertEquals(body.length, received);
+			assertEquals(expected.getValue(), crc.getValue());
+		} finally {
+			socket.close();
+			uploader.shutdownNow();
+		}
+	}
+
+	private static String readLine(InputStream is) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = is.read()) != '\n') {
+			if (b == -1) {
+				throw new IOException("connection closed");
+			}
+			line.append((char) b);
+		}
+		return line.toString().trim();
+	}
+
+	@Test
+	public void chunkedResponseTest() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(Charsets.US_ASCII));
+			os.flush();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			assertEquals("HTTP/1.1 200 OK", reader.readLine());
+			List<String> headers = new LinkedList<String>();
+			String line;
+			while ((line = reader.readLine()) != null && line.length() > 0) {
+				headers.add(line);
+			}
+			assertTrue(headers.contains("Transfer-Encoding: chunked"));
+			for (int event = 0; event < 3; event++) {	// one chunk per flush
+				assertEquals("9", reader.readLine());
+				assertEquals("data: " + event, reader.readLine());
+				assertEquals("", reader.readLine());
+				assertEquals("", reader.readLine());	// CRLF after the chunk data
+			}
+			assertEquals("0", reader.readLine());
+			assertEquals("", reader.readLine());
+			
+			// the connection is kept alive
+			os.write("GET /w HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(Charsets.US_ASCII));
+			os.flush();
+			assertEquals("HTTP/1.1 200 OK", reader.readLine());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void chunkedResponseBackpressureTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpGet httpget = new HttpGet("http://localhost:" + PORT + "/export");
+		HttpResponse response = httpclient.execute(httpget);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("chunked", response.getFirstHeader("Transfer-Encoding").getValue());
+		assertNull(response.getFirstHeader("Content-Length"));
+		byte[] body = ByteStreams.toByteArray(response.getEntity().getContent());
+		assertEquals(512 * 8 * 1024, body.length);
+		for (int i = 0; i < body.length; i += 8 * 1024) {
+			assertEquals((byte) (i / (8 * 1024)), body[i]);
+			assertEquals((byte) (i / (8 * 1024)), body[i + 8 * 1024 - 1]);
+		}
+	}
+
+	@Test
+	public void pipelinedRequestsTest() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write((	// one write, the responses must be sent in request order
+					"GET /w HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+					"GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n" +	// asynchronous
+					"GET /capturing/1911 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+			).getBytes(Charsets.US_ASCII));
+			os.flush();
+			String responses = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.US_ASCII);
+			
+			String[] parts = responses.split("HTTP/1.1 200 OK\r\n");
+			assertEquals(4, parts.length);
+			assertTrue(parts[1].endsWith("\r\n\r\n1"));
+			assertTrue(parts[2].endsWith("9\r\ndata: 2\n\n\r\n0\r\n\r\n"));
+			assertTrue(parts[3].endsWith("\r\n\r\n/capturing/1911"));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void pipelinedRequestAfterStreamingBodyTest() throws IOException, InterruptedException {
+		byte[] body = new byte[64 * 1024 + 5];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i * 13);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write(("POST /streaming HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+					.getBytes(Charsets.US_ASCII));
+			os.flush();
+			Thread.sleep(100);	// the handler is dispatched before the body arrives, i.e. the body is streamed
+			os.write(body);
+			os.write("GET /capturing/1911 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+					.getBytes(Charsets.US_ASCII));	// right after the body, in the same write
+			os.flush();
+			String responses = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.US_ASCII);
+			
+			String[] parts = responses.split("HTTP/1.1 200 OK\r\n");
+			assertEquals(3, parts.length);
+			assertTrue(parts[1].endsWith("\r\n\r\n" + body.length + " " + crc.getValue()));
+			assertTrue(parts[2].endsWith("\r\n\r\n/capturing/1911"));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void largeRequestsTest() throws IOException {
+		StringBuilder cookie = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			cookie.append("cookie").append(i).append("=0123456789abcdef; ");	// ~ 6 kB
+		}
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 20 * 1024; i++) {
+			body.append((char) ('a' + i % 26));
+		}
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write((	// larger than the initial read buffer, read in one (or a few) read events
+					"GET /authenticated HTTP/1.1\r\nHost: localhost\r\nCookie: " + cookie + "\r\nuser: Roger\r\n\r\n" +
+					"POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n" + 
+					"Connection: close\r\n\r\n" + body
+			).getBytes(Charsets.US_ASCII));
+			os.flush();
+			String responses = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.US_ASCII);
+			
+			String[] parts = responses.split("HTTP/1.1 200 OK\r\n");
+			assertEquals(3, parts.length);
+			assertTrue(parts[1].endsWith("\r\n\r\nRoger"));
+			assertTrue(parts[2].endsWith("\r\n\r\n" + body));
+		} finally {
+			socket.close();
+		}
+	}
+
 }
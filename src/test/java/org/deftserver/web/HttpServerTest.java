@@ -1,6 +1,18 @@
 package org.deftserver.web;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Map;
+
 import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.http.HttpAcceptor.Balancing;
+import org.deftserver.web.http.HttpRequest;
+import org.deftserver.web.http.HttpResponse;
 import org.junit.Test;
 
 import com.google.common.collect.Maps;
@@ -31,4 +43,39 @@ public class HttpServerTest {
 		server.listen(port);
 	}
 	
+	@Test
+	public void testAcceptorHandsOverConnectionsToWorkers() throws Exception {
+		doTestAcceptor(8082, Balancing.ROUND_ROBIN);
+		doTestAcceptor(8083, Balancing.LEAST_LOADED);
+	}
+	
+	private void doTestAcceptor(int port, Balancing balancing) throws Exception {
+		Map<String, RequestHandler> handlers = Maps.newHashMap();
+		handlers.put("/", new RequestHandler() {
+			@Override public void get(HttpRequest request, HttpResponse response) { response.write("worker"); }
+		});
+		HttpServer server = new HttpServer(new Application(handlers));
+		server.bind(port);
+		server.start(3, balancing);
+		try {
+			for (int i = 0; i < 9; i++) {
+				assertEquals("HTTP/1.1 200 OK", doGet(port));
+			}
+		} finally {
+			server.stop();
+		}
+	}
+	
+	private String doGet(int port) throws IOException {
+		Socket socket = new Socket("localhost", port);
+		try {
+			OutputStream os = socket.getOutputStream();
+			os.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes());
+			os.flush();
+			return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+		} finally {
+			socket.close();
+		}
+	}
+	
 }
@@ -0,0 +1,98 @@
+package org.deftserver.web.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.deftserver.web.http.HttpServerDescriptor;
+import org.junit.Test;
+
+public class StaticFileCacheTest {
+
+	@Test
+	public void cacheAndValidateTest() throws IOException, InterruptedException {
+		int checkInterval = HttpServerDescriptor.STATIC_FILE_CHECK_INTERVAL;
+		HttpServerDescriptor.STATIC_FILE_CHECK_INTERVAL = 100;
+		File file = createFile("abc");
+		try {
+			StaticFileCache cache = new StaticFileCache();
+			StaticFileCache.Entry entry = cache.get(file);
+			assertEquals(3, entry.length);
+			assertEquals(3, entry.getContent().remaining());
+			assertEquals("text/plain; charset=utf-8", entry.contentType);
+			assertSame(entry, cache.get(file));
+			assertEquals(1, cache.getHits());
+			assertEquals(1, cache.getMisses());
+			assertEquals(3, cache.getCachedBytes());
+
+			write(file, "abcdef");
+			Thread.sleep(150);	// next get validates the entry
+			StaticFileCache.Entry modified = cache.get(file);
+			assertNotSame(entry, modified);
+			assertEquals(6, modified.getContent().remaining());
+			assertEquals(1, cache.getNumberOfEntries());
+			assertEquals(6, cache.getCachedBytes());
+
+			file.delete();
+			Thread.sleep(150);
+			assertNull(cache.get(file));
+			assertEquals(0, cache.getNumberOfEntries());
+		} finally {
+			HttpServerDescriptor.STATIC_FILE_CHECK_INTERVAL = checkInterval;
+			file.delete();
+		}
+	}
+
+	@Test
+	public void evictionTest() throws IOException {
+		int cacheSize = HttpServerDescriptor.STATIC_FILE_CACHE_SIZE;
+		int maxFileSize = HttpServerDescriptor.MAX_CACHED_FILE_SIZE;
+		HttpServerDescriptor.STATIC_FILE_CACHE_SIZE = 10;
+		HttpServerDescriptor.MAX_CACHED_FILE_SIZE = 8;
+		File a = createFile("aaaa"), b = createFile("bbbb"), c = createFile("cccc"), large = createFile("123456789");
+		try {
+			StaticFileCache cache = new StaticFileCache();
+			cache.get(a);
+			cache.get(b);
+			cache.get(a);	// b is least recently used
+			cache.get(c);	// evicts b
+			assertEquals(2, cache.getNumberOfEntries());
+			assertEquals(8, cache.getCachedBytes());
+			assertEquals(1, cache.getEvictions());
+			
+			StaticFileCache.Entry entry = cache.get(large);
+			assertNotNull(entry);
+			assertNull(entry.getContent());	// too large to be cached in memory
+			assertEquals(8, cache.getCachedBytes());
+		} finally {
+			HttpServerDescriptor.STATIC_FILE_CACHE_SIZE = cacheSize;
+			HttpServerDescriptor.MAX_CACHED_FILE_SIZE = maxFileSize;
+			a.delete();
+			b.delete();
+			c.delete();
+			large.delete();
+		}
+	}
+
+	private static File createFile(String content) throws IOException {
+		File file = File.createTempFile("deft", ".txt");
+		write(file, content);
+		return file;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+}
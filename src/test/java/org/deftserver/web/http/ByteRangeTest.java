@@ -0,0 +1,57 @@
+package org.deftserver.web.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void parseTest() {
+		assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", 1000));
+		assertEquals(Arrays.asList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-", 1000));
+		assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse("bytes=-100", 1000));
+		assertEquals(Arrays.asList(new ByteRange(0, 999)), ByteRange.parse("bytes=-5000", 1000));
+		assertEquals(Arrays.asList(new ByteRange(990, 999)), ByteRange.parse("bytes=990-5000", 1000));
+		assertEquals(Arrays.asList(new ByteRange(500, 599), new ByteRange(0, 9)), 
+				ByteRange.parse("bytes=500-599, 0-9", 1000));
+		assertEquals(1000, ByteRange.parse("bytes=0-", 1000).get(0).length());
+		assertEquals("bytes 0-499/1000", new ByteRange(0, 499).toContentRange(1000));
+	}
+
+	@Test
+	public void coalesceTest() {
+		assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 599)), 
+				ByteRange.parse("bytes=500-599,100-199,0-150", 1000));
+		assertEquals(Arrays.asList(new ByteRange(0, 19)), ByteRange.parse("bytes=10-19,0-9", 1000));	// adjacent
+	}
+
+	@Test
+	public void unsatisfiableTest() {
+		assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+		assertEquals(Arrays.asList(new ByteRange(0, 9)), ByteRange.parse("bytes=2000-3000,0-9", 1000));
+	}
+
+	@Test
+	public void invalidTest() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-9", 1000));
+		assertNull(ByteRange.parse("bytes=", 1000));
+		assertNull(ByteRange.parse("bytes=9-0", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+		assertNull(ByteRange.parse("bytes=-", 1000));
+		assertNull(ByteRange.parse("bytes=0-9,x", 1000));
+		StringBuilder many = new StringBuilder("bytes=0-0");
+		for (int i = 1; i < 20; i++) {
+			many.append(',').append(2 * i).append('-').append(2 * i);
+		}
+		assertNull(ByteRange.parse(many.toString(), 1000));	// too many ranges
+	}
+
+}
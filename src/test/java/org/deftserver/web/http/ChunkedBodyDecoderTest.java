@@ -0,0 +1,65 @@
+package org.deftserver.web.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class ChunkedBodyDecoderTest {
+
+	private static final String BODY = 
+		"5\r\nHello\r\n7;name=value\r\n, world\r\n1A\r\nabcdefghijklmnopqrstuvwxyz\r\n0\r\nX-Checksum: 42\r\n\r\n";
+
+	@Test
+	public void decodeTest() {
+		ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+		ByteBuffer input = ByteBuffer.wrap((BODY + "GET / HTTP/1.1").getBytes(Charsets.US_ASCII));
+		assertEquals("Hello, worldabcdefghijklmnopqrstuvwxyz", decode(decoder, input));
+		assertTrue(decoder.isDone());
+		assertEquals("42", decoder.getTrailers().get("x-checksum"));
+		assertEquals(14, input.remaining());	// the next request is not consumed
+	}
+
+	@Test
+	public void splitInputTest() {
+		byte[] raw = BODY.getBytes(Charsets.US_ASCII);
+		for (int split = 1; split < raw.length; split++) {
+			ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+			String first = decode(decoder, ByteBuffer.wrap(raw, 0, split));
+			assertFalse(decoder.isDone());
+			String second = decode(decoder, ByteBuffer.wrap(raw, split, raw.length - split));
+			assertEquals("split at " + split, "Hello, worldabcdefghijklmnopqrstuvwxyz", first + second);
+			assertTrue(decoder.isDone());
+			assertEquals("42", decoder.getTrailers().get("x-checksum"));
+		}
+	}
+
+	@Test
+	public void malformedTest() {
+		String[] malformed = { "x\r\n", "5\r\nHelloX\r\n", "\r\n", "-1\r\n", "0\r\nno colon\r\n\r\n", 
+				"10000000000000000\r\n" };
+		for (String body : malformed) {
+			ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+			decode(decoder, ByteBuffer.wrap(body.getBytes(Charsets.US_ASCII)));
+			assertTrue(body, decoder.isMalformed());
+			assertFalse(body, decoder.isDone());
+		}
+	}
+
+	private static String decode(ChunkedBodyDecoder decoder, ByteBuffer input) {
+		StringBuilder sb = new StringBuilder();
+		ByteBuffer data;
+		while ((data = decoder.next(input)) != null) {
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			sb.append(new String(bytes, Charsets.US_ASCII));
+		}
+		return sb.toString();
+	}
+
+}
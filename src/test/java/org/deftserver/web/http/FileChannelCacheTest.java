@@ -0,0 +1,80 @@
+package org.deftserver.web.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class FileChannelCacheTest {
+
+	@Test
+	public void reuseAndReopenTest() throws IOException {
+		File file = createFile("abc");
+		FileChannelCache cache = new FileChannelCache();
+		FileChannelCache.Entry first = cache.acquire(file);
+		FileChannelCache.Entry second = cache.acquire(file);
+		assertSame(first, second);
+		assertEquals(3, first.length);
+		cache.release(second);
+
+		write(file, "abcdef");	// modified (length changed)
+		FileChannelCache.Entry third = cache.acquire(file);
+		assertNotSame(first, third);
+		assertEquals(6, third.length);
+		assertTrue(first.channel.isOpen());	// still used by a transfer
+		cache.release(first);
+		assertFalse(first.channel.isOpen());
+		cache.release(third);
+		assertTrue(third.channel.isOpen());
+		assertEquals(1, cache.size());
+		file.delete();
+	}
+
+	@Test
+	public void evictLeastRecentlyUsedTest() throws IOException {
+		int maxOpenFiles = HttpServerDescriptor.MAX_OPEN_FILES;
+		HttpServerDescriptor.MAX_OPEN_FILES = 2;
+		try {
+			File a = createFile("a"), b = createFile("b"), c = createFile("c");
+			FileChannelCache cache = new FileChannelCache();
+			FileChannelCache.Entry ea = cache.acquire(a);
+			cache.release(ea);
+			FileChannelCache.Entry eb = cache.acquire(b);
+			FileChannelCache.Entry ec = cache.acquire(c);	// evicts a
+			assertEquals(2, cache.size());
+			assertFalse(ea.channel.isOpen());
+			assertTrue(eb.channel.isOpen());
+			assertTrue(ec.channel.isOpen());
+			cache.release(eb);
+			cache.release(ec);
+			a.delete();
+			b.delete();
+			c.delete();
+		} finally {
+			HttpServerDescriptor.MAX_OPEN_FILES = maxOpenFiles;
+		}
+	}
+
+	private static File createFile(String content) throws IOException {
+		File file = File.createTempFile("deft", ".txt");
+		write(file, content);
+		return file;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+}
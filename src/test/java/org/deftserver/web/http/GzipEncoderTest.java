@@ -0,0 +1,94 @@
+package org.deftserver.web.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.deftserver.io.buffer.ByteBufferPool;
+import org.deftserver.io.buffer.CompositeByteBuffer;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+public class GzipEncoderTest {
+
+	private final CompositeByteBuffer dst = new CompositeByteBuffer(new ByteBufferPool(), 1024);
+	private final GzipEncoder encoder = new GzipEncoder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		byte[] data = sb.toString().getBytes(Charsets.US_ASCII);
+		encoder.write(data, 0, 1000, dst);
+		encoder.write(data, 1000, data.length - 1000, dst);
+		encoder.finish(dst);
+
+		byte[] compressed = drain(dst);
+		assertEquals(sb.toString(), decode(compressed));
+		dst.release();
+	}
+
+	@Test
+	public void flush() throws Exception {
+		byte[] first = "Hello, ".getBytes(Charsets.US_ASCII);
+		encoder.write(first, 0, first.length, dst);
+		encoder.flush(dst);
+
+		byte[] flushed = drain(dst);
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(flushed, 10, flushed.length - 10);	// skip the gzip header
+		byte[] inflated = new byte[64];
+		int n = inflater.inflate(inflated);
+		inflater.end();
+		assertEquals("Hello, ", new String(inflated, 0, n, Charsets.US_ASCII));	// decodable without the rest
+
+		byte[] second = "world".getBytes(Charsets.US_ASCII);
+		encoder.write(second, 0, second.length, dst);
+		encoder.finish(dst);
+		byte[] rest = drain(dst);
+
+		byte[] all = new byte[flushed.length + rest.length];
+		System.arraycopy(flushed, 0, all, 0, flushed.length);
+		System.arraycopy(rest, 0, all, flushed.length, rest.length);
+		assertEquals("Hello, world", decode(all));
+		dst.release();
+	}
+
+	@Test
+	public void writeAfterEnd() {
+		encoder.end();	// e.g. the connection is closed while the response is written
+		byte[] data = "lost".getBytes(Charsets.US_ASCII);
+		encoder.write(data, 0, data.length, dst);
+		encoder.flush(dst);
+		encoder.finish(dst);
+		encoder.end();
+		assertEquals(0, dst.remaining());
+		dst.release();
+	}
+
+	private static byte[] drain(CompositeByteBuffer buffer) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		for (ByteBuffer segment : buffer.nioBuffers()) {
+			byte[] bytes = new byte[segment.remaining()];
+			segment.duplicate().get(bytes);
+			os.write(bytes, 0, bytes.length);
+		}
+		buffer.clear();
+		return os.toByteArray();
+	}
+
+	private static String decode(byte[] compressed) throws IOException {
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		return new String(ByteStreams.toByteArray(is), Charsets.US_ASCII);
+	}
+
+}
@@ -20,6 +20,8 @@ import org.deftserver.web.http.HttpRequest;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+
 
 public class HttpRequestTest {
 
@@ -356,4 +358,146 @@ public class HttpRequestTest {
 	}
 	
 
+	@Test
+	public void testGarbageRequestIsMalFormed() {
+		HttpRequest request = HttpRequest.of(ByteBuffer.wrap(new byte[] {1, 1, 1, 1}));
+		assertTrue(request instanceof MalFormedHttpRequest);
+	}
+	
+	@Test
+	public void testIncompleteHeaderSection() {
+		HttpRequestHelper helper = new HttpRequestHelper();
+		helper.addHeader("Cookie", "a=b; c=d");
+		byte[] raw = helper.getRequestAsBytes();
+		ByteBuffer buffer = ByteBuffer.allocate(raw.length);
+		
+		// deliver the request in three separate "reads" 
+		int[] splits = {3, raw.length / 2, raw.length};
+		HttpRequest request = null;
+		int from = 0;
+		for (int split : splits) {
+			buffer.put(raw, from, split - from);
+			buffer.flip();
+			if (request == null) {
+				request = HttpRequest.of(buffer);
+			} else {
+				request = HttpRequest.continueParsing(buffer, (PartialHttpRequest) request);
+			}
+			buffer.position(buffer.limit());
+			buffer.limit(buffer.capacity());
+			from = split;
+			if (split < raw.length) {
+				assertTrue(request instanceof PartialHttpRequest);
+				assertFalse(((PartialHttpRequest) request).isHeaderComplete());
+			}
+		}
+		assertFalse(request instanceof PartialHttpRequest);
+		assertEquals("GET / HTTP/1.1", request.getRequestLine());
+		assertEquals("a=b; c=d", request.getHeader("cookie"));
+		assertEquals(4, request.getHeaders().size());
+	}
+	
+	@Test
+	public void testIncompleteBody() {
+		String raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\n01234";
+		HttpRequest request = HttpRequest.of(ByteBuffer.wrap(raw.getBytes()));
+		assertTrue(request instanceof PartialHttpRequest);
+		assertTrue(((PartialHttpRequest) request).isHeaderComplete());
+		assertEquals("POST /echo HTTP/1.1", request.getRequestLine());
+		
+		request = HttpRequest.continueParsing(ByteBuffer.wrap("56789".getBytes()), (PartialHttpRequest) request);
+		assertFalse(request instanceof PartialHttpRequest);
+		assertEquals("0123456789", request.getBody());
+		assertEquals("/echo", request.getRequestedPath());
+	}
+	
+	@Test
+	public void testPipelinedRequests() {
+		String raw = "GET /a HTTP/1.1\r\nHost: localhost\r\n\r\n"
+			+ "POST /b HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nabc"
+			+ "GET /c HTTP/1.1\r\nHo";
+		ByteBuffer buffer = ByteBuffer.wrap(raw.getBytes());
+		HttpRequest request = HttpRequest.of(buffer);
+		assertEquals("/a", request.getRequestedPath());
+		assertEquals("", request.getBody());	// no Content-Length, the next request is not part of the body
+		
+		buffer = buffer.slice();	// the parser expects the request at position 0
+		request = HttpRequest.of(buffer);
+		assertEquals("/b", request.getRequestedPath());
+		assertEquals("abc", request.getBody());
+		
+		buffer = buffer.slice();
+		assertEquals("GET /c HTTP/1.1\r\nHo", Charsets.US_ASCII.decode(buffer.duplicate()).toString());
+		assertTrue(HttpRequest.of(buffer) instanceof PartialHttpRequest);
+		assertEquals(0, buffer.position());	// the incomplete header section is kept
+	}
+	
+	@Test
+	public void testIncompleteBodyIsBufferedAsBytes() {
+		String raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5000\r\n\r\n\u00e5";
+		HttpRequest request = HttpRequest.of(ByteBuffer.wrap(raw.getBytes(Charsets.ISO_8859_1)));
+		assertTrue(request instanceof PartialHttpRequest);
+		
+		byte[] chunk = new byte[1000];
+		Arrays.fill(chunk, (byte) 0xe4);	// '\u00e4' in ISO-8859-1
+		for (int i = 0; i < 5; i++) {
+			ByteBuffer buffer = ByteBuffer.wrap(chunk);
+			request = HttpRequest.continueParsing(buffer, (PartialHttpRequest) request);
+			assertEquals(i < 4 ? 0 : 1, buffer.remaining());	// bytes beyond the body are not consumed
+		}
+		assertFalse(request instanceof PartialHttpRequest);
+		assertEquals(5000, request.getBodyAsBytes().length);
+		String body = request.getBody();
+		assertEquals(5000, body.length());
+		assertEquals('\u00e5', body.charAt(0));
+		assertEquals('\u00e4', body.charAt(4999));
+	}
+	
+	@Test
+	public void testChunkedBody() {
+		String raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+			+ "4\r\nWiki\r\n5\r\npedia\r\n0\r\n\r\n";
+		HttpRequest request = HttpRequest.of(ByteBuffer.wrap(raw.getBytes()));
+		assertFalse(request instanceof PartialHttpRequest);
+		assertEquals("Wikipedia", request.getBody());
+		
+		raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nWi";
+		request = HttpRequest.of(ByteBuffer.wrap(raw.getBytes()));
+		assertTrue(request instanceof PartialHttpRequest);
+		request = HttpRequest.continueParsing(ByteBuffer.wrap("ki\r\n5\r\npedia\r\n".getBytes()), 
+				(PartialHttpRequest) request);
+		assertTrue(request instanceof PartialHttpRequest);
+		request = HttpRequest.continueParsing(ByteBuffer.wrap("0\r\nX-Trailer: t\r\n\r\n".getBytes()), 
+				(PartialHttpRequest) request);
+		assertFalse(request instanceof PartialHttpRequest);
+		assertEquals("Wikipedia", request.getBody());
+		assertEquals("t", request.getHeader("X-Trailer"));
+		assertEquals("localhost", request.getHeader("Host"));
+	}
+	
+	@Test
+	public void testMalformedChunkedBody() {
+		String raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n";
+		assertTrue(HttpRequest.of(ByteBuffer.wrap(raw.getBytes())) instanceof MalFormedHttpRequest);
+		raw = "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: gzip\r\n\r\n";
+		assertTrue(HttpRequest.of(ByteBuffer.wrap(raw.getBytes())) instanceof MalFormedHttpRequest);
+	}
+	
+	@Test
+	public void testHeaderValueWhitespaceIsTrimmed() {
+		String raw = "GET /path?a=1 HTTP/1.1\r\nHost:localhost\r\nX-Padded: \t value \t\r\n\r\n";
+		HttpRequest request = HttpRequest.of(ByteBuffer.wrap(raw.getBytes()));
+		assertEquals("localhost", request.getHeader("Host"));
+		assertEquals("value", request.getHeader("x-padded"));
+		assertEquals("/path", request.getRequestedPath());
+		assertEquals("1", request.getParameter("a"));
+		assertEquals("HTTP/1.1", request.getVersion());
+	}
+	
+	@Test
+	public void testUnknownMethodIsMalFormed() {
+		String raw = "BREW /pot HTTP/1.1\r\nHost: localhost\r\n\r\n";
+		assertTrue(HttpRequest.of(ByteBuffer.wrap(raw.getBytes())) instanceof MalFormedHttpRequest);
+	}
+
 }
@@ -0,0 +1,57 @@
+package org.deftserver.web.http.etag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class EtagDigestTest {
+
+	@Test
+	public void murmur3Test() {
+		// reference values of MurmurHash3_x86_32 (seed 0)
+		assertEquals(0, hash(""));
+		assertEquals(0x248bfa47, hash("hello"));
+		assertEquals(0x2e4ff723, hash("The quick brown fox jumps over the lazy dog"));
+	}
+	
+	@Test
+	public void incrementalWeakEtagTest() {
+		byte[] bytes = "The quick brown fox jumps over the lazy dog".getBytes(Charsets.UTF_8);
+		WeakEtagDigest whole = new WeakEtagDigest();
+		whole.update(bytes, 0, bytes.length);
+		for (int split = 0; split <= bytes.length; split++) {
+			WeakEtagDigest parts = new WeakEtagDigest();
+			parts.update(bytes, 0, split);
+			for (int i = split; i < bytes.length; i++) {	// byte by byte
+				parts.update(bytes, i, 1);
+			}
+			assertEquals(whole.hash(), parts.hash());
+		}
+		assertEquals("W/\"2b-2e4ff723\"", whole.getEtag());
+	}
+	
+	@Test
+	public void md5EtagTest() {
+		byte[] bytes = "hello".getBytes(Charsets.UTF_8);
+		EtagDigest digest = EtagStrategy.MD5.newDigest();
+		digest.update(bytes, 0, 2);
+		digest.update(bytes, 2, 3);
+		assertEquals("\"5d41402abc4b2a76b9719d911017c592\"", digest.getEtag());
+	}
+	
+	@Test
+	public void noEtagTest() {
+		assertNull(EtagStrategy.NONE.newDigest());
+	}
+	
+	private static int hash(String data) {
+		byte[] bytes = data.getBytes(Charsets.UTF_8);
+		WeakEtagDigest digest = new WeakEtagDigest();
+		digest.update(bytes, 0, bytes.length);
+		return digest.hash();
+	}
+
+}